@@ -0,0 +1,150 @@
+package ua.savchenko.user_management;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from launching the application until its first request is answered, in each startup mode,
+ * with the resident set size of the process right after that request printed per start.
+ * Every invocation starts a new process from the artifacts in build/, prepared with
+ * {@code ./gradlew cdsArchive nativeCompile -Paot -PstartupArgs=--spring.profiles.active=fast-start};
+ * modes whose artifacts are missing fail their trial. The archive only applies to the JDK that wrote it,
+ * the one running the benchmark. RSS is read from /proc, so Linux only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+public class UserStartupBenchmark {
+
+    private static final Path BUILD = Path.of(System.getProperty("startup.build", "build"));
+    private static final Path CDS = BUILD.resolve("cds");
+    private static final Path NATIVE = BUILD.resolve("native/nativeCompile/user-management");
+    private static final String FAST_START = "--spring.profiles.active=fast-start";
+    private static final Duration START_TIMEOUT = Duration.ofSeconds(60);
+
+    //  jvm: the plain jar; fast-start: lazy initialization; cds: and the AppCDS archive;
+    //  aot: and the AOT-processed beans; native: the GraalVM image with lazy initialization
+    @Param({"jvm", "fast-start", "cds", "aot", "native"})
+    private String mode;
+
+    private HttpClient client;
+    private Process process;
+
+    @Setup(Level.Trial)
+    public void checkArtifacts() {
+        Path required = switch (mode) {
+            case "jvm", "fast-start" -> CDS.resolve("user-management.jar");
+            case "cds", "aot" -> CDS.resolve("application.jsa");
+            case "native" -> NATIVE;
+            default -> throw new IllegalArgumentException("Unknown mode " + mode);
+        };
+        if (!Files.exists(required)) {
+            throw new IllegalStateException(required + " is missing, build it first");
+        }
+        client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopApplication() throws Exception {
+        if (process != null) {
+            System.out.printf("%n%s: %d MB resident after the first request%n", mode, residentMegabytes(process.pid()));
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+            process = null;
+        }
+    }
+
+    @Benchmark
+    public int firstRequest() throws Exception {
+        int port = freePort();
+        long start = System.nanoTime();
+        process = new ProcessBuilder(command(port))
+                .directory((mode.equals("native") ? BUILD : CDS).toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/user"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("""
+                        {"email":"first@example.com","firstName":"John","lastName":"Doe","birthDate":"1990-01-01"}"""))
+                .build();
+        while (System.nanoTime() - start < START_TIMEOUT.toNanos()) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException(mode + " exited with " + process.exitValue());
+            }
+            try {
+                return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+            } catch (ConnectException e) {
+                Thread.sleep(2);
+            }
+        }
+        throw new IllegalStateException(mode + " did not answer within " + START_TIMEOUT);
+    }
+
+    private List<String> command(int port) {
+        List<String> command = new ArrayList<>();
+        if (mode.equals("native")) {
+            command.add(NATIVE.toAbsolutePath().toString());
+        } else {
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            if (mode.equals("cds") || mode.equals("aot")) {
+                command.add("-XX:SharedArchiveFile=application.jsa");
+            }
+            if (mode.equals("aot")) {
+                command.add("-Dspring.aot.enabled=true");
+            }
+            command.add("-jar");
+            command.add("user-management.jar");
+        }
+        if (!mode.equals("jvm")) {
+            command.add(FAST_START);
+        }
+        command.add("--server.port=" + port);
+        command.add("--spring.main.banner-mode=off");
+        return command;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static long residentMegabytes(long pid) throws IOException {
+        for (String line : Files.readAllLines(Path.of("/proc", String.valueOf(pid), "status"))) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("\\D", "")) >> 10;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,128 @@
+package ua.savchenko.user_management.controller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import ua.savchenko.user_management.UserManagementApplication;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Requests through the whole application: MockMvc dispatches in process and shows the cost of the
+ * Spring MVC stack, the http variants go through the embedded server over a local socket.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserApiBenchmark {
+
+    private static final LocalDate FIRST_BIRTH_DATE = LocalDate.of(1950, 1, 1);
+    private static final int BIRTH_DATE_SPREAD_DAYS = 60 * 365;
+
+    @Param({"100000"})
+    private int users;
+
+    private final AtomicLong created = new AtomicLong();
+    private ServletWebServerApplicationContext context;
+    private MockMvc mockMvc;
+    private HttpClient client;
+    private String baseUri;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        context = (ServletWebServerApplicationContext) SpringApplication.run(UserManagementApplication.class,
+                "--server.port=0", "--spring.main.banner-mode=off", "--logging.level.root=warn",
+                "--user.admission.enabled=false");
+        UserStorage userStorage = context.getBean(UserStorage.class);
+        for (int i = 0; i < users; i++) {
+            userStorage.insert(new User("user" + i + "@example.com", "John", "Doe",
+                    FIRST_BIRTH_DATE.plusDays((i * 7919L) % BIRTH_DATE_SPREAD_DAYS), "123 Street", "1234567890"));
+        }
+        mockMvc = MockMvcBuilders.webAppContextSetup(context).build();
+        client = HttpClient.newHttpClient();
+        baseUri = "http://localhost:" + context.getWebServer().getPort() + "/api/user";
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    @Benchmark
+    public String mockMvcCreate() throws Exception {
+        return mockMvc.perform(post("/api/user").contentType(MediaType.APPLICATION_JSON).content(newUser()))
+                .andReturn().getResponse().getContentAsString();
+    }
+
+    @Benchmark
+    public String mockMvcUpdate() throws Exception {
+        return mockMvc.perform(patch("/api/user/" + randomEmail()).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"firstName\":\"Jack\"}"))
+                .andReturn().getResponse().getContentAsString();
+    }
+
+    @Benchmark
+    public String mockMvcSearch() throws Exception {
+        LocalDate from = randomBirthDate();
+        return mockMvc.perform(get("/api/user/search").param("from", from.toString())
+                        .param("to", from.plusYears(1).toString()).param("limit", "20"))
+                .andReturn().getResponse().getContentAsString();
+    }
+
+    @Benchmark
+    public String httpCreate() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUri))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(newUser()))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    @Benchmark
+    public String httpSearch() throws Exception {
+        LocalDate from = randomBirthDate();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUri + "/search?from=" + from
+                        + "&to=" + from.plusYears(1) + "&limit=20"))
+                .GET()
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    private String newUser() {
+        return "{\"email\":\"new" + created.incrementAndGet() + "@example.com\",\"firstName\":\"John\","
+                + "\"lastName\":\"Doe\",\"birthDate\":\"1990-01-01\",\"address\":\"123 Street\"}";
+    }
+
+    private String randomEmail() {
+        return "user" + ThreadLocalRandom.current().nextInt(users) + "@example.com";
+    }
+
+    private static LocalDate randomBirthDate() {
+        return FIRST_BIRTH_DATE.plusDays(ThreadLocalRandom.current().nextInt(BIRTH_DATE_SPREAD_DAYS));
+    }
+}
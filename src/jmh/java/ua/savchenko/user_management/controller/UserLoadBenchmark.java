@@ -0,0 +1,82 @@
+package ua.savchenko.user_management.controller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import ua.savchenko.user_management.UserManagementApplication;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Load test of the REST API with and without virtual threads. Persistence is on with an fsync per
+ * group commit, so every create blocks on disk I/O, and more clients run than the Tomcat pool has
+ * threads. Throughput mode gives requests per second, sample mode the latency percentiles (p0.99).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(400)
+public class UserLoadBenchmark {
+
+    @Param({"false", "true"})
+    private boolean virtualThreads;
+
+    private final AtomicLong created = new AtomicLong();
+    private ServletWebServerApplicationContext context;
+    private Path directory;
+    private HttpClient client;
+    private URI createUri;
+
+    @Setup(Level.Trial)
+    public void startApplication() throws IOException {
+        directory = Files.createTempDirectory("user-load-bench");
+        context = (ServletWebServerApplicationContext) SpringApplication.run(UserManagementApplication.class,
+                "--server.port=0", "--spring.main.banner-mode=off", "--logging.level.root=warn",
+                "--spring.threads.virtual.enabled=" + virtualThreads,
+                "--user.persistence.enabled=true", "--user.persistence.directory=" + directory,
+                "--user.persistence.fsync=always", "--user.admission.enabled=false");
+        client = HttpClient.newHttpClient();
+        createUri = URI.create("http://localhost:" + context.getWebServer().getPort() + "/api/user");
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() throws IOException {
+        context.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int createUser() throws Exception {
+        String body = "{\"email\":\"user" + created.incrementAndGet() + "@example.com\",\"firstName\":\"John\","
+                + "\"lastName\":\"Doe\",\"birthDate\":\"1990-01-01\",\"address\":\"123 Street\"}";
+        HttpRequest request = HttpRequest.newBuilder(createUri)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
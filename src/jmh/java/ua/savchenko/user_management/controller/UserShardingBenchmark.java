@@ -0,0 +1,118 @@
+package ua.savchenko.user_management.controller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import ua.savchenko.user_management.UserManagementApplication;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Write and read throughput over 1, 2 and 4 shards started on localhost ports, each with its own
+ * fsync'ed change log. Clients spread requests over the instances like a load balancer would,
+ * so most of them are forwarded to the owner. On one machine the shards share its cores and disk,
+ * the scaling seen is an upper bound of the routing cost rather than of the capacity gained.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(64)
+public class UserShardingBenchmark {
+
+    private static final int PRELOADED = 10_000;
+
+    @Param({"1", "2", "4"})
+    private int shards;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong read = new AtomicLong();
+    private final List<ConfigurableApplicationContext> instances = new ArrayList<>();
+    private final List<URI> nodes = new ArrayList<>();
+    private Path directory;
+    private HttpClient client;
+
+    @Setup(Level.Trial)
+    public void startShards() throws Exception {
+        directory = Files.createTempDirectory("user-sharding-bench");
+        List<ServerSocket> sockets = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            sockets.add(new ServerSocket(0));
+        }
+        for (ServerSocket socket : sockets) {
+            nodes.add(URI.create("http://localhost:" + socket.getLocalPort()));
+            socket.close();
+        }
+        String cluster = nodes.stream().map(URI::toString).reduce((a, b) -> a + "," + b).orElseThrow();
+        for (int i = 0; i < shards; i++) {
+            List<String> args = new ArrayList<>(List.of("--server.port=" + nodes.get(i).getPort(),
+                    "--spring.main.banner-mode=off", "--logging.level.root=warn",
+                    "--user.persistence.enabled=true", "--user.persistence.directory=" + directory.resolve("shard" + i),
+                    "--user.persistence.fsync=always", "--user.admission.enabled=false"));
+            if (shards > 1) {
+                args.add("--user.cluster.nodes=" + cluster);
+                args.add("--user.cluster.self=" + i);
+            }
+            instances.add(SpringApplication.run(UserManagementApplication.class, args.toArray(String[]::new)));
+        }
+        client = HttpClient.newHttpClient();
+        for (int i = 0; i < PRELOADED; i++) {
+            post(nodes.get(i % shards), "preloaded" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopShards() throws IOException {
+        instances.forEach(ConfigurableApplicationContext::close);
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int createUser() throws Exception {
+        long n = created.incrementAndGet();
+        return post(nodes.get((int) (n % shards)), "user" + n);
+    }
+
+    @Benchmark
+    public int getUser() throws Exception {
+        long n = read.incrementAndGet();
+        URI uri = nodes.get((int) (n % shards)).resolve("/api/user/preloaded" + (n * 7919 % PRELOADED) + "@example.com");
+        return client.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private int post(URI node, String name) throws Exception {
+        String body = "{\"email\":\"" + name + "@example.com\",\"firstName\":\"John\","
+                + "\"lastName\":\"Doe\",\"birthDate\":\"1990-01-01\",\"address\":\"123 Street\"}";
+        HttpRequest request = HttpRequest.newBuilder(node.resolve("/api/user"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,95 @@
+package ua.savchenko.user_management.controller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import ua.savchenko.user_management.UserManagementApplication;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same requests against Tomcat with Spring MVC and against Netty with WebFlux, with many more
+ * concurrent clients than cores. Run both modes for throughput and tail latency; the heap and
+ * thread count printed at the end of each trial compare what each stack holds under that load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(400)
+public class UserStackBenchmark {
+
+    private static final LocalDate FIRST_BIRTH_DATE = LocalDate.of(1950, 1, 1);
+    private static final int BIRTH_DATE_SPREAD_DAYS = 60 * 365;
+
+    @Param({"servlet", "reactive"})
+    private String stack;
+
+    @Param({"100000"})
+    private int users;
+
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private String baseUri;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        context = SpringApplication.run(UserManagementApplication.class,
+                "--server.port=0", "--spring.main.banner-mode=off", "--logging.level.root=warn",
+                "--spring.main.web-application-type=" + stack, "--user.admission.enabled=false");
+        UserStorage userStorage = context.getBean(UserStorage.class);
+        for (int i = 0; i < users; i++) {
+            userStorage.insert(new User("user" + i + "@example.com", "John", "Doe",
+                    FIRST_BIRTH_DATE.plusDays((i * 7919L) % BIRTH_DATE_SPREAD_DAYS), "123 Street", "1234567890"));
+        }
+        client = HttpClient.newHttpClient();
+        baseUri = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort() + "/api/user";
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("%n%s: %d MB heap used, %d live threads%n", stack,
+                (runtime.totalMemory() - runtime.freeMemory()) >> 20,
+                ManagementFactory.getThreadMXBean().getThreadCount());
+        context.close();
+    }
+
+    @Benchmark
+    public String get() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUri + "/user"
+                        + ThreadLocalRandom.current().nextInt(users) + "@example.com"))
+                .GET()
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    @Benchmark
+    public String search() throws Exception {
+        LocalDate from = FIRST_BIRTH_DATE.plusDays(ThreadLocalRandom.current().nextInt(BIRTH_DATE_SPREAD_DAYS));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUri + "/search?from=" + from
+                        + "&to=" + from.plusYears(1) + "&limit=20"))
+                .GET()
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+}
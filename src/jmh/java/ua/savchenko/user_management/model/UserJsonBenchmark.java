@@ -0,0 +1,83 @@
+package ua.savchenko.user_management.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson (de)serialization of users with the mapper configuration the application runs with:
+ * ISO dates and null fields left out.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserJsonBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    private ObjectWriter userWriter;
+    private ObjectReader userReader;
+    private ObjectWriter pageWriter;
+    private ObjectReader pageReader;
+    private User user;
+    private byte[] userJson;
+    private UserPage page;
+    private byte[] pageJson;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json()
+                .serializationInclusion(JsonInclude.Include.NON_NULL)
+                .build();
+        userWriter = objectMapper.writerFor(User.class);
+        userReader = objectMapper.readerFor(User.class);
+        pageWriter = objectMapper.writerFor(UserPage.class);
+        pageReader = objectMapper.readerFor(UserPage.class);
+
+        user = new User("john@example.com", "John", "Doe", LocalDate.of(1990, 1, 1), "123 Street", "1234567890");
+        userJson = userWriter.writeValueAsBytes(user);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            users.add(new User("user" + i + "@example.com", "John", "Doe", LocalDate.of(1990, 1, 1).plusDays(i),
+                    "123 Street", null));
+        }
+        page = new UserPage(users, "MTk5MC0wNC0xMHx1c2VyOTlAZXhhbXBsZS5jb20");
+        pageJson = pageWriter.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] serializeUser() throws IOException {
+        return userWriter.writeValueAsBytes(user);
+    }
+
+    @Benchmark
+    public User deserializeUser() throws IOException {
+        return userReader.readValue(userJson);
+    }
+
+    @Benchmark
+    public byte[] serializePage() throws IOException {
+        return pageWriter.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public UserPage deserializePage() throws IOException {
+        return pageReader.readValue(pageJson);
+    }
+}
@@ -0,0 +1,94 @@
+package ua.savchenko.user_management.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ua.savchenko.user_management.configuration.CborConfiguration;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON against CBOR with epoch day dates, with the mappers the application runs with, for one user and
+ * for the list of a 10k user search. The payload sizes are printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserWireFormatBenchmark {
+
+    private static final int SEARCH_RESULTS = 10_000;
+
+    @Param({"json", "cbor"})
+    private String format;
+
+    private ObjectWriter userWriter;
+    private ObjectReader userReader;
+    private ObjectWriter usersWriter;
+    private ObjectReader usersReader;
+    private User user;
+    private byte[] userBytes;
+    private List<User> users;
+    private byte[] usersBytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json()
+                .serializationInclusion(JsonInclude.Include.NON_NULL);
+        ObjectMapper objectMapper = format.equals("cbor") ? CborConfiguration.cborMapper(builder) : builder.build();
+        TypeReference<List<User>> userList = new TypeReference<>() {
+        };
+        userWriter = objectMapper.writerFor(User.class);
+        userReader = objectMapper.readerFor(User.class);
+        usersWriter = objectMapper.writerFor(userList);
+        usersReader = objectMapper.readerFor(userList);
+
+        user = new User("john@example.com", "John", "Doe", LocalDate.of(1990, 1, 1), "123 Street", "1234567890", 42);
+        userBytes = userWriter.writeValueAsBytes(user);
+        users = new ArrayList<>(SEARCH_RESULTS);
+        for (int i = 0; i < SEARCH_RESULTS; i++) {
+            users.add(new User("user" + i + "@example.com", "John", "Doe", LocalDate.of(1970, 1, 1).plusDays(i),
+                    i % 2 == 0 ? "123 Street" : null, null, i + 1));
+        }
+        usersBytes = usersWriter.writeValueAsBytes(users);
+        System.out.printf("%n%s: %d bytes per user, %d bytes per %d user search%n", format, userBytes.length,
+                usersBytes.length, SEARCH_RESULTS);
+    }
+
+    @Benchmark
+    public byte[] serializeUser() throws IOException {
+        return userWriter.writeValueAsBytes(user);
+    }
+
+    @Benchmark
+    public User deserializeUser() throws IOException {
+        return userReader.readValue(userBytes);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] serializeSearch() throws IOException {
+        return usersWriter.writeValueAsBytes(users);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<User> deserializeSearch() throws IOException {
+        return usersReader.readValue(usersBytes);
+    }
+}
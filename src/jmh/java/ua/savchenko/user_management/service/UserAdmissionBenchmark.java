@@ -0,0 +1,83 @@
+package ua.savchenko.user_management.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What admission control adds to a request that is let through: the token bucket of one client,
+ * buckets of ten thousand clients in turn, and taking and returning a search slot. The rate is
+ * high enough that nothing is rejected. Run with -PjmhProfilers=gc to check that nothing is allocated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserAdmissionBenchmark {
+
+    private static final int CLIENTS = 10_000;
+
+    private UserAdmission userAdmission;
+    private String[] clients;
+
+    @State(Scope.Thread)
+    public static class Client {
+        private int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        UserConfiguration userConfiguration = new UserConfiguration();
+        userConfiguration.getAdmission().setRate(1_000_000_000);
+        userConfiguration.getAdmission().setBurst(Integer.MAX_VALUE);
+        userConfiguration.getAdmission().setMaxConcurrentSearches(Runtime.getRuntime().availableProcessors());
+        clients = new String[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            clients[i] = "client-" + i;
+        }
+        userConfiguration.getAdmission().setKeys(Set.of(clients));
+        userAdmission = new UserAdmission(userConfiguration, new SimpleMeterRegistry());
+        for (String client : clients) {
+            userAdmission.admit(client, "10.0.0.1");
+        }
+    }
+
+    @Benchmark
+    public void admitOneClient() {
+        userAdmission.admit("client-0", "10.0.0.1");
+    }
+
+    @Benchmark
+    public void admitManyClients(Client client) {
+        client.next = (client.next + 1) % CLIENTS;
+        userAdmission.admit(clients[client.next], "10.0.0.1");
+    }
+
+    @Benchmark
+    public void admitByAddress() {
+        userAdmission.admit(null, "10.0.0.1");
+    }
+
+    @Benchmark
+    public void searchSlot() {
+        userAdmission.acquireSearch("client-0");
+        userAdmission.releaseSearch();
+    }
+
+    //  Threads of one client contending for its bucket
+    @Benchmark
+    @Threads(4)
+    public void admitOneClientFromFourThreads() {
+        userAdmission.admit("client-0", "10.0.0.1");
+    }
+}
@@ -0,0 +1,86 @@
+package ua.savchenko.user_management.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.ChangesExpiredException;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserChangeEvent;
+import ua.savchenko.user_management.storage.InMemoryUserStorage;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of publishing change events on the write path: concurrent inserts without a feed,
+ * with a feed nobody reads, and with a feed drained by streaming subscribers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class UserChangeFeedBenchmark {
+
+    // -1 runs without a feed, otherwise the number of subscribers
+    @Param({"-1", "0", "4"})
+    private int subscribers;
+
+    private final AtomicLong created = new AtomicLong();
+    private final List<Future<?>> subscriptions = new ArrayList<>();
+    private UserStorage userStorage;
+    private UserChangeFeed userChangeFeed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        userStorage = new InMemoryUserStorage();
+        if (subscribers < 0) {
+            return;
+        }
+        userChangeFeed = new UserChangeFeed(userStorage, new UserConfiguration(), Clock.systemUTC());
+        userChangeFeed.start();
+        for (int i = 0; i < subscribers; i++) {
+            subscriptions.add(userChangeFeed.subscribe(0, new UserChangeFeed.Subscriber() {
+                @Override
+                public void onEvents(List<UserChangeEvent> events) {
+                }
+
+                @Override
+                public void onIdle() {
+                }
+
+                @Override
+                public void onExpired(ChangesExpiredException e) {
+                }
+            }));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        subscriptions.forEach(subscription -> subscription.cancel(true));
+        if (userChangeFeed != null) {
+            userChangeFeed.close();
+        }
+    }
+
+    @Benchmark
+    public boolean insert() {
+        long n = created.incrementAndGet();
+        return userStorage.insert(new User("user" + n + "@example.com", "John", "Doe", LocalDate.of(1990, 1, 1), null, null));
+    }
+}
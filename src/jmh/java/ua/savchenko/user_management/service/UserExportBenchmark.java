@@ -0,0 +1,104 @@
+package ua.savchenko.user_management.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.storage.InMemoryUserStorage;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full export of 100k users to a discarding stream, against the search over every birth date it replaces,
+ * optionally while a writer keeps updating users. Scores are per exported user; -PjmhProfilers=gc shows
+ * that the export allocates per user only what serializing takes, while the search builds the whole list first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserExportBenchmark {
+
+    private static final int USERS = 100_000;
+
+    @Param({"NDJSON", "CSV"})
+    private UserExportService.Format format;
+
+    @Param({"false", "true"})
+    private boolean gzip;
+
+    @Param({"false", "true"})
+    private boolean concurrentWrites;
+
+    private UserStorage userStorage;
+    private UserExportService userExportService;
+    private ObjectMapper objectMapper;
+    private ExecutorService writer;
+    private volatile boolean writing;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        userStorage = new InMemoryUserStorage();
+        for (int i = 0; i < USERS; i++) {
+            userStorage.insert(user(i, "123 Street"));
+        }
+        objectMapper = JsonMapper.builder().findAndAddModules().build();
+        userExportService = new UserExportService(userStorage, new UserConfiguration(), objectMapper, Clock.systemUTC());
+        if (concurrentWrites) {
+            writing = true;
+            writer = Executors.newSingleThreadExecutor();
+            writer.execute(() -> {
+                while (writing) {
+                    int i = ThreadLocalRandom.current().nextInt(USERS);
+                    User current = userStorage.find(user(i, null).getEmail()).orElseThrow();
+                    userStorage.compareAndSet(current.getEmail(), current, user(i, "Street " + System.nanoTime()));
+                }
+            });
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        writing = false;
+        if (writer != null) {
+            writer.shutdown();
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(USERS)
+    public int export() throws IOException {
+        return userExportService.export(format, gzip, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(USERS)
+    public int searchEveryBirthDate() throws IOException {
+        byte[] json = objectMapper.writeValueAsBytes(userStorage.findByBirthDateRange(LocalDate.MIN, LocalDate.MAX));
+        return json.length;
+    }
+
+    private static User user(int i, String address) {
+        return new User("user" + i + "@example.com", "John", "Doe", LocalDate.of(1950, 1, 1).plusDays(i % 20_000),
+                address, "1234567890");
+    }
+}
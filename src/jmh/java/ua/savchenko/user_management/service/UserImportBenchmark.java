@@ -0,0 +1,101 @@
+package ua.savchenko.user_management.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import ua.savchenko.user_management.UserManagementApplication;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imports 100k users through the running application, once as single POST /api/user
+ * calls and once as one NDJSON POST /api/user/batch. Scores are per imported user.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class UserImportBenchmark {
+
+    private static final int RECORDS = 100_000;
+
+    private ServletWebServerApplicationContext context;
+    private HttpClient client;
+    private URI singleUri;
+    private URI batchUri;
+    private int invocation;
+    private String[] singleBodies;
+    private String batchBody;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        context = (ServletWebServerApplicationContext) SpringApplication.run(UserManagementApplication.class,
+                "--server.port=0", "--spring.main.banner-mode=off", "--logging.level.root=warn",
+                "--user.admission.enabled=false");
+        int port = context.getWebServer().getPort();
+        client = HttpClient.newHttpClient();
+        singleUri = URI.create("http://localhost:" + port + "/api/user");
+        batchUri = URI.create("http://localhost:" + port + "/api/user/batch");
+    }
+
+    //  Every invocation imports fresh emails, so all users are actually created
+    @Setup(Level.Invocation)
+    public void prepareUsers() {
+        invocation++;
+        singleBodies = new String[RECORDS];
+        StringBuilder batch = new StringBuilder(RECORDS * 128);
+        for (int i = 0; i < RECORDS; i++) {
+            singleBodies[i] = "{\"email\":\"user" + invocation + "-" + i + "@example.com\",\"firstName\":\"John\","
+                    + "\"lastName\":\"Doe\",\"birthDate\":\"1990-01-01\",\"address\":\"123 Street\"}";
+            batch.append(singleBodies[i]).append('\n');
+        }
+        batchBody = batch.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public int singlePosts() throws Exception {
+        int created = 0;
+        for (String body : singleBodies) {
+            HttpRequest request = HttpRequest.newBuilder(singleUri)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 201) {
+                created++;
+            }
+        }
+        return created;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public String batchPost() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(batchUri)
+                .header("Content-Type", "application/x-ndjson")
+                .POST(HttpRequest.BodyPublishers.ofString(batchBody))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString()).body();
+    }
+}
@@ -0,0 +1,101 @@
+package ua.savchenko.user_management.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.metrics.UserMetrics;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserOperation;
+import ua.savchenko.user_management.model.UserOperationsResult;
+import ua.savchenko.user_management.storage.InMemoryUserStorage;
+import ua.savchenko.user_management.storage.UserStorage;
+import ua.savchenko.user_management.util.AgeValidator;
+import ua.savchenko.user_management.util.UserValidator;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same mix of operations (a create, a patch of it and its delete per three) issued one by one through
+ * UserService and as one runOperations call, plain and all-or-nothing. Every invocation leaves the storage
+ * as it found it; the batch is cut to whole triples and scores are per invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UserOperationBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int operations;
+
+    private UserService userService;
+    private UserOperationService userOperationService;
+    private List<UserOperation> batch;
+
+    @Setup(Level.Trial)
+    public void load() {
+        UserConfiguration userConfiguration = new UserConfiguration();
+        userConfiguration.setMinAge(18);
+        UserStorage userStorage = new InMemoryUserStorage();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        UserValidator userValidator = new UserValidator(new AgeValidator(userConfiguration, Clock.systemDefaultZone()));
+        UserMetrics userMetrics = new UserMetrics(registry, userStorage);
+        UserJsonCache userJsonCache = new UserJsonCache(userStorage, objectMapper, userConfiguration, registry);
+        UserCluster userCluster = new UserCluster(userConfiguration, objectMapper);
+        userService = new UserService(userStorage, userValidator, userConfiguration, userMetrics, userJsonCache,
+                userCluster);
+        userOperationService = new UserOperationService(userStorage, userService, userValidator, userConfiguration,
+                userMetrics, userJsonCache, userCluster);
+
+        batch = new ArrayList<>(operations);
+        for (int i = 0; batch.size() < operations; i++) {
+            String email = "user" + i + "@example.com";
+            batch.add(new UserOperation(UserOperation.Type.CREATE, null,
+                    new User(email, "John", "Doe", LocalDate.of(1990, 1, 1), "123 Street", "1234567890"), null));
+            batch.add(new UserOperation(UserOperation.Type.PATCH, email, new User().withFirstName("Jane"), null));
+            batch.add(new UserOperation(UserOperation.Type.DELETE, email, null, null));
+        }
+        batch = batch.subList(0, operations);
+        //  A batch cut after a create would leave that user behind for the next invocation
+        while (batch.get(batch.size() - 1).op() != UserOperation.Type.DELETE) {
+            batch = batch.subList(0, batch.size() - 1);
+        }
+    }
+
+    @Benchmark
+    public void oneByOne(Blackhole blackhole) {
+        for (UserOperation operation : batch) {
+            switch (operation.op()) {
+                case CREATE -> blackhole.consume(userService.createUser(operation.user()));
+                case PATCH -> blackhole.consume(userService.updateUser(operation.email(), operation.user()));
+                case REPLACE -> blackhole.consume(userService.replaceUser(operation.email(), operation.user()));
+                case DELETE -> userService.deleteUser(operation.email());
+            }
+        }
+    }
+
+    @Benchmark
+    public UserOperationsResult runOperations() {
+        return userOperationService.runOperations(batch, false);
+    }
+
+    @Benchmark
+    public UserOperationsResult runOperationsAtomically() {
+        return userOperationService.runOperations(batch, true);
+    }
+}
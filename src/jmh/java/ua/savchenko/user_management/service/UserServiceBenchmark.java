@@ -0,0 +1,160 @@
+package ua.savchenko.user_management.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.ThreadParams;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.metrics.UserMetrics;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserPage;
+import ua.savchenko.user_management.storage.InMemoryUserStorage;
+import ua.savchenko.user_management.storage.UserStorage;
+import ua.savchenko.user_management.util.AgeValidator;
+import ua.savchenko.user_management.util.UserValidator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UserService operations on a storage preloaded with the given number of users, born within sixty years.
+ * Every nested class runs all of them with another number of threads. Updates and replacements pick
+ * random users; every thread deletes from its own slice and puts the user back, so the size stays put.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public abstract class UserServiceBenchmark {
+
+    private static final LocalDate FIRST_BIRTH_DATE = LocalDate.of(1950, 1, 1);
+    private static final int BIRTH_DATE_SPREAD_DAYS = 60 * 365;
+
+    @State(Scope.Benchmark)
+    public static class Dataset {
+
+        @Param({"10000", "100000", "1000000"})
+        private int users;
+
+        private final AtomicLong created = new AtomicLong();
+        private UserStorage userStorage;
+        private UserService userService;
+
+        @Setup(Level.Trial)
+        public void load() {
+            UserConfiguration userConfiguration = new UserConfiguration();
+            userConfiguration.setMinAge(18);
+            userStorage = new InMemoryUserStorage();
+            SimpleMeterRegistry registry = new SimpleMeterRegistry();
+            ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+            userService = new UserService(userStorage,
+                    new UserValidator(new AgeValidator(userConfiguration, Clock.systemDefaultZone())),
+                    userConfiguration, new UserMetrics(registry, userStorage),
+                    new UserJsonCache(userStorage, objectMapper, userConfiguration, registry),
+                    new UserCluster(userConfiguration, objectMapper));
+            for (int i = 0; i < users; i++) {
+                userStorage.insert(user(i));
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            if (userStorage instanceof Closeable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Slice {
+
+        private int first;
+        private int size;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void assign(Dataset dataset, ThreadParams threads) {
+            size = dataset.users / threads.getThreadCount();
+            first = threads.getThreadIndex() * size;
+        }
+
+        int next() {
+            next = (next + 1) % size;
+            return first + next;
+        }
+    }
+
+    @Benchmark
+    public User createUser(Dataset dataset) {
+        return dataset.userService.createUser(new User("new" + dataset.created.incrementAndGet() + "@example.com",
+                "John", "Doe", LocalDate.of(1990, 1, 1), "123 Street", "1234567890"));
+    }
+
+    @Benchmark
+    public User updateUser(Dataset dataset) {
+        int i = ThreadLocalRandom.current().nextInt(dataset.users);
+        User patch = new User().withFirstName("Jack" + i);
+        return dataset.userService.updateUser(email(i), patch);
+    }
+
+    @Benchmark
+    public User replaceUser(Dataset dataset) {
+        int i = ThreadLocalRandom.current().nextInt(dataset.users);
+        return dataset.userService.replaceUser(email(i), user(i));
+    }
+
+    @Benchmark
+    public boolean deleteUser(Dataset dataset, Slice slice) {
+        int i = slice.next();
+        dataset.userService.deleteUser(email(i));
+        return dataset.userStorage.insert(user(i));
+    }
+
+    @Benchmark
+    public List<User> findUsersByBirthDateRange(Dataset dataset) {
+        LocalDate from = FIRST_BIRTH_DATE.plusDays(ThreadLocalRandom.current().nextInt(BIRTH_DATE_SPREAD_DAYS));
+        return dataset.userService.findUsersByBirthDateRange(from, from.plusMonths(1));
+    }
+
+    @Benchmark
+    public UserPage findUsersByBirthDateRangePage(Dataset dataset) {
+        LocalDate from = FIRST_BIRTH_DATE.plusDays(ThreadLocalRandom.current().nextInt(BIRTH_DATE_SPREAD_DAYS));
+        return dataset.userService.findUsersByBirthDateRange(from, from.plusYears(1), null, 100);
+    }
+
+    private static String email(int i) {
+        return "user" + i + "@example.com";
+    }
+
+    private static User user(int i) {
+        return new User(email(i), "John", "Doe", FIRST_BIRTH_DATE.plusDays((i * 7919L) % BIRTH_DATE_SPREAD_DAYS),
+                "123 Street", "1234567890");
+    }
+
+    @Threads(1)
+    public static class OneThread extends UserServiceBenchmark {
+    }
+
+    @Threads(4)
+    public static class FourThreads extends UserServiceBenchmark {
+    }
+
+    @Threads(16)
+    public static class SixteenThreads extends UserServiceBenchmark {
+    }
+}
@@ -0,0 +1,94 @@
+package ua.savchenko.user_management.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.metrics.UserMetrics;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserStats;
+import ua.savchenko.user_management.storage.InMemoryUserStorage;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The aggregates of UserStatsService against computing the age histogram from a search over every birth date,
+ * which is what clients did before. Users are spread over sixty years of birth dates and a thousand domains.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms12g", "-Xmx12g"})
+public class UserStatsBenchmark {
+
+    private static final LocalDate FIRST_BIRTH_DATE = LocalDate.of(1950, 1, 1);
+    private static final int BIRTH_DATE_SPREAD_DAYS = 60 * 365;
+
+    @Param({"1000000", "10000000"})
+    private int users;
+
+    private UserStorage userStorage;
+    private UserService userService;
+    private UserStatsService userStatsService;
+
+    @Setup(Level.Trial)
+    public void load() {
+        UserConfiguration userConfiguration = new UserConfiguration();
+        userStorage = new InMemoryUserStorage();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        UserMetrics userMetrics = new UserMetrics(registry, userStorage);
+        UserCluster userCluster = new UserCluster(userConfiguration, objectMapper);
+        userService = new UserService(userStorage, null, userConfiguration, userMetrics,
+                new UserJsonCache(userStorage, objectMapper, userConfiguration, registry), userCluster);
+        userStatsService = new UserStatsService(userStorage, userCluster, userMetrics, Clock.systemDefaultZone());
+        for (int i = 0; i < users; i++) {
+            userStorage.insert(new User("user" + i + "@domain" + (i % 1000) + ".com", "John", "Doe",
+                    FIRST_BIRTH_DATE.plusDays((i * 7919L) % BIRTH_DATE_SPREAD_DAYS), null, null));
+        }
+    }
+
+    @Benchmark
+    public UserStats countByAge() {
+        return userStatsService.countByAge(10, null);
+    }
+
+    @Benchmark
+    public UserStats countByAgeOfOneDomain() {
+        return userStatsService.countByAge(10, "domain7.com");
+    }
+
+    @Benchmark
+    public UserStats countByBirthMonth() {
+        return userStatsService.countByBirthMonth(null);
+    }
+
+    @Benchmark
+    public UserStats countByDomain() {
+        return userStatsService.countByDomain(null, null, 20);
+    }
+
+    @Benchmark
+    public Map<Integer, Long> countByAgeFromSearch() {
+        LocalDate today = LocalDate.now();
+        return userService.findUsersByBirthDateRange(FIRST_BIRTH_DATE, today).stream()
+                .collect(Collectors.groupingBy(user -> Period.between(user.getBirthDate(), today).getYears() / 10,
+                        Collectors.counting()));
+    }
+}
@@ -0,0 +1,62 @@
+package ua.savchenko.user_management.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ua.savchenko.user_management.model.User;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old full scan of all users with the birth date index
+ * for a one year range over users born within sixty years.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BirthDateSearchBenchmark {
+
+    private static final LocalDate FIRST_BIRTH_DATE = LocalDate.of(1950, 1, 1);
+    private static final int BIRTH_DATE_SPREAD_DAYS = 60 * 365;
+
+    @Param({"100000", "1000000"})
+    private int users;
+
+    private UserStorage userStorage;
+    private LocalDate from;
+    private LocalDate to;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        userStorage = new InMemoryUserStorage();
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < users; i++) {
+            LocalDate birthDate = FIRST_BIRTH_DATE.plusDays(random.nextInt(BIRTH_DATE_SPREAD_DAYS));
+            userStorage.insert(new User("user" + i + "@example.com", "John", "Doe", birthDate, null, null));
+        }
+        from = LocalDate.of(1980, 1, 1);
+        to = LocalDate.of(1980, 12, 31);
+    }
+
+    @Benchmark
+    public List<User> scan() {
+        return userStorage.findAll().stream()
+                .filter(u -> (u.getBirthDate().isEqual(from) || u.getBirthDate().isAfter(from)) &&
+                        (u.getBirthDate().isEqual(to) || u.getBirthDate().isBefore(to)))
+                .toList();
+    }
+
+    @Benchmark
+    public List<User> index() {
+        return userStorage.findByBirthDateRange(from, to);
+    }
+}
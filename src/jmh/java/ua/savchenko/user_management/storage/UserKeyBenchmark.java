@@ -0,0 +1,84 @@
+package ua.savchenko.user_management.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jol.info.GraphLayout;
+import ua.savchenko.user_management.model.User;
+
+import java.time.LocalDate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the email to user mapping of the heap backend costs beyond the users themselves, measured with JOL and
+ * printed as a footprint table after loading, and its lookup latency. map is the ConcurrentHashMap per stripe
+ * the backend used to keep, map-copied-keys the same after every user was written through PATCH or PUT,
+ * which left the email of the path as the key next to the one in the user; table is the current backend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "-Djdk.attach.allowAttachSelf=true"})
+@Threads(4)
+public class UserKeyBenchmark {
+
+    @Param({"map", "map-copied-keys", "table"})
+    private String layout;
+
+    @Param({"1000000"})
+    private int users;
+
+    private ConcurrentHashMap<String, User>[] maps;
+    private UserStorage userStorage;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void load() throws ReflectiveOperationException {
+        User[] loaded = new User[users];
+        for (int i = 0; i < users; i++) {
+            loaded[i] = new User("user" + i + "@example.com", "John", "Doe", LocalDate.of(1990, 1, 1),
+                    "123 Street", "1234567890");
+        }
+        Object mapping;
+        if (layout.equals("table")) {
+            userStorage = new InMemoryUserStorage();
+            for (User user : loaded) {
+                userStorage.insert(user);
+            }
+            //  Only the tables, the indexes of the storage are the same for every layout
+            var tables = InMemoryUserStorage.class.getDeclaredField("tables");
+            tables.setAccessible(true);
+            mapping = tables.get(userStorage);
+        } else {
+            maps = new ConcurrentHashMap[UserStorage.STRIPES];
+            for (int i = 0; i < maps.length; i++) {
+                maps[i] = new ConcurrentHashMap<>();
+            }
+            for (User user : loaded) {
+                String key = layout.equals("map") ? user.getEmail() : new String(user.getEmail());
+                maps[UserStorage.stripe(key)].put(key, user);
+            }
+            mapping = maps;
+        }
+
+        GraphLayout footprint = GraphLayout.parseInstance(mapping).subtract(GraphLayout.parseInstance((Object) loaded));
+        System.out.printf("%n%s: %d bytes per user beyond the users themselves%n%s", layout,
+                footprint.totalSize() / users, footprint.toFootprint());
+    }
+
+    @Benchmark
+    public User lookup() {
+        String email = "user" + ThreadLocalRandom.current().nextInt(users) + "@example.com";
+        return userStorage != null ? userStorage.get(email) : maps[UserStorage.stripe(email)].get(email);
+    }
+}
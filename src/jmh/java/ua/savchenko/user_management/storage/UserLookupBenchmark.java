@@ -0,0 +1,88 @@
+package ua.savchenko.user_management.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ua.savchenko.user_management.model.User;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Type-ahead lookup latency over a million users with generated names, addresses and phone numbers,
+ * for a query per field and a combined one, against scoring every user.
+ * Sampled, so the results carry p99 next to the mean.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UserLookupBenchmark {
+
+    private static final String[] SYLLABLES = {"an", "bel", "cor", "da", "el", "fi", "gor", "han", "is", "jo",
+            "ka", "lu", "mar", "ni", "ol", "pe", "ra", "si", "ta", "vin"};
+    private static final String[] STREET_TYPES = {"Street", "Road", "Lane", "Avenue"};
+    private static final LocalDate FIRST_BIRTH_DATE = LocalDate.of(1950, 1, 1);
+    private static final int BIRTH_DATE_SPREAD_DAYS = 60 * 365;
+    private static final int LIMIT = 10;
+
+    @Param({"1000000"})
+    private int users;
+
+    // First name prefix, last name, email prefix, phone prefix, address words, name and city
+    @Param({"mar", "kalumar", "user12345", "555 012", "belda street", "jo vinpe"})
+    private String query;
+
+    private UserStorage userStorage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        userStorage = new InMemoryUserStorage();
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < users; i++) {
+            String firstName = capitalize(name(random, 2));
+            String lastName = capitalize(name(random, 3));
+            String address = (1 + random.nextInt(200)) + " " + capitalize(name(random, 2)) + " "
+                    + STREET_TYPES[random.nextInt(STREET_TYPES.length)] + ", " + capitalize(name(random, 2));
+            String phone = String.format("+1 555 %07d", random.nextInt(10_000_000));
+            userStorage.insert(new User("user" + i + "@example.com", firstName, lastName,
+                    FIRST_BIRTH_DATE.plusDays(random.nextInt(BIRTH_DATE_SPREAD_DAYS)), address, phone));
+        }
+    }
+
+    @Benchmark
+    public List<User> index() {
+        return userStorage.search(query, LIMIT);
+    }
+
+    @Benchmark
+    public List<User> scan() {
+        List<String> terms = UserTextIndex.queryTerms(query);
+        return userStorage.findAll().stream()
+                .filter(user -> UserTextIndex.score(user, terms) > 0)
+                .sorted(Comparator.<User>comparingInt(user -> UserTextIndex.score(user, terms)).reversed()
+                        .thenComparing(User::getEmail))
+                .limit(LIMIT)
+                .toList();
+    }
+
+    private static String name(SplittableRandom random, int syllables) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < syllables; i++) {
+            name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return name.toString();
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+}
@@ -0,0 +1,127 @@
+package ua.savchenko.user_management.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import ua.savchenko.user_management.model.User;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Write latency of logged inserts per fsync policy, where concurrent writers share group commits,
+ * and recovery time from a log only or from a snapshot plus a short log tail.
+ */
+public class UserPersistenceBenchmark {
+
+    private static final LocalDate BIRTH_DATE = LocalDate.of(1990, 1, 1);
+
+    @State(Scope.Benchmark)
+    public static class Writes {
+
+        @Param({"ALWAYS", "INTERVAL", "NEVER"})
+        private FsyncPolicy fsync;
+
+        private final AtomicLong ids = new AtomicLong();
+        private Path directory;
+        private UserWriteAheadLog log;
+        private UserStorage userStorage;
+
+        @Setup(Level.Trial)
+        public void open() throws IOException {
+            directory = Files.createTempDirectory("user-wal-bench");
+            log = new UserWriteAheadLog(directory, 0, fsync, Duration.ofMillis(100));
+            userStorage = new InMemoryUserStorage();
+            userStorage.setChangeLog(log);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            log.close();
+            delete(directory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Recovery {
+
+        @Param({"1000000"})
+        private int users;
+
+        @Param({"false", "true"})
+        private boolean snapshot;
+
+        private Path directory;
+
+        @Setup(Level.Trial)
+        public void write() throws IOException {
+            directory = Files.createTempDirectory("user-recovery-bench");
+            UserStorage userStorage = new InMemoryUserStorage();
+            try (UserWriteAheadLog log = new UserWriteAheadLog(directory, 0, FsyncPolicy.NEVER, Duration.ofSeconds(1))) {
+                userStorage.setChangeLog(log);
+                for (int i = 0; i < users; i++) {
+                    userStorage.insert(user("user" + i + "@example.com"));
+                }
+                if (snapshot) {
+                    long position = log.rotate();
+                    UserSnapshots.write(directory, position, userStorage.findAll());
+                    log.deleteSegmentsUpTo(position);
+                    // A tail of one percent of the users on top of the snapshot
+                    for (int i = 0; i < users / 100; i++) {
+                        userStorage.insert(user("tail" + i + "@example.com"));
+                    }
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            UserPersistenceBenchmark.delete(directory);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(8)
+    public boolean loggedInsert(Writes writes) {
+        return writes.userStorage.insert(user("user" + writes.ids.incrementAndGet() + "@example.com"));
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public UserStorage recover(Recovery recovery) throws IOException {
+        UserStorage userStorage = new InMemoryUserStorage();
+        long snapshotPosition = UserSnapshots.load(recovery.directory, userStorage::restore);
+        UserWriteAheadLog.replay(recovery.directory, snapshotPosition, userStorage::restore);
+        return userStorage;
+    }
+
+    private static User user(String email) {
+        return new User(email, "John", "Doe", BIRTH_DATE, "123 Street", "1234567890");
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ua.savchenko.user_management.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import ua.savchenko.user_management.model.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Heap footprint and GC behaviour of the heap and off-heap backends. Run with -prof gc for allocation
+ * and collection counts; the heap retained by the users and the GC time spent while loading them
+ * are printed after each trial, along with the heap the indexes and columns take on their own, which
+ * both backends keep on the heap. lookup shows the price of materializing users from off-heap records.
+ */
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class UserStorageFootprintBenchmark {
+
+    private static final LocalDate FIRST_BIRTH_DATE = LocalDate.of(1950, 1, 1);
+
+    @State(Scope.Benchmark)
+    public static class Loaded {
+
+        @Param({"heap", "off-heap"})
+        private String backend;
+
+        @Param({"1000000", "5000000"})
+        private int users;
+
+        private UserStorage userStorage;
+
+        @Setup(Level.Trial)
+        public void load() throws IOException {
+            long heapBefore = usedHeap();
+            long gcBefore = gcMillis();
+            userStorage = create(backend);
+            for (int i = 0; i < users; i++) {
+                userStorage.insert(user(i));
+            }
+            long gcMillis = gcMillis() - gcBefore;
+            long retained = usedHeap() - heapBefore;
+            System.out.printf("%n%s: %d users retain %d MB of heap (%d bytes per user), %d ms of GC while loading%n",
+                    backend, users, retained >> 20, retained / users, gcMillis);
+            long indexes = indexHeap(users);
+            System.out.printf("indexes and columns alone retain %d MB of heap (%d bytes per user)%n",
+                    indexes >> 20, indexes / users);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            if (userStorage instanceof Closeable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Threads(4)
+    public Optional<User> lookup(Loaded loaded) {
+        return loaded.userStorage.find("user" + ThreadLocalRandom.current().nextInt(loaded.users) + "@example.com");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Threads(4)
+    public boolean update(Loaded loaded) {
+        int i = ThreadLocalRandom.current().nextInt(loaded.users);
+        User current = loaded.userStorage.find("user" + i + "@example.com").orElseThrow();
+        return loaded.userStorage.compareAndSet(current.getEmail(), current, user(i)) == UserStorage.WriteResult.APPLIED;
+    }
+
+    private static UserStorage create(String backend) throws IOException {
+        if (backend.equals("off-heap")) {
+            return new OffHeapUserStorage(Files.createTempDirectory("user-storage-bench"), true, 64 << 20);
+        }
+        return new InMemoryUserStorage();
+    }
+
+    //  Built apart from the storage with emails of their own, as off-heap users share none with them
+    private static long indexHeap(int users) {
+        long heapBefore = usedHeap();
+        BirthDateIndex birthDateIndex = new BirthDateIndex();
+        UserTextIndex textIndex = new UserTextIndex();
+        UserColumns columns = new UserColumns();
+        for (int i = 0; i < users; i++) {
+            User user = user(i);
+            birthDateIndex.add(user.getBirthDate(), user.getEmail());
+            textIndex.update(null, user);
+            columns.add(UserStorage.stripe(user.getEmail()), user);
+        }
+        long retained = usedHeap() - heapBefore;
+        Reference.reachabilityFence(birthDateIndex);
+        Reference.reachabilityFence(textIndex);
+        Reference.reachabilityFence(columns);
+        return retained;
+    }
+
+    private static User user(int i) {
+        return new User("user" + i + "@example.com", "John", "Doe", FIRST_BIRTH_DATE.plusDays(i % 20_000),
+                "123 Street", "1234567890");
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, collector.getCollectionTime());
+        }
+        return total;
+    }
+}
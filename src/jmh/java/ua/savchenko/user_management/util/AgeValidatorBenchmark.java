@@ -0,0 +1,49 @@
+package ua.savchenko.user_management.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The former age check, taking today's date and a Period on every call, against the cached
+ * daily threshold. Run with -PjmhProfilers=gc to compare gc.alloc.rate.norm, bytes per check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AgeValidatorBenchmark {
+
+    private static final int MIN_AGE = 18;
+
+    private AgeValidator ageValidator;
+    private LocalDate birthDate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        UserConfiguration userConfiguration = new UserConfiguration();
+        userConfiguration.setMinAge(MIN_AGE);
+        ageValidator = new AgeValidator(userConfiguration, Clock.systemDefaultZone());
+        birthDate = LocalDate.of(1990, 6, 15);
+    }
+
+    @Benchmark
+    public boolean period() {
+        return Period.between(birthDate, LocalDate.now()).getYears() >= MIN_AGE;
+    }
+
+    @Benchmark
+    public String threshold() {
+        return ageValidator.check(birthDate);
+    }
+}
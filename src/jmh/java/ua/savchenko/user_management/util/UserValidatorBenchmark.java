@@ -0,0 +1,103 @@
+package ua.savchenko.user_management.util;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import jakarta.validation.constraints.Email;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Past;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.model.User;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rejecting a user: the former Bean Validation constraints of User against the pipeline, returning the
+ * message as bulk paths do and throwing as single writes do, and what a stack trace would add to the throw.
+ * The invalid user fails on its email, the last check, so the pipeline runs every check it has.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserValidatorBenchmark {
+
+    private Validator validator;
+    private UserValidator userValidator;
+    private AnnotatedUser annotatedInvalid;
+    private User valid;
+    private User invalid;
+    private User blank;
+
+    //  The constraints User carried before the pipeline
+    record AnnotatedUser(@Email(message = "Email should be valid")
+                         @NotBlank(message = "Email is required") String email,
+                         @NotBlank(message = "First name is required") String firstName,
+                         @NotBlank(message = "Last name is required") String lastName,
+                         @Past(message = "Birth date must be in the past") LocalDate birthDate) {
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        UserConfiguration userConfiguration = new UserConfiguration();
+        userConfiguration.setMinAge(18);
+        validator = Validation.buildDefaultValidatorFactory().getValidator();
+        userValidator = new UserValidator(new AgeValidator(userConfiguration, Clock.systemDefaultZone()));
+        annotatedInvalid = new AnnotatedUser("john.doe@example..com", "John", "Doe", LocalDate.of(1990, 1, 1));
+        valid = new User("john.doe@example.com", "John", "Doe", LocalDate.of(1990, 1, 1), "123 Street", "1234567890");
+        invalid = valid.withEmail("john.doe@example..com");
+        blank = valid.withFirstName(" ");
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<AnnotatedUser>> beanValidation() {
+        return validator.validate(annotatedInvalid);
+    }
+
+    @Benchmark
+    public String checkValid() {
+        return userValidator.check(valid);
+    }
+
+    @Benchmark
+    public String checkInvalid() {
+        return userValidator.check(invalid);
+    }
+
+    //  Rejected by the first check, before any pattern runs
+    @Benchmark
+    public String checkBlank() {
+        return userValidator.check(blank);
+    }
+
+    @Benchmark
+    public String validateInvalid() {
+        try {
+            userValidator.validate(invalid);
+            return null;
+        } catch (ValidatorException e) {
+            return e.getMessage();
+        }
+    }
+
+    @Benchmark
+    public String validateInvalidWithStackTrace() {
+        try {
+            String error = userValidator.check(invalid);
+            throw new IllegalArgumentException(error);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package ua.savchenko.user_management.cluster;
+
+import java.util.Arrays;
+
+/**
+ * Consistent hash ring over shard indexes. Every shard owns virtualNodes points of a 64-bit ring
+ * and an email belongs to the shard of the first point at or after its hash, wrapping around.
+ * Points only depend on the shard index, so appending a shard moves just the emails landing on its points.
+ */
+public final class ConsistentHashRing {
+
+    private final long[] points;
+    private final int[] shards;
+
+    public ConsistentHashRing(int shardCount, int virtualNodes) {
+        if (shardCount < 1 || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs at least one shard and one point per shard");
+        }
+        long[][] ring = new long[shardCount * virtualNodes][];
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int point = 0; point < virtualNodes; point++) {
+                ring[shard * virtualNodes + point] = new long[]{hash("shard-" + shard + "#" + point), shard};
+            }
+        }
+        Arrays.sort(ring, (a, b) -> Long.compare(a[0], b[0]));
+
+        points = new long[ring.length];
+        shards = new int[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            points[i] = ring[i][0];
+            shards[i] = (int) ring[i][1];
+        }
+    }
+
+    public int shardOf(String email) {
+        int i = Arrays.binarySearch(points, hash(email));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return shards[i == points.length ? 0 : i];
+    }
+
+    //  FNV-1a over the chars, finished with the murmur3 mixer so nearby strings spread over the whole ring
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,423 @@
+package ua.savchenko.user_management.cluster;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.BusinessException;
+import ua.savchenko.user_management.exception.DuplicateEmailException;
+import ua.savchenko.user_management.exception.NotFoundException;
+import ua.savchenko.user_management.exception.PreconditionFailedException;
+import ua.savchenko.user_management.exception.ShardUnavailableException;
+import ua.savchenko.user_management.exception.TooManyRequestsException;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.model.BatchResult;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserCount;
+import ua.savchenko.user_management.model.UserStats;
+import ua.savchenko.user_management.service.UserJsonCache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Partitions users over the instances listed in user.cluster.nodes by a consistent hash of the email.
+ * Shards talk plain HTTP: a single user goes through the public API of its owner, which serves it locally,
+ * while scatter-gather searches and imports use the local-only endpoints under {@link #SHARD_PATH}.
+ * With user.cluster.secret every request carries it in {@link #SHARD_HEADER}: the caller was admitted where
+ * it came in, so the receiving shard does not rate limit it again, and only shards reach the shard endpoints.
+ * Without nodes every email is local and nothing is ever sent.
+ */
+@Component
+public class UserCluster {
+
+    public static final String SHARD_PATH = "/api/user/shard";
+    public static final String SHARD_HEADER = "X-User-Shard-Secret";
+
+    //  The order of the birth date index, which every shard streams its users in
+    public static final Comparator<User> BIRTH_DATE_ORDER = Comparator
+            .comparingLong((User user) -> user.getBirthDate().toEpochDay())
+            .thenComparing(User::getEmail);
+
+    private static final TypeReference<List<User>> USERS = new TypeReference<>() {
+    };
+
+    private final ObjectMapper objectMapper;
+    private final List<URI> nodes;
+    private final int self;
+    private final Duration timeout;
+    private final String secret;
+    private final ConsistentHashRing ring;
+    private final HttpClient httpClient;
+
+    public UserCluster(UserConfiguration userConfiguration, ObjectMapper objectMapper) {
+        UserConfiguration.Cluster cluster = userConfiguration.getCluster();
+        this.objectMapper = objectMapper;
+        this.nodes = cluster.getNodes().stream().map(URI::create).toList();
+        this.self = cluster.getSelf();
+        this.timeout = cluster.getTimeout();
+        this.secret = secret(cluster) == null ? null : cluster.getSecret();
+        if (nodes.size() > 1) {
+            if (self < 0 || self >= nodes.size()) {
+                throw new IllegalStateException("user.cluster.self must be an index of user.cluster.nodes");
+            }
+            ring = new ConsistentHashRing(nodes.size(), cluster.getVirtualNodes());
+            httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
+        } else {
+            ring = null;
+            httpClient = null;
+        }
+    }
+
+    //  The secret shards authenticate each other with, null on a single instance or when none is configured
+    public static byte[] secret(UserConfiguration.Cluster cluster) {
+        String secret = cluster.getSecret();
+        return cluster.getNodes().size() > 1 && secret != null && !secret.isEmpty()
+                ? secret.getBytes(StandardCharsets.UTF_8)
+                : null;
+    }
+
+    //  Compared in constant time, so how long a check takes tells nothing about the secret
+    public static boolean authenticates(byte[] secret, String presented) {
+        return secret != null && presented != null
+                && MessageDigest.isEqual(secret, presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean isEnabled() {
+        return ring != null;
+    }
+
+    public boolean isLocal(String email) {
+        return ring == null || ring.shardOf(email) == self;
+    }
+
+    public int shardOf(String email) {
+        return ring == null ? self : ring.shardOf(email);
+    }
+
+    public int self() {
+        return self;
+    }
+
+    public int shards() {
+        return ring == null ? 1 : nodes.size();
+    }
+
+    public User create(User user) {
+        int shard = shardOf(user.getEmail());
+        return read(send(shard, request(shard, "/api/user").POST(json(user))), User.class);
+    }
+
+    //  The owner checks the expected version, null for none
+    public User update(String email, User updatedUser, Long expectedVersion) {
+        int shard = shardOf(email);
+        return read(send(shard, ifMatch(request(shard, userPath(email)), expectedVersion)
+                .method("PATCH", json(updatedUser))), User.class);
+    }
+
+    public User replace(String email, User updatedUser, Long expectedVersion) {
+        int shard = shardOf(email);
+        return read(send(shard, ifMatch(request(shard, userPath(email)), expectedVersion)
+                .PUT(json(updatedUser))), User.class);
+    }
+
+    public void delete(String email) {
+        int shard = shardOf(email);
+        send(shard, request(shard, userPath(email)).DELETE());
+    }
+
+    //  The owner's cached JSON, keeping its version so ETags do not depend on the instance asked
+    public UserJsonCache.Entry findJson(String email) {
+        int shard = shardOf(email);
+        HttpResponse<byte[]> response = send(shard, request(shard, userPath(email)).GET());
+        String etag = response.headers().firstValue(HttpHeaders.ETAG).orElse("\"0\"");
+        return new UserJsonCache.Entry(Long.parseLong(etag.replace("\"", "")), response.body());
+    }
+
+    public User find(String email) {
+        int shard = shardOf(email);
+        return read(send(shard, request(shard, userPath(email)).GET()), User.class);
+    }
+
+    //  Imports users into one shard without routing them again, the result items index the given list
+    public CompletableFuture<BatchResult> importUsers(int shard, List<User> users, boolean upsert) {
+        HttpRequest request = request(shard, SHARD_PATH + "/batch?upsert=" + upsert)
+                .POST(json(users))
+                .build();
+        return sendAsync(shard, request).thenApply(response -> read(response, BatchResult.class));
+    }
+
+    //  Merges the local search with the same search on every other shard, in birth date and email order.
+    //  Other shards stream NDJSON, read only as far as the merged stream is consumed.
+    public Stream<User> mergeByBirthDate(Stream<User> local, LocalDate from, LocalDate to, String after) {
+        String query = "/search?from=" + from + "&to=" + to + (after == null ? "" : "&after=" + encode(after));
+        List<Integer> shards = new ArrayList<>();
+        List<CompletableFuture<HttpResponse<Stream<String>>>> responses = new ArrayList<>();
+        for (int shard = 0; shard < nodes.size(); shard++) {
+            if (shard != self) {
+                HttpRequest request = request(shard, SHARD_PATH + query)
+                        .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_NDJSON_VALUE)
+                        .GET()
+                        .build();
+                shards.add(shard);
+                responses.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofLines()));
+            }
+        }
+
+        List<Stream<User>> streams = new ArrayList<>();
+        streams.add(local);
+        try {
+            for (int i = 0; i < responses.size(); i++) {
+                HttpResponse<Stream<String>> response = await(shards.get(i), responses.get(i));
+                if (response.statusCode() != 200) {
+                    String body;
+                    try (Stream<String> lines = response.body()) {
+                        body = lines.collect(Collectors.joining("\n"));
+                    }
+                    throw failure(shards.get(i), response, body.getBytes(StandardCharsets.UTF_8));
+                }
+                int shard = shards.get(i);
+                streams.add(response.body().map(line -> readLine(shard, line)));
+            }
+        } catch (RuntimeException e) {
+            streams.forEach(Stream::close);
+            throw e;
+        }
+        return merge(streams, BIRTH_DATE_ORDER);
+    }
+
+    //  Asks every other shard for its best matches and ranks them together with the local ones
+    public List<User> mergeLookups(List<User> local, String query, int limit, ToIntFunction<User> score) {
+        List<CompletableFuture<List<User>>> responses = new ArrayList<>();
+        for (int shard = 0; shard < nodes.size(); shard++) {
+            if (shard != self) {
+                HttpRequest request = request(shard, SHARD_PATH + "/lookup?q=" + encode(query) + "&limit=" + limit)
+                        .GET()
+                        .build();
+                responses.add(sendAsync(shard, request).thenApply(response -> read(response, USERS)));
+            }
+        }
+        List<User> candidates = new ArrayList<>(local);
+        for (CompletableFuture<List<User>> response : responses) {
+            candidates.addAll(await(response));
+        }
+        return candidates.stream()
+                .sorted(Comparator.comparingInt(score).reversed().thenComparing(User::getEmail))
+                .limit(limit)
+                .toList();
+    }
+
+    //  Adds the counts of the same aggregation on every other shard to the local ones, bucket by bucket.
+    //  Buckets keep the local order, those only other shards have follow. Null parameters are left out.
+    public UserStats mergeStats(UserStats local, String path, Map<String, ?> parameters) {
+        String query = parameters.entrySet().stream()
+                .filter(parameter -> parameter.getValue() != null)
+                .map(parameter -> parameter.getKey() + "=" + encode(parameter.getValue().toString()))
+                .collect(Collectors.joining("&", path + "?", ""));
+        List<CompletableFuture<UserStats>> responses = new ArrayList<>();
+        for (int shard = 0; shard < nodes.size(); shard++) {
+            if (shard != self) {
+                HttpRequest request = request(shard, SHARD_PATH + query).GET().build();
+                responses.add(sendAsync(shard, request).thenApply(response -> read(response, UserStats.class)));
+            }
+        }
+        long total = local.total();
+        Map<String, Long> counts = new LinkedHashMap<>();
+        local.counts().forEach(count -> counts.merge(count.key(), count.count(), Long::sum));
+        for (CompletableFuture<UserStats> response : responses) {
+            UserStats stats = await(response);
+            total += stats.total();
+            stats.counts().forEach(count -> counts.merge(count.key(), count.count(), Long::sum));
+        }
+        return new UserStats(total, counts.entrySet().stream()
+                .map(count -> new UserCount(count.getKey(), count.getValue()))
+                .toList());
+    }
+
+    //  Waits for a shard call, rethrowing its failure as is
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private HttpResponse<byte[]> send(int shard, HttpRequest.Builder request) {
+        return await(sendAsync(shard, request.build()));
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> sendAsync(int shard, HttpRequest request) {
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .handle((response, error) -> {
+                    if (error != null) {
+                        throw unavailable(shard, error);
+                    }
+                    if (response.statusCode() >= 300) {
+                        throw failure(shard, response, response.body());
+                    }
+                    return response;
+                });
+    }
+
+    private <T> T await(int shard, CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw unavailable(shard, e.getCause());
+        }
+    }
+
+    //  Maps the error responses of the owner back to the exceptions that produced them there
+    private BusinessException failure(int shard, HttpResponse<?> response, byte[] body) {
+        int status = response.statusCode();
+        String message;
+        try {
+            message = objectMapper.readTree(body).path("errorMessage").asText("");
+        } catch (IOException e) {
+            message = "";
+        }
+        return switch (status) {
+            case 400 -> new ValidatorException(message);
+            case 404 -> new NotFoundException(message);
+            case 409 -> new DuplicateEmailException(message);
+            case 412 -> new PreconditionFailedException(message);
+            case 429 -> new TooManyRequestsException(message,
+                    response.headers().firstValueAsLong(HttpHeaders.RETRY_AFTER).orElse(1));
+            default -> new ShardUnavailableException("Shard " + nodes.get(shard) + " answered " + status + " " + message);
+        };
+    }
+
+    private ShardUnavailableException unavailable(int shard, Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return new ShardUnavailableException("Shard " + nodes.get(shard) + " is unavailable", cause);
+    }
+
+    private HttpRequest.Builder request(int shard, String pathAndQuery) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(nodes.get(shard).resolve(pathAndQuery))
+                .timeout(timeout)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+        return secret == null ? request : request.header(SHARD_HEADER, secret);
+    }
+
+    private static HttpRequest.Builder ifMatch(HttpRequest.Builder request, Long expectedVersion) {
+        return expectedVersion == null ? request
+                : request.header(HttpHeaders.IF_MATCH, UserJsonCache.etag(expectedVersion));
+    }
+
+    private HttpRequest.BodyPublisher json(Object value) {
+        try {
+            return HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(value));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> T read(HttpResponse<byte[]> response, Class<T> type) {
+        try {
+            return objectMapper.readValue(response.body(), type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> T read(HttpResponse<byte[]> response, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(response.body(), type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private User readLine(int shard, String line) {
+        try {
+            return objectMapper.readValue(line, User.class);
+        } catch (IOException e) {
+            throw unavailable(shard, e);
+        }
+    }
+
+    private static String userPath(String email) {
+        return "/api/user/" + encode(email);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    //  K-way merge of streams that are each sorted by order; nothing is read before the first element is asked for
+    private static Stream<User> merge(List<Stream<User>> streams, Comparator<User> order) {
+        record Head(User user, Iterator<User> source) {
+        }
+        PriorityQueue<Head> heads = new PriorityQueue<>(streams.size(), Comparator.comparing(Head::user, order));
+        Iterator<User> merged = new Iterator<>() {
+            private boolean started;
+
+            @Override
+            public boolean hasNext() {
+                start();
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public User next() {
+                start();
+                Head head = heads.poll();
+                if (head == null) {
+                    throw new NoSuchElementException();
+                }
+                if (head.source().hasNext()) {
+                    heads.add(new Head(head.source().next(), head.source()));
+                }
+                return head.user();
+            }
+
+            private void start() {
+                if (started) {
+                    return;
+                }
+                started = true;
+                for (Stream<User> stream : streams) {
+                    Iterator<User> source = stream.iterator();
+                    if (source.hasNext()) {
+                        heads.add(new Head(source.next(), source));
+                    }
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> streams.forEach(Stream::close));
+    }
+}
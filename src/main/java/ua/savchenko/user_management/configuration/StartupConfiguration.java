@@ -0,0 +1,75 @@
+package ua.savchenko.user_management.configuration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.Validator;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.metrics.UserMetrics;
+import ua.savchenko.user_management.model.BatchItemResult;
+import ua.savchenko.user_management.model.BatchResult;
+import ua.savchenko.user_management.model.ErrorMessage;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserChangeEvent;
+import ua.savchenko.user_management.model.UserChanges;
+import ua.savchenko.user_management.model.UserCount;
+import ua.savchenko.user_management.model.UserExportFile;
+import ua.savchenko.user_management.model.UserOperation;
+import ua.savchenko.user_management.model.UserOperationResult;
+import ua.savchenko.user_management.model.UserOperationsResult;
+import ua.savchenko.user_management.model.UserPage;
+import ua.savchenko.user_management.model.UserStats;
+import ua.savchenko.user_management.service.ReactiveUserService;
+import ua.savchenko.user_management.service.UserAdmission;
+import ua.savchenko.user_management.service.UserChangeFeed;
+import ua.savchenko.user_management.service.UserJsonCache;
+import ua.savchenko.user_management.service.UserOperationService;
+import ua.savchenko.user_management.service.UserService;
+import ua.savchenko.user_management.storage.UserPersistence;
+import ua.savchenko.user_management.storage.UserStorage;
+import ua.savchenko.user_management.util.AgeValidator;
+import ua.savchenko.user_management.util.UserValidator;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+
+/**
+ * Startup tuning. With spring.main.lazy-initialization (the fast-start profile) everything outside the
+ * request path is created on first use, while the beans below stay eager and are warmed up before the
+ * server accepts requests. The AOT and CDS training runs stop after that warm-up, so what it loads is archived.
+ * Types serialized outside controller signatures are registered for reflection in native images.
+ */
+@Configuration
+@RegisterReflectionForBinding({User.class, BatchResult.class, BatchItemResult.class, ErrorMessage.class,
+        UserPage.class, UserChanges.class, UserChangeEvent.class, UserExportFile.class, UserOperation.class,
+        UserOperationResult.class, UserOperationsResult.class, UserStats.class, UserCount.class})
+public class StartupConfiguration {
+
+    //  Recovery and the change feed have to run before the first write, the rest serves every request
+    @Bean
+    static LazyInitializationExcludeFilter userRequestPath() {
+        return LazyInitializationExcludeFilter.forBeanTypes(UserStorage.class, UserPersistence.class,
+                UserChangeFeed.class, UserMetrics.class, UserCluster.class, UserJsonCache.class, UserService.class,
+                UserOperationService.class, ReactiveUserService.class, UserAdmission.class, AgeValidator.class,
+                UserValidator.class, Validator.class, org.springframework.validation.Validator.class, ObjectMapper.class);
+    }
+
+    //  Builds the Jackson (de)serializers of User and runs it through the checks of a write,
+    //  which would otherwise be done by the first request
+    @Bean
+    SmartInitializingSingleton userWarmUp(ObjectMapper objectMapper, UserValidator userValidator) {
+        return () -> {
+            User user = new User("warm-up@example.com", "John", "Doe", LocalDate.of(1990, 1, 1), null, null);
+            try {
+                objectMapper.readValue(objectMapper.writeValueAsBytes(user), User.class);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            userValidator.check(user);
+        };
+    }
+}
@@ -4,6 +4,14 @@ import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+import ua.savchenko.user_management.storage.FsyncPolicy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 @Configuration
 @ConfigurationProperties(prefix = "user")
@@ -11,4 +19,87 @@ import org.springframework.context.annotation.Configuration;
 @Setter
 public class UserConfiguration {
     private int minAge;
+    private Storage storage = new Storage();
+    private int maxPageSize = 1000;
+    private int importBatchSize = 1000;
+    // Operations accepted by one POST /api/user/ops
+    private int maxOperations = 1000;
+    // Users kept serialized for GET /api/user/{email}
+    private long jsonCacheSize = 100_000;
+    private Persistence persistence = new Persistence();
+    private Cluster cluster = new Cluster();
+    private Changes changes = new Changes();
+    private Export export = new Export();
+    private Admission admission = new Admission();
+
+    @Getter
+    @Setter
+    public static class Storage {
+        // heap or off-heap
+        private String backend = "heap";
+        // Directory for the off-heap segment files, a temporary one when not set
+        private String directory;
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+    }
+
+    @Getter
+    @Setter
+    public static class Persistence {
+        private boolean enabled;
+        private String directory = "data";
+        private FsyncPolicy fsync = FsyncPolicy.ALWAYS;
+        private Duration fsyncInterval = Duration.ofMillis(100);
+        // Number of logged changes after which the log is compacted into a snapshot
+        private long snapshotEvery = 100_000;
+    }
+
+    @Getter
+    @Setter
+    public static class Cluster {
+        // Base URLs of all shards, listed in the same order on every instance; empty runs a single node
+        private List<String> nodes = new ArrayList<>();
+        // Index of this instance in nodes
+        private int self;
+        // Points of every shard on the hash ring
+        private int virtualNodes = 128;
+        private Duration timeout = Duration.ofSeconds(5);
+        // Shared by all shards and sent with every request between them; only requests carrying it skip
+        // admission control, and the shard endpoints refuse any other. Without it shards are limited like clients
+        private String secret;
+    }
+
+    @Getter
+    @Setter
+    public static class Changes {
+        // Change events kept for consumers to resume from, rounded up to a power of two
+        private int capacity = 65_536;
+        // Longest wait of a long poll, also the heartbeat interval of event streams
+        private Duration pollTimeout = Duration.ofSeconds(30);
+    }
+
+    @Getter
+    @Setter
+    public static class Export {
+        // Pre-built export files are written to and served from here
+        private String directory = "exports";
+    }
+
+    @Getter
+    @Setter
+    public static class Admission {
+        private boolean enabled = true;
+        // Requests per second every client is refilled with, and how many it may send at once
+        private int rate = 1000;
+        private int burst = 2000;
+        // Carries the API key of the client; a registered key gets a bucket of its own, any other request
+        // is told apart by remote address, so made up keys cannot claim fresh buckets
+        private String clientHeader = "X-API-Key";
+        private Set<String> keys = new HashSet<>();
+        // Clients with a token bucket, the least recently seen beyond that start over with a full one
+        private long clients = 100_000;
+        // Searches running at once, lookups, batches, exports and stats included, and how long another one
+        // waits for a slot before it is rejected
+        private int maxConcurrentSearches = 16;
+        private Duration searchQueueTimeout = Duration.ofMillis(500);
+    }
 }
@@ -0,0 +1,156 @@
+package ua.savchenko.user_management.controller;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A request body as a blocking InputStream, for an import reading it on a virtual thread.
+ * At most a fixed number of buffers is requested ahead of the reader, so the body is only received as fast
+ * as it is read, and the event loop hands buffers over without ever waiting for the reader.
+ * Reads and close belong to the reading thread.
+ */
+final class DataBufferInputStream extends InputStream implements Subscriber<DataBuffer> {
+
+    private static final Object COMPLETE = new Object();
+
+    // Buffers, then COMPLETE or the error of the body; holds no more than was requested
+    private final BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+    private final int prefetch;
+    private volatile Subscription subscription;
+    private volatile boolean closed;
+    private DataBuffer current;
+    private Object end;
+
+    private DataBufferInputStream(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    static InputStream of(Publisher<DataBuffer> body, int prefetch) {
+        DataBufferInputStream in = new DataBufferInputStream(prefetch);
+        body.subscribe(in);
+        return in;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        this.subscription = subscription;
+        if (closed) {
+            subscription.cancel();
+        } else {
+            subscription.request(prefetch);
+        }
+    }
+
+    @Override
+    public void onNext(DataBuffer buffer) {
+        signals.add(buffer);
+        // A close racing with this buffer may have drained the queue before it was added
+        if (closed) {
+            drain();
+        }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        signals.add(error);
+    }
+
+    @Override
+    public void onComplete() {
+        signals.add(COMPLETE);
+    }
+
+    @Override
+    public int read() throws IOException {
+        DataBuffer buffer = next();
+        return buffer == null ? -1 : buffer.read() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        DataBuffer buffer = next();
+        if (buffer == null) {
+            return -1;
+        }
+        int read = Math.min(length, buffer.readableByteCount());
+        buffer.read(bytes, offset, read);
+        return read;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.readableByteCount();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (current != null) {
+            DataBufferUtils.release(current);
+            current = null;
+        }
+        Subscription subscription = this.subscription;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        drain();
+    }
+
+    //  The buffer with bytes left to read, null at the end of the body
+    private DataBuffer next() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (current == null || current.readableByteCount() == 0) {
+            if (current != null) {
+                DataBufferUtils.release(current);
+                current = null;
+                subscription.request(1);
+            }
+            if (end == null) {
+                end = take();
+            }
+            if (end == COMPLETE) {
+                return null;
+            }
+            if (end instanceof Throwable error) {
+                throw new IOException("Failed to read the request body", error);
+            }
+            current = (DataBuffer) end;
+            end = null;
+        }
+        return current;
+    }
+
+    private Object take() throws InterruptedIOException {
+        try {
+            return signals.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the request body");
+        }
+    }
+
+    private void drain() {
+        for (Object signal; (signal = signals.poll()) != null; ) {
+            if (signal instanceof DataBuffer buffer) {
+                DataBufferUtils.release(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ua.savchenko.user_management.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.BusinessException;
+import ua.savchenko.user_management.exception.ForbiddenException;
+import ua.savchenko.user_management.exception.TooManyRequestsException;
+import ua.savchenko.user_management.metrics.UserMetrics;
+import ua.savchenko.user_management.model.ErrorMessage;
+import ua.savchenko.user_management.service.UserAdmission;
+
+import java.net.InetSocketAddress;
+
+/**
+ * {@link UserAdmissionInterceptor} on WebFlux. Errors of web filters do not reach the controller advice,
+ * so rejections are written here with the ErrorMessage of ReactiveBusinessExceptionHandler.
+ * The event loop cannot wait for a search slot, searches are rejected as soon as every slot is taken.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUserAdmissionFilter implements WebFilter {
+
+    private final UserAdmission userAdmission;
+    private final UserMetrics userMetrics;
+    private final ObjectMapper objectMapper;
+    private final String clientHeader;
+    private final byte[] shardSecret;
+
+    public ReactiveUserAdmissionFilter(UserAdmission userAdmission, UserMetrics userMetrics,
+                                       ObjectMapper objectMapper, UserConfiguration userConfiguration) {
+        this.userAdmission = userAdmission;
+        this.userMetrics = userMetrics;
+        this.objectMapper = objectMapper;
+        this.clientHeader = userConfiguration.getAdmission().getClientHeader();
+        this.shardSecret = UserCluster.secret(userConfiguration.getCluster());
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        String path = request.getPath().pathWithinApplication().value();
+        if (!path.startsWith("/api/user")
+                || UserCluster.authenticates(shardSecret, request.getHeaders().getFirst(UserCluster.SHARD_HEADER))) {
+            return chain.filter(exchange);
+        }
+        if (shardSecret != null && path.startsWith(UserCluster.SHARD_PATH)) {
+            return reject(exchange.getResponse(),
+                    new ForbiddenException("Shard endpoints are only open to other shards"));
+        }
+        String apiKey = request.getHeaders().getFirst(clientHeader);
+        try {
+            userAdmission.admit(apiKey, address(request));
+            if (!UserAdmission.isSearch(path)) {
+                return chain.filter(exchange);
+            }
+            userAdmission.acquireSearchWithoutQueueing(apiKey);
+        } catch (TooManyRequestsException e) {
+            return reject(exchange.getResponse(), e);
+        }
+        return chain.filter(exchange).doFinally(signal -> userAdmission.releaseSearch());
+    }
+
+    private Mono<Void> reject(ServerHttpResponse response, BusinessException e) {
+        userMetrics.recordError(e.getClass());
+        HttpStatus httpStatus = AnnotationUtils.findAnnotation(e.getClass(), ResponseStatus.class).code();
+        ErrorMessage errorMessage = new ErrorMessage(e.getMessage(), httpStatus, httpStatus.value());
+        response.setStatusCode(httpStatus);
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        if (e instanceof TooManyRequestsException tooManyRequests) {
+            response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(tooManyRequests.getRetryAfterSeconds()));
+        }
+        return response.writeWith(Mono.fromCallable(() ->
+                response.bufferFactory().wrap(objectMapper.writeValueAsBytes(errorMessage))));
+    }
+
+    private static String address(ServerHttpRequest request) {
+        InetSocketAddress address = request.getRemoteAddress();
+        return address == null ? "unknown" : address.getHostString();
+    }
+}
@@ -0,0 +1,82 @@
+package ua.savchenko.user_management.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.ChangesExpiredException;
+import ua.savchenko.user_management.model.UserChangeEvent;
+import ua.savchenko.user_management.model.UserChanges;
+import ua.savchenko.user_management.service.ReactiveUserService;
+import ua.savchenko.user_management.service.UserChangeFeed;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * {@link UserChangeController} on WebFlux.
+ */
+@RestController
+@RequestMapping("/api/user/changes")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveUserChangeController {
+
+    private static final int BATCH_SIZE = 256;
+
+    private final UserChangeFeed userChangeFeed;
+    private final UserConfiguration userConfiguration;
+    private final ReactiveUserService reactiveUserService;
+
+    @GetMapping
+    public Mono<UserChanges> pollChanges(@RequestParam("after") long after,
+                                         @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        return Mono.fromFuture(() -> userChangeFeed.poll(after, limit));
+    }
+
+    //  Every batch is read on demand only, so a slow consumer leaves its events in the ring
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<?>> streamChanges(@RequestParam(value = "after", required = false) Long after,
+                                                  @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        long from = lastEventId != null ? lastEventId : after != null ? after : userChangeFeed.lastSequence();
+        userChangeFeed.check(from);
+        Duration pollTimeout = userConfiguration.getChanges().getPollTimeout();
+        Flux<List<UserChangeEvent>> batches = Flux.generate(() -> from, (cursor, sink) -> {
+            try {
+                List<UserChangeEvent> events = userChangeFeed.await(cursor, BATCH_SIZE, pollTimeout);
+                sink.next(events);
+                return events.isEmpty() ? cursor : events.get(events.size() - 1).sequence();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sink.complete();
+                return cursor;
+            }
+        });
+        return batches
+                .concatMapIterable(ReactiveUserChangeController::toServerSentEvents)
+                .onErrorResume(ChangesExpiredException.class, e -> Mono.just(
+                        ServerSentEvent.builder(e.getMessage()).event("EXPIRED").build()))
+                // Waiting for events blocks, so each stream waits on a virtual thread
+                .subscribeOn(reactiveUserService.blockingScheduler());
+    }
+
+    private static List<ServerSentEvent<?>> toServerSentEvents(List<UserChangeEvent> events) {
+        if (events.isEmpty()) {
+            return List.of(ServerSentEvent.builder().comment("idle").build());
+        }
+        return events.stream()
+                .<ServerSentEvent<?>>map(event -> ServerSentEvent.builder(event)
+                        .id(Long.toString(event.sequence()))
+                        .event(event.type().name())
+                        .build())
+                .toList();
+    }
+}
@@ -0,0 +1,129 @@
+package ua.savchenko.user_management.controller;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Email;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ua.savchenko.user_management.model.BatchResult;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserOperation;
+import ua.savchenko.user_management.model.UserOperationsResult;
+import ua.savchenko.user_management.model.UserPage;
+import ua.savchenko.user_management.service.ReactiveUserService;
+import ua.savchenko.user_management.service.UserJsonCache;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * The user API of {@link UserController} on WebFlux, active when the application runs reactive.
+ */
+@RestController
+@RequestMapping("/api/user")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveUserController {
+
+    // Buffers requested ahead while an import reads the body
+    private static final int IMPORT_BUFFERS = 16;
+
+    private final ReactiveUserService reactiveUserService;
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<User> createUser(@RequestBody User user) {
+        return reactiveUserService.createUser(user);
+    }
+
+    //  The body is only requested as fast as the import parses it
+    @PostMapping(value = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public Mono<BatchResult> importUsers(@RequestBody Flux<DataBuffer> body,
+                                         @RequestParam(value = "upsert", defaultValue = "false") boolean upsert) {
+        return reactiveUserService.importUsers(DataBufferInputStream.of(body, IMPORT_BUFFERS), upsert);
+    }
+
+    @PostMapping("/ops")
+    public Mono<UserOperationsResult> runOperations(@RequestBody List<UserOperation> operations,
+                                                    @RequestParam(value = "atomic", defaultValue = "false") boolean atomic) {
+        return reactiveUserService.runOperations(operations, atomic);
+    }
+
+    @GetMapping("/{email}")
+    public Mono<ResponseEntity<byte[]>> getUser(@PathVariable @Email @Valid String email, ServerWebExchange exchange) {
+        return reactiveUserService.findUserJson(email).map(entry -> exchange.checkNotModified(entry.etag())
+                ? ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(entry.etag()).build()
+                : ResponseEntity.ok()
+                        .eTag(entry.etag())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(entry.json()));
+    }
+
+    @GetMapping(value = "/{email}", produces = MediaType.APPLICATION_CBOR_VALUE)
+    public Mono<ResponseEntity<User>> getUserCbor(@PathVariable @Email @Valid String email,
+                                                  ServerWebExchange exchange) {
+        return reactiveUserService.findUser(email).map(user -> {
+            String etag = UserJsonCache.etag(user.getVersion());
+            return exchange.checkNotModified(etag)
+                    ? ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).<User>build()
+                    : UserController.withETag(user);
+        });
+    }
+
+    @PatchMapping("/{email}")
+    public Mono<ResponseEntity<User>> updateUser(@PathVariable @Email @Valid String email,
+                                                 @RequestBody User updatedUser,
+                                                 @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return reactiveUserService.updateUser(email, updatedUser, UserController.expectedVersion(ifMatch))
+                .map(UserController::withETag);
+    }
+
+    @PutMapping("/{email}")
+    public Mono<ResponseEntity<User>> replaceUser(@PathVariable @Email @Valid String email,
+                                                  @RequestBody User updatedUser,
+                                                  @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return reactiveUserService.replaceUser(email, updatedUser, UserController.expectedVersion(ifMatch))
+                .map(UserController::withETag);
+    }
+
+    @DeleteMapping("/{email}")
+    public Mono<Void> deleteUser(@PathVariable @Email @Valid String email) {
+        return reactiveUserService.deleteUser(email);
+    }
+
+    @GetMapping("/lookup")
+    public Mono<List<User>> lookupUsers(@RequestParam("q") String query,
+                                        @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        return reactiveUserService.lookupUsers(query, limit);
+    }
+
+    //  Encoded as one JSON array while the index is walked
+    @GetMapping("/search")
+    public Flux<User> searchUsersByBirthDateRange(@RequestParam("from") LocalDate from,
+                                                  @RequestParam("to") LocalDate to) {
+        return reactiveUserService.streamUsersByBirthDateRange(from, to);
+    }
+
+    @GetMapping(value = "/search", params = "limit")
+    public Mono<UserPage> searchUsersByBirthDateRange(@RequestParam("from") LocalDate from,
+                                                      @RequestParam("to") LocalDate to,
+                                                      @RequestParam("limit") int limit,
+                                                      @RequestParam(value = "after", required = false) String after) {
+        return reactiveUserService.findUsersByBirthDateRange(from, to, after, limit);
+    }
+
+    //  NDJSON mode, users are produced as fast as the client reads them
+    @GetMapping(value = "/search", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<User> streamUsersByBirthDateRange(@RequestParam("from") LocalDate from,
+                                                  @RequestParam("to") LocalDate to) {
+        return reactiveUserService.streamUsersByBirthDateRange(from, to);
+    }
+}
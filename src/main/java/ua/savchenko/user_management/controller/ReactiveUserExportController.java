@@ -0,0 +1,83 @@
+package ua.savchenko.user_management.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ua.savchenko.user_management.model.UserExportFile;
+import ua.savchenko.user_management.service.ReactiveUserService;
+import ua.savchenko.user_management.service.UserExportService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * {@link UserExportController} on WebFlux.
+ */
+@RestController
+@RequestMapping("/api/user/export")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveUserExportController {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final UserExportService userExportService;
+    private final ReactiveUserService reactiveUserService;
+
+    //  Written on a virtual thread that blocks until the client has requested the chunks before
+    @GetMapping
+    public ResponseEntity<Flux<DataBuffer>> export(@RequestParam(value = "format", defaultValue = "ndjson") String format,
+                                                   @RequestParam(value = "gzip", defaultValue = "false") boolean gzip) {
+        UserExportService.Format exportFormat = UserExportService.Format.of(format);
+        Flux<DataBuffer> body = Flux.from(DataBufferUtils.outputStreamPublisher(out -> {
+                    try {
+                        userExportService.export(exportFormat, gzip, out);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, DefaultDataBufferFactory.sharedInstance,
+                task -> reactiveUserService.blockingScheduler().schedule(task), CHUNK_SIZE));
+        String fileName = UserExportService.fileName(exportFormat, gzip);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(UserExportController.contentType(fileName)))
+                .header(HttpHeaders.CONTENT_DISPOSITION, UserExportController.attachment(fileName))
+                .body(body);
+    }
+
+    @PostMapping("/files")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<UserExportFile> createExportFile(@RequestParam(value = "format", defaultValue = "ndjson") String format,
+                                                 @RequestParam(value = "gzip", defaultValue = "true") boolean gzip) {
+        UserExportService.Format exportFormat = UserExportService.Format.of(format);
+        return Mono.fromCallable(() -> userExportService.createExportFile(exportFormat, gzip))
+                .subscribeOn(reactiveUserService.blockingScheduler());
+    }
+
+    //  Netty sends file resources as a FileRegion, which uses FileChannel.transferTo
+    @GetMapping("/files/{name}")
+    public ResponseEntity<Resource> getExportFile(@PathVariable String name) {
+        Path file = userExportService.findExportFile(name);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(UserExportController.contentType(name)))
+                .header(HttpHeaders.CONTENT_DISPOSITION, UserExportController.attachment(name))
+                .body(new FileSystemResource(file));
+    }
+}
@@ -0,0 +1,87 @@
+package ua.savchenko.user_management.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.model.BatchResult;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserStats;
+import ua.savchenko.user_management.service.ReactiveUserService;
+import ua.savchenko.user_management.service.UserStatsService;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * {@link UserShardController} on WebFlux, so reactive instances can be shards as well.
+ */
+@RestController
+@RequestMapping(UserCluster.SHARD_PATH)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveUserShardController {
+
+    private static final int IMPORT_BUFFERS = 16;
+
+    private final ReactiveUserService reactiveUserService;
+    private final UserStatsService userStatsService;
+
+    @GetMapping(value = "/search", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<User> searchUsersByBirthDateRange(@RequestParam("from") LocalDate from,
+                                                  @RequestParam("to") LocalDate to,
+                                                  @RequestParam(value = "after", required = false) String after) {
+        return reactiveUserService.streamLocalUsersByBirthDateRange(from, to, after);
+    }
+
+    @GetMapping("/lookup")
+    public Mono<List<User>> lookupUsers(@RequestParam("q") String query,
+                                        @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        return reactiveUserService.lookupLocalUsers(query, limit);
+    }
+
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<BatchResult> importUsers(@RequestBody Flux<DataBuffer> body,
+                                         @RequestParam(value = "upsert", defaultValue = "false") boolean upsert) {
+        return reactiveUserService.importLocalUsers(DataBufferInputStream.of(body, IMPORT_BUFFERS), upsert);
+    }
+
+    @GetMapping("/stats/ages")
+    public Mono<UserStats> countByAge(@RequestParam("bucket") int bucketYears,
+                                      @RequestParam(value = "domain", required = false) String domain) {
+        return call(() -> userStatsService.countLocalByAge(bucketYears, domain));
+    }
+
+    @GetMapping("/stats/birth-months")
+    public Mono<UserStats> countByBirthMonth(@RequestParam(value = "domain", required = false) String domain) {
+        return call(() -> userStatsService.countLocalByBirthMonth(domain));
+    }
+
+    @GetMapping("/stats/birth-dates")
+    public Mono<UserStats> countByBirthDate(@RequestParam("from") LocalDate from,
+                                            @RequestParam("to") LocalDate to,
+                                            @RequestParam("unit") String unit,
+                                            @RequestParam(value = "domain", required = false) String domain) {
+        return call(() -> userStatsService.countLocalByBirthDate(from, to, unit, domain));
+    }
+
+    @GetMapping("/stats/domains")
+    public Mono<UserStats> countByDomain(@RequestParam(value = "from", required = false) LocalDate from,
+                                         @RequestParam(value = "to", required = false) LocalDate to) {
+        return call(() -> userStatsService.countLocalByDomain(from, to));
+    }
+
+    private Mono<UserStats> call(Callable<UserStats> stats) {
+        return Mono.fromCallable(stats).subscribeOn(reactiveUserService.blockingScheduler());
+    }
+}
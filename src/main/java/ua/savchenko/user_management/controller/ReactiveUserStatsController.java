@@ -0,0 +1,59 @@
+package ua.savchenko.user_management.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import ua.savchenko.user_management.model.UserStats;
+import ua.savchenko.user_management.service.ReactiveUserService;
+import ua.savchenko.user_management.service.UserStatsService;
+
+import java.time.LocalDate;
+import java.util.concurrent.Callable;
+
+/**
+ * {@link UserStatsController} on WebFlux. The scans wait for stripe locks and other shards,
+ * so they run on the blocking scheduler.
+ */
+@RestController
+@RequestMapping("/api/user/stats")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveUserStatsController {
+
+    private final UserStatsService userStatsService;
+    private final ReactiveUserService reactiveUserService;
+
+    @GetMapping("/ages")
+    public Mono<UserStats> countByAge(@RequestParam(value = "bucket", defaultValue = "10") int bucketYears,
+                                      @RequestParam(value = "domain", required = false) String domain) {
+        return call(() -> userStatsService.countByAge(bucketYears, domain));
+    }
+
+    @GetMapping("/birth-months")
+    public Mono<UserStats> countByBirthMonth(@RequestParam(value = "domain", required = false) String domain) {
+        return call(() -> userStatsService.countByBirthMonth(domain));
+    }
+
+    @GetMapping("/birth-dates")
+    public Mono<UserStats> countByBirthDate(@RequestParam("from") LocalDate from,
+                                            @RequestParam("to") LocalDate to,
+                                            @RequestParam(value = "unit", defaultValue = "MONTHS") String unit,
+                                            @RequestParam(value = "domain", required = false) String domain) {
+        return call(() -> userStatsService.countByBirthDate(from, to, unit, domain));
+    }
+
+    @GetMapping("/domains")
+    public Mono<UserStats> countByDomain(@RequestParam(value = "from", required = false) LocalDate from,
+                                         @RequestParam(value = "to", required = false) LocalDate to,
+                                         @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        return call(() -> userStatsService.countByDomain(from, to, limit));
+    }
+
+    private Mono<UserStats> call(Callable<UserStats> stats) {
+        return Mono.fromCallable(stats).subscribeOn(reactiveUserService.blockingScheduler());
+    }
+}
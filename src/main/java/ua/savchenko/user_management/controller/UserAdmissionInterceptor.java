@@ -0,0 +1,76 @@
+package ua.savchenko.user_management.controller;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.ForbiddenException;
+import ua.savchenko.user_management.service.UserAdmission;
+
+/**
+ * Runs {@link UserAdmission} before the handlers of the user API, so rejections go through
+ * BusinessExceptionHandler like any other error. Only requests carrying the cluster secret in
+ * {@link UserCluster#SHARD_HEADER} come from other shards and are not limited; with a secret configured
+ * the shard endpoints refuse every other request.
+ * A search holds its slot until the response is complete, streamed ones through their async dispatch.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class UserAdmissionInterceptor implements HandlerInterceptor, WebMvcConfigurer {
+
+    private static final String SEARCH_SLOT = UserAdmissionInterceptor.class.getName() + ".SEARCH_SLOT";
+
+    private final UserAdmission userAdmission;
+    private final String clientHeader;
+    private final byte[] shardSecret;
+
+    public UserAdmissionInterceptor(UserAdmission userAdmission, UserConfiguration userConfiguration) {
+        this.userAdmission = userAdmission;
+        this.clientHeader = userConfiguration.getAdmission().getClientHeader();
+        this.shardSecret = UserCluster.secret(userConfiguration.getCluster());
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this)
+                .addPathPatterns("/api/user", "/api/user/**");
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        //  Async dispatches of a streamed response were admitted with the request
+        if (request.getDispatcherType() != DispatcherType.REQUEST) {
+            return true;
+        }
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        if (UserCluster.authenticates(shardSecret, request.getHeader(UserCluster.SHARD_HEADER))) {
+            return true;
+        }
+        if (shardSecret != null && path.startsWith(UserCluster.SHARD_PATH)) {
+            throw new ForbiddenException("Shard endpoints are only open to other shards");
+        }
+        String apiKey = request.getHeader(clientHeader);
+        userAdmission.admit(apiKey, request.getRemoteAddr());
+        if (UserAdmission.isSearch(path)) {
+            userAdmission.acquireSearch(apiKey);
+            request.setAttribute(SEARCH_SLOT, Boolean.TRUE);
+        }
+        return true;
+    }
+
+    //  Not called when the request went async, the last dispatch releases the slot then
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        if (request.getAttribute(SEARCH_SLOT) != null) {
+            request.removeAttribute(SEARCH_SLOT);
+            userAdmission.releaseSearch();
+        }
+    }
+}
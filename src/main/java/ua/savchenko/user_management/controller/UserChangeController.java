@@ -0,0 +1,94 @@
+package ua.savchenko.user_management.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.ChangesExpiredException;
+import ua.savchenko.user_management.model.UserChangeEvent;
+import ua.savchenko.user_management.model.UserChanges;
+import ua.savchenko.user_management.service.UserChangeFeed;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+
+/**
+ * Change events of this instance, resumed after the sequence a consumer saw last.
+ * A consumer too far behind gets 410 Gone and has to read the users again.
+ */
+@RestController
+@RequestMapping("/api/user/changes")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequiredArgsConstructor
+public class UserChangeController {
+
+    // Longer than the poll timeout, so the poll itself answers first
+    private static final long ASYNC_TIMEOUT_MARGIN_MILLIS = 5_000;
+
+    private final UserChangeFeed userChangeFeed;
+    private final UserConfiguration userConfiguration;
+
+    //  Long poll, answered as soon as there are events after the given sequence or empty after the poll timeout
+    @GetMapping
+    public DeferredResult<UserChanges> pollChanges(@RequestParam("after") long after,
+                                                   @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        DeferredResult<UserChanges> result = new DeferredResult<>(
+                userConfiguration.getChanges().getPollTimeout().toMillis() + ASYNC_TIMEOUT_MARGIN_MILLIS);
+        userChangeFeed.poll(after, limit).whenComplete((changes, error) -> {
+            if (error == null) {
+                result.setResult(changes);
+            } else {
+                result.setErrorResult(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            }
+        });
+        return result;
+    }
+
+    //  Server-sent events named by change type with the sequence as id, from now on unless resumed
+    //  by Last-Event-ID or after. A consumer reading slowly slows down its own stream only.
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@RequestParam(value = "after", required = false) Long after,
+                                    @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        long from = lastEventId != null ? lastEventId : after != null ? after : userChangeFeed.lastSequence();
+        // No timeout, idle streams get a comment every poll timeout instead
+        SseEmitter emitter = new SseEmitter(0L);
+        Future<?> subscription = userChangeFeed.subscribe(from, new UserChangeFeed.Subscriber() {
+            @Override
+            public void onEvents(List<UserChangeEvent> events) throws IOException {
+                for (UserChangeEvent event : events) {
+                    emitter.send(SseEmitter.event()
+                            .id(Long.toString(event.sequence()))
+                            .name(event.type().name())
+                            .data(event, MediaType.APPLICATION_JSON));
+                }
+            }
+
+            @Override
+            public void onIdle() throws IOException {
+                emitter.send(SseEmitter.event().comment("idle"));
+            }
+
+            @Override
+            public void onExpired(ChangesExpiredException e) {
+                try {
+                    emitter.send(SseEmitter.event().name("EXPIRED").data(e.getMessage()));
+                    emitter.complete();
+                } catch (IOException ignored) {
+                    // The consumer is gone as well
+                }
+            }
+        });
+        emitter.onCompletion(() -> subscription.cancel(true));
+        emitter.onError(error -> subscription.cancel(true));
+        return emitter;
+    }
+}
@@ -1,38 +1,104 @@
 package ua.savchenko.user_management.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Email;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ua.savchenko.user_management.exception.PreconditionFailedException;
+import ua.savchenko.user_management.model.BatchResult;
 import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserOperation;
+import ua.savchenko.user_management.model.UserOperationsResult;
+import ua.savchenko.user_management.model.UserPage;
+import ua.savchenko.user_management.service.UserImportService;
+import ua.savchenko.user_management.service.UserJsonCache;
+import ua.savchenko.user_management.service.UserOperationService;
 import ua.savchenko.user_management.service.UserService;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDate;
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/api/user")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequiredArgsConstructor
 public class UserController {
     private final UserService userService;
+    private final UserImportService userImportService;
+    private final UserOperationService userOperationService;
+    private final ObjectMapper objectMapper;
 
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
-    public User createUser(@RequestBody @Valid User user) {
+    public User createUser(@RequestBody User user) {
         return userService.createUser(user);
     }
 
+    //  Bulk import of a JSON array or NDJSON stream, existing users are replaced only with upsert
+    @PostMapping(value = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public BatchResult importUsers(InputStream body,
+                                   @RequestParam(value = "upsert", defaultValue = "false") boolean upsert) throws IOException {
+        return userImportService.importUsers(body, upsert);
+    }
+
+    //  Ordered mixed operations in one request, each with its own result unless atomic rejects them all
+    @PostMapping("/ops")
+    public UserOperationsResult runOperations(@RequestBody List<UserOperation> operations,
+                                              @RequestParam(value = "atomic", defaultValue = "false") boolean atomic) {
+        return userOperationService.runOperations(operations, atomic);
+    }
+
+    //  Served from cached JSON; a matching If-None-Match gets 304 without a body
+    @GetMapping("/{email}")
+    public ResponseEntity<byte[]> getUser(@PathVariable @Email @Valid String email, WebRequest request) {
+        UserJsonCache.Entry entry = userService.findUserJson(email);
+        if (request.checkNotModified(entry.etag())) {
+            return null;
+        }
+        return ResponseEntity.ok()
+                .eTag(entry.etag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(entry.json());
+    }
+
+    //  CBOR callers get the stored user through the message converter, with the same ETag
+    @GetMapping(value = "/{email}", produces = MediaType.APPLICATION_CBOR_VALUE)
+    public ResponseEntity<User> getUserCbor(@PathVariable @Email @Valid String email, WebRequest request) {
+        User user = userService.findUser(email);
+        if (request.checkNotModified(UserJsonCache.etag(user.getVersion()))) {
+            return null;
+        }
+        return withETag(user);
+    }
+
+    //  With If-Match the write only applies while the user still has that ETag, otherwise 412
     @PatchMapping("/{email}")
-    public User updateUser(@PathVariable @Email @Valid String email,
-                           @Valid @RequestBody User updatedUser) {
-        return userService.updateUser(email, updatedUser);
+    public ResponseEntity<User> updateUser(@PathVariable @Email @Valid String email,
+                                           @RequestBody User updatedUser,
+                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return withETag(userService.updateUser(email, updatedUser, expectedVersion(ifMatch)));
     }
 
     @PutMapping("/{email}")
-    public User replaceUser(@PathVariable @Email @Valid String email,
-                            @Valid @RequestBody User updatedUser) {
-        return userService.replaceUser(email, updatedUser);
+    public ResponseEntity<User> replaceUser(@PathVariable @Email @Valid String email,
+                                            @RequestBody User updatedUser,
+                                            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return withETag(userService.replaceUser(email, updatedUser, expectedVersion(ifMatch)));
     }
 
     @DeleteMapping("/{email}")
@@ -40,9 +106,76 @@ public class UserController {
         userService.deleteUser(email);
     }
 
+    //  Ranked type-ahead lookup, every word of q has to prefix a token of the user
+    @GetMapping("/lookup")
+    public List<User> lookupUsers(@RequestParam("q") String query,
+                                  @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        return userService.lookupUsers(query, limit);
+    }
+
     @GetMapping("/search")
     public List<User> searchUsersByBirthDateRange(@RequestParam("from") LocalDate from,
                                                   @RequestParam("to") LocalDate to) {
         return userService.findUsersByBirthDateRange(from, to);
     }
+
+    @GetMapping(value = "/search", params = "limit")
+    public UserPage searchUsersByBirthDateRange(@RequestParam("from") LocalDate from,
+                                                @RequestParam("to") LocalDate to,
+                                                @RequestParam("limit") int limit,
+                                                @RequestParam(value = "after", required = false) String after) {
+        return userService.findUsersByBirthDateRange(from, to, after, limit);
+    }
+
+    //  NDJSON mode, users are written one per line as the index is walked
+    @GetMapping(value = "/search", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamUsersByBirthDateRange(@RequestParam("from") LocalDate from,
+                                                                             @RequestParam("to") LocalDate to) {
+        return ndjson(objectMapper, userService.streamUsersByBirthDateRange(from, to));
+    }
+
+    //  The version an If-Match names, null when absent or *. Only the strong ETags handed out match.
+    static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String etag = ifMatch.trim();
+        if (etag.length() > 2 && etag.startsWith("\"") && etag.endsWith("\"")) {
+            try {
+                return Long.parseLong(etag.substring(1, etag.length() - 1));
+            } catch (NumberFormatException e) {
+                // Falls through, an ETag never handed out cannot match
+            }
+        }
+        throw new PreconditionFailedException("If-Match " + ifMatch + " does not match the user");
+    }
+
+    static ResponseEntity<User> withETag(User user) {
+        return ResponseEntity.ok()
+                .eTag(UserJsonCache.etag(user.getVersion()))
+                .body(user);
+    }
+
+    //  Writes the users one per line and closes the stream when done. The Content-Type is set here, a bare
+    //  StreamingResponseBody would leave it out.
+    static ResponseEntity<StreamingResponseBody> ndjson(ObjectMapper objectMapper, Stream<User> users) {
+        ObjectWriter writer = objectMapper.writerFor(User.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        StreamingResponseBody body = out -> {
+            try (users) {
+                JsonGenerator generator = objectMapper.createGenerator(out);
+                generator.setRootValueSeparator(null);
+                Iterator<User> iterator = users.iterator();
+                while (iterator.hasNext()) {
+                    writer.writeValue(generator, iterator.next());
+                    generator.writeRaw('\n');
+                }
+                generator.flush();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,99 @@
+package ua.savchenko.user_management.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ua.savchenko.user_management.model.UserExportFile;
+import ua.savchenko.user_management.service.UserExportService;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Full dumps of the users of this instance, streamed from a live snapshot or served from pre-built files.
+ */
+@RestController
+@RequestMapping("/api/user/export")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequiredArgsConstructor
+public class UserExportController {
+
+    // Tomcat sends a file named by these request attributes itself, with FileChannel.transferTo
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final String GZIP = "application/gzip";
+
+    private final UserExportService userExportService;
+
+    //  Written while the snapshot is read, the socket being full holds the export back
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(value = "format", defaultValue = "ndjson") String format,
+                                                        @RequestParam(value = "gzip", defaultValue = "false") boolean gzip) {
+        UserExportService.Format exportFormat = UserExportService.Format.of(format);
+        String fileName = UserExportService.fileName(exportFormat, gzip);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(contentType(fileName)))
+                .header(HttpHeaders.CONTENT_DISPOSITION, attachment(fileName))
+                .body(out -> userExportService.export(exportFormat, gzip, out));
+    }
+
+    @PostMapping("/files")
+    @ResponseStatus(HttpStatus.CREATED)
+    public UserExportFile createExportFile(@RequestParam(value = "format", defaultValue = "ndjson") String format,
+                                           @RequestParam(value = "gzip", defaultValue = "true") boolean gzip) throws IOException {
+        return userExportService.createExportFile(UserExportService.Format.of(format), gzip);
+    }
+
+    //  The file goes from the page cache to the socket without being copied through the heap
+    @GetMapping("/files/{name}")
+    public void getExportFile(@PathVariable String name, HttpServletRequest request,
+                              HttpServletResponse response) throws IOException {
+        Path file = userExportService.findExportFile(name);
+        try (FileChannel channel = FileChannel.open(file)) {
+            long size = channel.size();
+            response.setContentType(contentType(name));
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, attachment(name));
+            response.setContentLengthLong(size);
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+                request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_START, 0L);
+                request.setAttribute(SENDFILE_END, size);
+                return;
+            }
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            for (long position = 0; position < size; ) {
+                position += channel.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    //  Content type of an export by the extension of its file name
+    static String contentType(String fileName) {
+        return fileName.endsWith(".gz") ? GZIP
+                : UserExportService.Format.of(fileName.substring(fileName.lastIndexOf('.') + 1)).contentType();
+    }
+
+    static String attachment(String fileName) {
+        return ContentDisposition.attachment().filename(fileName).build().toString();
+    }
+}
@@ -0,0 +1,86 @@
+package ua.savchenko.user_management.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.model.BatchResult;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserStats;
+import ua.savchenko.user_management.service.UserImportService;
+import ua.savchenko.user_management.service.UserService;
+import ua.savchenko.user_management.service.UserStatsService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Local-only endpoints the shards call on each other. They never route,
+ * so a scatter-gather request fans out exactly once.
+ */
+@RestController
+@RequestMapping(UserCluster.SHARD_PATH)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequiredArgsConstructor
+public class UserShardController {
+    private final UserService userService;
+    private final UserImportService userImportService;
+    private final UserStatsService userStatsService;
+    private final ObjectMapper objectMapper;
+
+    //  This shard's users of the range as NDJSON, in birth date and email order after the cursor
+    @GetMapping(value = "/search", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> searchUsersByBirthDateRange(@RequestParam("from") LocalDate from,
+                                                                             @RequestParam("to") LocalDate to,
+                                                                             @RequestParam(value = "after", required = false) String after) {
+        return UserController.ndjson(objectMapper, userService.streamLocalUsersByBirthDateRange(from, to, after));
+    }
+
+    @GetMapping("/lookup")
+    public List<User> lookupUsers(@RequestParam("q") String query,
+                                  @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        return userService.lookupLocalUsers(query, limit);
+    }
+
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public BatchResult importUsers(InputStream body,
+                                   @RequestParam(value = "upsert", defaultValue = "false") boolean upsert) throws IOException {
+        return userImportService.importLocalUsers(body, upsert);
+    }
+
+    @GetMapping("/stats/ages")
+    public UserStats countByAge(@RequestParam("bucket") int bucketYears,
+                                @RequestParam(value = "domain", required = false) String domain) {
+        return userStatsService.countLocalByAge(bucketYears, domain);
+    }
+
+    @GetMapping("/stats/birth-months")
+    public UserStats countByBirthMonth(@RequestParam(value = "domain", required = false) String domain) {
+        return userStatsService.countLocalByBirthMonth(domain);
+    }
+
+    @GetMapping("/stats/birth-dates")
+    public UserStats countByBirthDate(@RequestParam("from") LocalDate from,
+                                      @RequestParam("to") LocalDate to,
+                                      @RequestParam("unit") String unit,
+                                      @RequestParam(value = "domain", required = false) String domain) {
+        return userStatsService.countLocalByBirthDate(from, to, unit, domain);
+    }
+
+    //  Every domain of this shard, the caller ranks them
+    @GetMapping("/stats/domains")
+    public UserStats countByDomain(@RequestParam(value = "from", required = false) LocalDate from,
+                                   @RequestParam(value = "to", required = false) LocalDate to) {
+        return userStatsService.countLocalByDomain(from, to);
+    }
+}
@@ -0,0 +1,51 @@
+package ua.savchenko.user_management.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import ua.savchenko.user_management.model.UserStats;
+import ua.savchenko.user_management.service.UserStatsService;
+
+import java.time.LocalDate;
+
+/**
+ * Counts of users by age, birth month, birth date period and email domain, computed on the server
+ * instead of from search results.
+ */
+@RestController
+@RequestMapping("/api/user/stats")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequiredArgsConstructor
+public class UserStatsController {
+
+    private final UserStatsService userStatsService;
+
+    @GetMapping("/ages")
+    public UserStats countByAge(@RequestParam(value = "bucket", defaultValue = "10") int bucketYears,
+                                @RequestParam(value = "domain", required = false) String domain) {
+        return userStatsService.countByAge(bucketYears, domain);
+    }
+
+    @GetMapping("/birth-months")
+    public UserStats countByBirthMonth(@RequestParam(value = "domain", required = false) String domain) {
+        return userStatsService.countByBirthMonth(domain);
+    }
+
+    @GetMapping("/birth-dates")
+    public UserStats countByBirthDate(@RequestParam("from") LocalDate from,
+                                      @RequestParam("to") LocalDate to,
+                                      @RequestParam(value = "unit", defaultValue = "MONTHS") String unit,
+                                      @RequestParam(value = "domain", required = false) String domain) {
+        return userStatsService.countByBirthDate(from, to, unit, domain);
+    }
+
+    @GetMapping("/domains")
+    public UserStats countByDomain(@RequestParam(value = "from", required = false) LocalDate from,
+                                   @RequestParam(value = "to", required = false) LocalDate to,
+                                   @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        return userStatsService.countByDomain(from, to, limit);
+    }
+}
@@ -1,36 +1,38 @@
 package ua.savchenko.user_management.exception;
 
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.HttpStatusCode;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
+import ua.savchenko.user_management.metrics.UserMetrics;
 import ua.savchenko.user_management.model.ErrorMessage;
 
 @ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequiredArgsConstructor
 public class BusinessExceptionHandler extends ResponseEntityExceptionHandler {
 
+    private final UserMetrics userMetrics;
+
     @ExceptionHandler(value
             = { BusinessException.class })
     protected ResponseEntity<Object> handleBusinessExceptions(
             RuntimeException ex, WebRequest request) {
+        userMetrics.recordError(ex.getClass());
         HttpStatus httpStatus = AnnotationUtils.findAnnotation(ex.getClass(), ResponseStatus.class).code();
         ErrorMessage errorMessage = new ErrorMessage(ex.getMessage(), httpStatus, httpStatus.value());
+        HttpHeaders headers = new HttpHeaders();
+        if (ex instanceof TooManyRequestsException tooManyRequests) {
+            headers.set(HttpHeaders.RETRY_AFTER, Long.toString(tooManyRequests.getRetryAfterSeconds()));
+        }
         return handleExceptionInternal(ex, errorMessage,
-                new HttpHeaders(), httpStatus, request);
-    }
-
-    @Override
-    protected ResponseEntity<Object> handleMethodArgumentNotValid(
-            MethodArgumentNotValidException ex, HttpHeaders headers, HttpStatusCode status, WebRequest request) {
-        ErrorMessage errorMessage = new ErrorMessage(ex.getMessage(), status, status.value());
-        return handleExceptionInternal(ex, errorMessage,
-                new HttpHeaders(), status, request);
+                headers, httpStatus, request);
     }
 }
@@ -0,0 +1,10 @@
+package ua.savchenko.user_management.exception;
+
+import lombok.experimental.StandardException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@StandardException
+@ResponseStatus(HttpStatus.GONE)
+public class ChangesExpiredException extends BusinessException {
+}
@@ -0,0 +1,40 @@
+package ua.savchenko.user_management.exception;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.reactive.result.method.annotation.ResponseEntityExceptionHandler;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+import ua.savchenko.user_management.metrics.UserMetrics;
+import ua.savchenko.user_management.model.ErrorMessage;
+
+//  Same error contract as BusinessExceptionHandler for the WebFlux stack
+@ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveBusinessExceptionHandler extends ResponseEntityExceptionHandler {
+
+    private final UserMetrics userMetrics;
+
+    @ExceptionHandler(value
+            = { BusinessException.class })
+    protected Mono<ResponseEntity<Object>> handleBusinessExceptions(
+            RuntimeException ex, ServerWebExchange exchange) {
+        userMetrics.recordError(ex.getClass());
+        HttpStatus httpStatus = AnnotationUtils.findAnnotation(ex.getClass(), ResponseStatus.class).code();
+        ErrorMessage errorMessage = new ErrorMessage(ex.getMessage(), httpStatus, httpStatus.value());
+        HttpHeaders headers = new HttpHeaders();
+        if (ex instanceof TooManyRequestsException tooManyRequests) {
+            headers.set(HttpHeaders.RETRY_AFTER, Long.toString(tooManyRequests.getRetryAfterSeconds()));
+        }
+        return handleExceptionInternal(ex, errorMessage,
+                headers, httpStatus, exchange);
+    }
+}
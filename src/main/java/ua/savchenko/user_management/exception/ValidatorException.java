@@ -4,7 +4,13 @@ import lombok.experimental.StandardException;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
+//  Thrown for bad input, which is routine, so no stack trace is filled in; the message tells what was wrong
 @StandardException
 @ResponseStatus(HttpStatus.BAD_REQUEST)
 public class ValidatorException extends BusinessException {
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
 }
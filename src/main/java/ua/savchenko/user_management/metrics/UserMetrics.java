@@ -0,0 +1,92 @@
+package ua.savchenko.user_management.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import ua.savchenko.user_management.exception.DuplicateEmailException;
+import ua.savchenko.user_management.exception.NotFoundException;
+import ua.savchenko.user_management.exception.TooManyRequestsException;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the user operations, exported through Actuator and Prometheus.
+ * Every meter is registered up front, so recording on the request path is an array or map
+ * lookup plus a lock-free update and allocates nothing.
+ */
+@Component
+public class UserMetrics {
+
+    public enum Operation {
+        CREATE, GET, UPDATE, REPLACE, DELETE, SEARCH, LOOKUP, BATCH, STATS
+    }
+
+    private final Timer[] operations = new Timer[Operation.values().length];
+    private final DistributionSummary searchResults;
+    private final Map<Class<?>, Counter> errors;
+    private final Counter otherErrors;
+
+    public UserMetrics(MeterRegistry registry, UserStorage userStorage) {
+        for (Operation operation : Operation.values()) {
+            operations[operation.ordinal()] = Timer.builder("user.operation")
+                    .description("Latency of user service operations")
+                    .tag("operation", operation.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(500))
+                    .maximumExpectedValue(Duration.ofSeconds(10))
+                    .register(registry);
+        }
+        searchResults = DistributionSummary.builder("user.search.results")
+                .description("Number of users returned by a birth date search")
+                .baseUnit("users")
+                .publishPercentileHistogram()
+                .maximumExpectedValue(1_000_000.0)
+                .register(registry);
+
+        errors = Map.of(
+                NotFoundException.class, errorCounter(registry, "not_found", 404),
+                DuplicateEmailException.class, errorCounter(registry, "duplicate_email", 409),
+                ValidatorException.class, errorCounter(registry, "validation", 400),
+                TooManyRequestsException.class, errorCounter(registry, "too_many_requests", 429));
+        otherErrors = errorCounter(registry, "other", 0);
+
+        Gauge.builder("user.storage.users", userStorage, UserStorage::size)
+                .description("Number of stored users")
+                .register(registry);
+        Gauge.builder("user.storage.birth.date.index.days", userStorage, UserStorage::birthDateIndexSize)
+                .description("Number of distinct birth dates in the birth date index")
+                .register(registry);
+        Gauge.builder("user.storage.text.index.tokens", userStorage, UserStorage::textIndexSize)
+                .description("Number of distinct tokens in the text index")
+                .register(registry);
+    }
+
+    //  Records the time since startNanos, taken from System.nanoTime()
+    public void record(Operation operation, long startNanos) {
+        operations[operation.ordinal()].record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordSearchResults(int users) {
+        searchResults.record(users);
+    }
+
+    public void recordError(Class<? extends Exception> type) {
+        errors.getOrDefault(type, otherErrors).increment();
+    }
+
+    private static Counter errorCounter(MeterRegistry registry, String error, int status) {
+        return Counter.builder("user.errors")
+                .description("Error responses of the user API by cause")
+                .tag("error", error)
+                .tag("status", status == 0 ? "other" : String.valueOf(status))
+                .register(registry);
+    }
+}
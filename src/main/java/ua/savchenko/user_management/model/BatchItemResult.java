@@ -0,0 +1,11 @@
+package ua.savchenko.user_management.model;
+
+public record BatchItemResult(int index, String email, Status status, String message) {
+
+    public enum Status {
+        CREATED,
+        UPDATED,
+        DUPLICATE_EMAIL,
+        INVALID
+    }
+}
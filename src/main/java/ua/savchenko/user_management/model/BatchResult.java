@@ -0,0 +1,6 @@
+package ua.savchenko.user_management.model;
+
+import java.util.List;
+
+public record BatchResult(int created, int updated, int duplicates, int invalid, List<BatchItemResult> items) {
+}
@@ -1,36 +1,62 @@
 package ua.savchenko.user_management.model;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Value;
+import lombok.With;
 import org.springframework.format.annotation.DateTimeFormat;
 
-import jakarta.validation.constraints.Email;
-import jakarta.validation.constraints.NotBlank;
-import jakarta.validation.constraints.Past;
 import java.time.LocalDate;
 
-@Data
-@NoArgsConstructor
-@AllArgsConstructor
+/**
+ * Immutable, so a stored user can be read by any number of threads while writers replace it.
+ * Every write stores a new instance with a new version. Checked by UserValidator on every write path.
+ */
+@Value
+@With
 public class User {
 
-    @Email(message = "Email should be valid")
-    @NotBlank(message = "Email is required")
-    private String email;
+    String email;
 
-    @NotBlank(message = "First name is required")
-    private String firstName;
+    String firstName;
 
-    @NotBlank(message = "Last name is required")
-    private String lastName;
+    String lastName;
 
-    @Past(message = "Birth date must be in the past")
     @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
-    private LocalDate birthDate;
-
-    private String address;
-
-    private String phoneNumber;
-
+    LocalDate birthDate;
+
+    String address;
+
+    String phoneNumber;
+
+    // Assigned on every write from a counter that only grows, 0 for a user not stored yet.
+    // Served as the ETag; a version sent by a client is ignored.
+    long version;
+
+    @JsonCreator
+    public User(@JsonProperty("email") String email,
+                @JsonProperty("firstName") String firstName,
+                @JsonProperty("lastName") String lastName,
+                @JsonProperty("birthDate") LocalDate birthDate,
+                @JsonProperty("address") String address,
+                @JsonProperty("phoneNumber") String phoneNumber,
+                @JsonProperty("version") long version) {
+        this.email = email;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.birthDate = birthDate;
+        this.address = address;
+        this.phoneNumber = phoneNumber;
+        this.version = version;
+    }
+
+    public User(String email, String firstName, String lastName, LocalDate birthDate, String address,
+                String phoneNumber) {
+        this(email, firstName, lastName, birthDate, address, phoneNumber, 0);
+    }
+
+    //  A patch changing nothing
+    public User() {
+        this(null, null, null, null, null, null);
+    }
 }
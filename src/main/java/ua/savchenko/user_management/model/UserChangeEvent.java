@@ -0,0 +1,13 @@
+package ua.savchenko.user_management.model;
+
+import java.time.Instant;
+
+//  previousEmail is set when the user was renamed, user is null for a deleted one
+public record UserChangeEvent(long sequence, Type type, String email, String previousEmail, User user, Instant timestamp) {
+
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+}
@@ -0,0 +1,7 @@
+package ua.savchenko.user_management.model;
+
+import java.util.List;
+
+//  next is the sequence to resume after, the last event's or the requested one when there were none
+public record UserChanges(List<UserChangeEvent> events, long next) {
+}
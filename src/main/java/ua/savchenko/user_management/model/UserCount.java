@@ -0,0 +1,5 @@
+package ua.savchenko.user_management.model;
+
+//  Number of users in one bucket of an aggregation: an age range, a month, a date range or a domain
+public record UserCount(String key, long count) {
+}
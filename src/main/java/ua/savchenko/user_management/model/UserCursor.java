@@ -0,0 +1,11 @@
+package ua.savchenko.user_management.model;
+
+import java.time.LocalDate;
+
+//  Keyset position of a user in birth date search results
+public record UserCursor(LocalDate birthDate, String email) {
+
+    public static UserCursor of(User user) {
+        return new UserCursor(user.getBirthDate(), user.getEmail());
+    }
+}
@@ -0,0 +1,6 @@
+package ua.savchenko.user_management.model;
+
+import java.time.Instant;
+
+public record UserExportFile(String name, int users, long size, Instant createdAt) {
+}
@@ -0,0 +1,20 @@
+package ua.savchenko.user_management.model;
+
+/**
+ * One operation of POST /api/user/ops. CREATE takes the user only; PATCH, REPLACE and DELETE name the user
+ * by email and may carry the version the user is expected to have, like If-Match.
+ */
+public record UserOperation(Type op, String email, User user, Long version) {
+
+    public enum Type {
+        CREATE,
+        PATCH,
+        REPLACE,
+        DELETE
+    }
+
+    //  Email the operation leaves the user under
+    public String target() {
+        return user == null || user.getEmail() == null || op == Type.DELETE ? email : user.getEmail();
+    }
+}
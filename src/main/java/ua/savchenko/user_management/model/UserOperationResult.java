@@ -0,0 +1,6 @@
+package ua.savchenko.user_management.model;
+
+//  status is the HTTP status the operation would have got on its own; 424 marks operations of a rejected
+//  all-or-nothing batch that were fine themselves
+public record UserOperationResult(int index, String email, int status, User user, String message) {
+}
@@ -0,0 +1,6 @@
+package ua.savchenko.user_management.model;
+
+import java.util.List;
+
+public record UserOperationsResult(int applied, int failed, List<UserOperationResult> results) {
+}
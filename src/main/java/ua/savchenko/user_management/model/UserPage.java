@@ -0,0 +1,6 @@
+package ua.savchenko.user_management.model;
+
+import java.util.List;
+
+public record UserPage(List<User> users, String nextCursor) {
+}
@@ -0,0 +1,7 @@
+package ua.savchenko.user_management.model;
+
+import java.util.List;
+
+//  total counts every user of the buckets, also of those cut off by a limit
+public record UserStats(long total, List<UserCount> counts) {
+}
@@ -0,0 +1,128 @@
+package ua.savchenko.user_management.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import ua.savchenko.user_management.model.BatchResult;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserOperation;
+import ua.savchenko.user_management.model.UserOperationsResult;
+import ua.savchenko.user_management.model.UserPage;
+
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Non-blocking facade of {@link UserService} for the WebFlux stack.
+ * Every call runs on a virtual thread, never on the event loop: besides waiting for the change log
+ * or another shard, a call takes stripe locks, which an export snapshot or a stats scan can hold for long.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUserService {
+
+    private final UserService userService;
+    private final UserImportService userImportService;
+    private final UserOperationService userOperationService;
+    private final ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+    private final Scheduler blocking = Schedulers.fromExecutorService(virtualThreads, "user-blocking");
+
+    public ReactiveUserService(UserService userService, UserImportService userImportService,
+                               UserOperationService userOperationService) {
+        this.userService = userService;
+        this.userImportService = userImportService;
+        this.userOperationService = userOperationService;
+    }
+
+    @PreDestroy
+    public void close() {
+        blocking.dispose();
+    }
+
+    public Mono<User> createUser(User user) {
+        return call(() -> userService.createUser(user));
+    }
+
+    public Mono<UserJsonCache.Entry> findUserJson(String email) {
+        return call(() -> userService.findUserJson(email));
+    }
+
+    public Mono<User> findUser(String email) {
+        return call(() -> userService.findUser(email));
+    }
+
+    public Mono<User> updateUser(String email, User updatedUser, Long expectedVersion) {
+        return call(() -> userService.updateUser(email, updatedUser, expectedVersion));
+    }
+
+    public Mono<User> replaceUser(String email, User updatedUser, Long expectedVersion) {
+        return call(() -> userService.replaceUser(email, updatedUser, expectedVersion));
+    }
+
+    public Mono<Void> deleteUser(String email) {
+        return call(() -> {
+            userService.deleteUser(email);
+            return null;
+        });
+    }
+
+    public Mono<List<User>> lookupUsers(String query, int limit) {
+        return call(() -> userService.lookupUsers(query, limit));
+    }
+
+    public Mono<UserPage> findUsersByBirthDateRange(LocalDate from, LocalDate to, String after, int limit) {
+        return call(() -> userService.findUsersByBirthDateRange(from, to, after, limit));
+    }
+
+    //  Walks the index as far as the subscriber requested; cancelling closes the search
+    public Flux<User> streamUsersByBirthDateRange(LocalDate from, LocalDate to) {
+        return Flux.fromStream(() -> userService.streamUsersByBirthDateRange(from, to)).subscribeOn(blocking);
+    }
+
+    public Flux<User> streamLocalUsersByBirthDateRange(LocalDate from, LocalDate to, String after) {
+        return Flux.fromStream(() -> userService.streamLocalUsersByBirthDateRange(from, to, after))
+                .subscribeOn(blocking);
+    }
+
+    public Mono<List<User>> lookupLocalUsers(String query, int limit) {
+        return call(() -> userService.lookupLocalUsers(query, limit));
+    }
+
+    public Mono<UserOperationsResult> runOperations(List<UserOperation> operations, boolean atomic) {
+        return call(() -> userOperationService.runOperations(operations, atomic));
+    }
+
+    //  The body is read as a blocking stream, closed once the import is done
+    public Mono<BatchResult> importUsers(InputStream body, boolean upsert) {
+        return call(() -> {
+            try (body) {
+                return userImportService.importUsers(body, upsert);
+            }
+        });
+    }
+
+    public Mono<BatchResult> importLocalUsers(InputStream body, boolean upsert) {
+        return call(() -> {
+            try (body) {
+                return userImportService.importLocalUsers(body, upsert);
+            }
+        });
+    }
+
+    //  Virtual threads for other blocking work of the reactive stack
+    public Scheduler blockingScheduler() {
+        return blocking;
+    }
+
+    private <T> Mono<T> call(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(blocking);
+    }
+}
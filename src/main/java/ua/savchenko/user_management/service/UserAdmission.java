@@ -0,0 +1,198 @@
+package ua.savchenko.user_management.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.TooManyRequestsException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Admission control in front of the user API: a token bucket per client and a limit on concurrent searches.
+ * Every call that scans the storage or takes many users at once counts as a search, see {@link #isSearch}.
+ * A bucket is a single AtomicLong holding the time at which it will be full again (the generic cell rate
+ * algorithm), so admitting a request is a cache hit, a read and a CAS, and allocates nothing.
+ * Only the keys listed in user.admission.keys name a client, any other request is limited by its address.
+ * Rejections are counted per client, tagged by a byte of the hash of its key, so keys never reach
+ * the metrics and at most 256 keyed clients are told apart, or as anonymous without a registered key.
+ */
+@Component
+public class UserAdmission {
+
+    private static final String ANONYMOUS = "anonymous";
+    private static final String API_PATH = "/api/user";
+    //  Under the public API and the shard endpoints alike
+    private static final List<String> SEARCH_CALLS = List.of(
+            "/search", "/lookup", "/batch", "/ops", "/export", "/stats");
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    //  Nanoseconds every request takes from a bucket, and how many of them a full bucket holds
+    private final long interval;
+    private final long capacity;
+    private final Set<String> keys;
+    private final Cache<String, AtomicLong> buckets;
+    private final Semaphore searches;
+    private final long searchQueueTimeout;
+    private final MeterRegistry registry;
+    private final LongSupplier nanoTime;
+    //  Meters by client tag and reason, registered on first use
+    private final Map<String, Counter> rejected = new ConcurrentHashMap<>();
+    private final Map<String, Timer> searchWaits = new ConcurrentHashMap<>();
+
+    @Autowired
+    public UserAdmission(UserConfiguration userConfiguration, MeterRegistry registry) {
+        this(userConfiguration, registry, System::nanoTime);
+    }
+
+    UserAdmission(UserConfiguration userConfiguration, MeterRegistry registry, LongSupplier nanoTime) {
+        UserConfiguration.Admission admission = userConfiguration.getAdmission();
+        this.enabled = admission.isEnabled();
+        this.interval = NANOS_PER_SECOND / Math.max(1, admission.getRate());
+        this.capacity = interval * Math.max(1, admission.getBurst());
+        this.keys = Set.copyOf(admission.getKeys());
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(admission.getClients())
+                .build();
+        this.searches = new Semaphore(admission.getMaxConcurrentSearches());
+        this.searchQueueTimeout = admission.getSearchQueueTimeout().toNanos();
+        this.registry = registry;
+        this.nanoTime = nanoTime;
+
+        Gauge.builder("user.admission.clients", buckets, Cache::estimatedSize)
+                .description("Number of clients with a token bucket")
+                .register(registry);
+        Gauge.builder("user.admission.searches.active", searches,
+                        permits -> admission.getMaxConcurrentSearches() - permits.availablePermits())
+                .description("Number of searches, lookups, batches, exports and stats running")
+                .register(registry);
+        Gauge.builder("user.admission.searches.queued", searches, Semaphore::getQueueLength)
+                .description("Number of searches waiting for one running to finish")
+                .register(registry);
+    }
+
+    //  Takes a token from the bucket of the client, named by apiKey when registered or else by address
+    public void admit(String apiKey, String address) {
+        if (!enabled) {
+            return;
+        }
+        AtomicLong bucket = buckets.get(keyed(apiKey) ? apiKey : address, client -> new AtomicLong(Long.MIN_VALUE));
+        long now = nanoTime.getAsLong();
+        while (true) {
+            long full = bucket.get();
+            long next = Math.max(full, now) + interval;
+            long excess = next - now - capacity;
+            if (excess > 0) {
+                reject(apiKey, "rate");
+                throw new TooManyRequestsException("Too many requests", seconds(excess));
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return;
+            }
+        }
+    }
+
+    //  Whether a request path needs a search slot
+    public static boolean isSearch(String path) {
+        String call = path.startsWith(UserCluster.SHARD_PATH) ? path.substring(UserCluster.SHARD_PATH.length())
+                : path.startsWith(API_PATH) ? path.substring(API_PATH.length())
+                : "";
+        for (String searchCall : SEARCH_CALLS) {
+            if (call.startsWith(searchCall)
+                    && (call.length() == searchCall.length() || call.charAt(searchCall.length()) == '/')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //  Waits up to the search queue timeout for a search slot; releaseSearch has to follow once admitted
+    public void acquireSearch(String apiKey) {
+        if (!enabled || searches.tryAcquire()) {
+            return;
+        }
+        long start = nanoTime.getAsLong();
+        boolean acquired;
+        try {
+            acquired = searches.tryAcquire(searchQueueTimeout, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        searchWait(apiKey).record(nanoTime.getAsLong() - start, TimeUnit.NANOSECONDS);
+        if (!acquired) {
+            rejectSearch(apiKey);
+        }
+    }
+
+    //  For callers that must not block, such as event loops: rejects right away when every slot is taken
+    public void acquireSearchWithoutQueueing(String apiKey) {
+        if (enabled && !searches.tryAcquire()) {
+            rejectSearch(apiKey);
+        }
+    }
+
+    public void releaseSearch() {
+        if (enabled) {
+            searches.release();
+        }
+    }
+
+    private void rejectSearch(String apiKey) {
+        reject(apiKey, "concurrency");
+        throw new TooManyRequestsException("Too many concurrent searches", seconds(searchQueueTimeout));
+    }
+
+    //  Only clients that got queued or rejected get a meter
+    private void reject(String apiKey, String reason) {
+        String client = clientTag(apiKey);
+        rejected.computeIfAbsent(client + ' ' + reason, key -> Counter.builder("user.admission.rejected")
+                        .description("Requests rejected by admission control")
+                        .tag("client", client)
+                        .tag("reason", reason)
+                        .register(registry))
+                .increment();
+    }
+
+    private Timer searchWait(String apiKey) {
+        return searchWaits.computeIfAbsent(clientTag(apiKey), client -> Timer.builder("user.admission.search.wait")
+                .description("Time searches waited for a slot")
+                .tag("client", client)
+                .register(registry));
+    }
+
+    private String clientTag(String apiKey) {
+        return keyed(apiKey) ? keyTag(apiKey) : ANONYMOUS;
+    }
+
+    static String keyTag(String apiKey) {
+        byte[] hash = DigestUtils.md5Digest(apiKey.getBytes(StandardCharsets.UTF_8));
+        return "key-" + HexFormat.of().toHexDigits(hash[0]);
+    }
+
+    private boolean keyed(String apiKey) {
+        return apiKey != null && keys.contains(apiKey);
+    }
+
+    //  Retry-After has whole seconds, rounded up so that the retry is admitted
+    private static long seconds(long nanos) {
+        return Math.max(1, (nanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND);
+    }
+}
@@ -0,0 +1,233 @@
+package ua.savchenko.user_management.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.ChangesExpiredException;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserChangeEvent;
+import ua.savchenko.user_management.model.UserChanges;
+import ua.savchenko.user_management.storage.UserChangeListener;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ordered feed of every user change, kept in a bounded ring for consumers to poll or stream from.
+ * A writer claims the next sequence with one atomic increment and stores the event in its slot,
+ * unless a writer lapping it already stored a newer one, and wakes consumers once per write or batch,
+ * after releasing its stripe locks. Writers never wait for consumers; one falling a whole ring behind loses its place and has to resync,
+ * instead of events piling up for it. Events are published as changes are applied, before the
+ * change log made them durable. Sequences start over with the instance, and every shard has its own.
+ */
+@Component
+public class UserChangeFeed implements UserChangeListener {
+
+    // Events handed to a subscriber at once
+    private static final int BATCH_SIZE = 256;
+
+    private final UserStorage userStorage;
+    private final UserConfiguration userConfiguration;
+    private final Clock clock;
+    private final AtomicReferenceArray<UserChangeEvent> slots;
+    private final int mask;
+    private final AtomicLong lastSequence = new AtomicLong();
+    // Threads waiting for the next event, woken once per write or batch
+    private final Set<Thread> waiters = ConcurrentHashMap.newKeySet();
+    private final ExecutorService consumers = Executors.newVirtualThreadPerTaskExecutor();
+
+    //  Receives the events of one subscription; blocking in it only holds back that subscription
+    public interface Subscriber {
+
+        void onEvents(List<UserChangeEvent> events) throws IOException;
+
+        //  Nothing was published for a poll timeout, lets the subscriber check its consumer is still there
+        void onIdle() throws IOException;
+
+        //  The subscriber fell a whole ring behind, nothing follows
+        void onExpired(ChangesExpiredException e);
+    }
+
+    public UserChangeFeed(UserStorage userStorage, UserConfiguration userConfiguration, Clock clock) {
+        this.userStorage = userStorage;
+        this.userConfiguration = userConfiguration;
+        this.clock = clock;
+        int capacity = userConfiguration.getChanges().getCapacity();
+        capacity = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        slots = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+    }
+
+    @PostConstruct
+    public void start() {
+        userStorage.setChangeListener(this);
+    }
+
+    @PreDestroy
+    public void close() {
+        userStorage.setChangeListener(UserChangeListener.NONE);
+        consumers.shutdownNow();
+    }
+
+    @Override
+    public void changed(String email, User old, User updated) {
+        long sequence = lastSequence.incrementAndGet();
+        int slot = (int) sequence & mask;
+        UserChangeEvent event = event(sequence, email, old, updated);
+        for (;;) {
+            UserChangeEvent current = slots.get(slot);
+            // A writer stalled for a whole ring must not overwrite the newer event of the one lapping it
+            if (current != null && current.sequence() > sequence) {
+                return;
+            }
+            if (slots.compareAndSet(slot, current, event)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void published() {
+        if (!waiters.isEmpty()) {
+            for (Thread waiter : waiters) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    public long lastSequence() {
+        return lastSequence.get();
+    }
+
+    //  Up to limit events after the given sequence, in order, without waiting.
+    //  Stops before a claimed slot still being written, so no event is ever skipped.
+    public List<UserChangeEvent> read(long after, int limit) {
+        check(after);
+        long last = lastSequence.get();
+        List<UserChangeEvent> events = new ArrayList<>(Math.min(limit, (int) Math.min(last - after, BATCH_SIZE)));
+        for (long sequence = after + 1; sequence <= last && events.size() < limit; sequence++) {
+            UserChangeEvent event = slots.get((int) sequence & mask);
+            if (event == null || event.sequence() < sequence) {
+                break;
+            }
+            if (event.sequence() > sequence) {
+                throw expired(after, lastSequence.get());
+            }
+            events.add(event);
+        }
+        return events;
+    }
+
+    //  Like read, waiting up to the timeout for the first event
+    public List<UserChangeEvent> await(long after, int limit, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        Thread current = Thread.currentThread();
+        // Registered before reading, so a publish in between makes the park return at once
+        waiters.add(current);
+        try {
+            for (;;) {
+                List<UserChangeEvent> events = read(after, limit);
+                long remaining = deadline - System.nanoTime();
+                if (!events.isEmpty() || remaining <= 0) {
+                    return events;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            waiters.remove(current);
+        }
+    }
+
+    //  Long poll: the events after the given sequence as soon as there are some, or none after the poll timeout.
+    //  Waits on a virtual thread rather than the request thread.
+    public CompletableFuture<UserChanges> poll(long after, int limit) {
+        check(after);
+        if (limit < 1 || limit > userConfiguration.getMaxPageSize()) {
+            throw new ValidatorException("Limit must be between 1 and " + userConfiguration.getMaxPageSize());
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            List<UserChangeEvent> events;
+            try {
+                events = await(after, limit, userConfiguration.getChanges().getPollTimeout());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                events = List.of();
+            }
+            return new UserChanges(events, events.isEmpty() ? after : events.get(events.size() - 1).sequence());
+        }, consumers);
+    }
+
+    //  Pushes the events after the given sequence to the subscriber as they are published, on its own virtual thread,
+    //  until the subscriber throws or the returned future is cancelled
+    public Future<?> subscribe(long after, Subscriber subscriber) {
+        check(after);
+        return consumers.submit(() -> {
+            long cursor = after;
+            try {
+                for (;;) {
+                    List<UserChangeEvent> events = await(cursor, BATCH_SIZE, userConfiguration.getChanges().getPollTimeout());
+                    if (events.isEmpty()) {
+                        subscriber.onIdle();
+                    } else {
+                        subscriber.onEvents(events);
+                        cursor = events.get(events.size() - 1).sequence();
+                    }
+                }
+            } catch (ChangesExpiredException e) {
+                subscriber.onExpired(e);
+            } catch (IOException | InterruptedException e) {
+                // The consumer went away
+            }
+        });
+    }
+
+    //  Fails unless the events after the given sequence can still be read
+    public void check(long after) {
+        if (after < 0) {
+            throw new ValidatorException("After must not be negative");
+        }
+        long last = lastSequence.get();
+        if (after > last) {
+            // Resuming from before a restart
+            throw new ChangesExpiredException("Sequence " + after + " is unknown, the last one is " + last);
+        }
+        if (after < last - mask - 1) {
+            throw expired(after, last);
+        }
+    }
+
+    private ChangesExpiredException expired(long after, long last) {
+        return new ChangesExpiredException("Changes after " + after + " are no longer kept, the oldest is " + (last - mask));
+    }
+
+    private UserChangeEvent event(long sequence, String email, User old, User updated) {
+        Instant now = clock.instant();
+        if (old == null) {
+            return new UserChangeEvent(sequence, UserChangeEvent.Type.CREATED, updated.getEmail(), null, updated, now);
+        }
+        if (updated == null) {
+            return new UserChangeEvent(sequence, UserChangeEvent.Type.DELETED, email, null, null, now);
+        }
+        String previousEmail = email.equals(updated.getEmail()) ? null : email;
+        return new UserChangeEvent(sequence, UserChangeEvent.Type.UPDATED, updated.getEmail(), previousEmail, updated, now);
+    }
+}
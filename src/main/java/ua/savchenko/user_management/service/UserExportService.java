@@ -0,0 +1,206 @@
+package ua.savchenko.user_management.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.NotFoundException;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserExportFile;
+import ua.savchenko.user_management.storage.UserStorage;
+import ua.savchenko.user_management.storage.UserStorageSnapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Full dumps of the users of this instance, taken from a {@link UserStorageSnapshot} so writes go on meanwhile.
+ * Users are written through fixed size buffers, so an export holds no more than a few of them in memory.
+ * In a cluster every instance exports its own shard.
+ */
+@Service
+@RequiredArgsConstructor
+public class UserExportService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String CSV_HEADER = "email,firstName,lastName,birthDate,address,phoneNumber";
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmssSSS'Z'")
+            .withZone(ZoneOffset.UTC);
+    private static final Pattern FILE_NAME = Pattern.compile("users-\\d{8}T\\d{9}Z\\.(ndjson|csv)(\\.gz)?");
+
+    private final UserStorage userStorage;
+    private final UserConfiguration userConfiguration;
+    private final ObjectMapper objectMapper;
+    private final Clock clock;
+
+    public enum Format {
+        NDJSON("ndjson", "application/x-ndjson"),
+        CSV("csv", "text/csv");
+
+        private final String extension;
+        private final String contentType;
+
+        Format(String extension, String contentType) {
+            this.extension = extension;
+            this.contentType = contentType;
+        }
+
+        public String extension() {
+            return extension;
+        }
+
+        public String contentType() {
+            return contentType;
+        }
+
+        public static Format of(String name) {
+            for (Format format : values()) {
+                if (format.extension.equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            throw new ValidatorException("Unknown export format " + name + ", expected ndjson or csv");
+        }
+    }
+
+    //  File name an export in the format gets, without the time stamp of the pre-built files
+    public static String fileName(Format format, boolean gzip) {
+        return "users." + format.extension() + (gzip ? ".gz" : "");
+    }
+
+    //  Writes every user as of now to out and returns their number, leaving out open
+    public int export(Format format, boolean gzip, OutputStream out) throws IOException {
+        try (UserStorageSnapshot snapshot = userStorage.openSnapshot()) {
+            write(snapshot, format, gzip, out);
+            return snapshot.size();
+        }
+    }
+
+    //  Writes an export next to the final file and moves it in place once complete
+    public UserExportFile createExportFile(Format format, boolean gzip) throws IOException {
+        Path directory = Files.createDirectories(Path.of(userConfiguration.getExport().getDirectory()));
+        Instant createdAt = clock.instant();
+        String name = "users-" + FILE_TIME.format(createdAt) + "." + format.extension() + (gzip ? ".gz" : "");
+        Path target = directory.resolve(name);
+        Path tmp = directory.resolve(name + ".tmp");
+
+        int users;
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            users = export(format, gzip, out);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        return new UserExportFile(name, users, Files.size(target), createdAt);
+    }
+
+    //  Path of a pre-built export file, only names this service hands out are accepted
+    public Path findExportFile(String name) {
+        Path file = Path.of(userConfiguration.getExport().getDirectory()).resolve(name);
+        if (!FILE_NAME.matcher(name).matches() || !Files.isRegularFile(file)) {
+            throw new NotFoundException("Export file " + name + " not found");
+        }
+        return file;
+    }
+
+    private void write(UserStorageSnapshot snapshot, Format format, boolean gzip, OutputStream out) throws IOException {
+        // Closing flushes and finishes the compression but leaves out open
+        OutputStream target = new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        if (gzip) {
+            target = new GZIPOutputStream(target, BUFFER_SIZE);
+        }
+        try (Stream<User> users = snapshot.stream();
+             OutputStream buffered = new BufferedOutputStream(target, BUFFER_SIZE)) {
+            if (format == Format.NDJSON) {
+                writeNdjson(users.iterator(), buffered);
+            } else {
+                writeCsv(users.iterator(), buffered);
+            }
+        }
+    }
+
+    private void writeNdjson(Iterator<User> users, OutputStream out) throws IOException {
+        ObjectWriter writer = objectMapper.writerFor(User.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        JsonGenerator generator = objectMapper.createGenerator(out);
+        generator.setRootValueSeparator(null);
+        while (users.hasNext()) {
+            writer.writeValue(generator, users.next());
+            generator.writeRaw('\n');
+        }
+        generator.flush();
+    }
+
+    private static void writeCsv(Iterator<User> users, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        writer.write(CSV_HEADER);
+        writer.write("\r\n");
+        while (users.hasNext()) {
+            User user = users.next();
+            writeCsvField(writer, user.getEmail());
+            writer.write(',');
+            writeCsvField(writer, user.getFirstName());
+            writer.write(',');
+            writeCsvField(writer, user.getLastName());
+            writer.write(',');
+            writeCsvField(writer, user.getBirthDate() == null ? null : user.getBirthDate().toString());
+            writer.write(',');
+            writeCsvField(writer, user.getAddress());
+            writer.write(',');
+            writeCsvField(writer, user.getPhoneNumber());
+            writer.write("\r\n");
+        }
+        writer.flush();
+    }
+
+    //  RFC 4180: quoted when it contains a separator, a quote or a line break, quotes doubled
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
@@ -0,0 +1,187 @@
+package ua.savchenko.user_management.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.model.BatchItemResult;
+import ua.savchenko.user_management.model.BatchResult;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.storage.UserStorage;
+import ua.savchenko.user_management.util.EmailKeys;
+import ua.savchenko.user_management.util.UserValidator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+@Service
+@RequiredArgsConstructor
+public class UserImportService {
+
+    private final UserStorage userStorage;
+    private final UserValidator userValidator;
+    private final ObjectMapper objectMapper;
+    private final UserConfiguration userConfiguration;
+    private final UserJsonCache userJsonCache;
+    private final UserCluster userCluster;
+
+    //  Imports a JSON array or NDJSON stream of users, reading it incrementally.
+    //  Users are validated in parallel and stored chunk by chunk. An item that does not bind to a user
+    //  is reported invalid like one failing validation. A document that stops parsing ends the import
+    //  after the chunks before it were stored, reported as a last invalid item.
+    //  Users owned by other shards are sent there, in parallel with storing the local ones.
+    public BatchResult importUsers(InputStream body, boolean upsert) throws IOException {
+        return importUsers(body, upsert, userCluster.isEnabled());
+    }
+
+    //  Imports into this shard only, for another shard forwarding the users it does not own
+    public BatchResult importLocalUsers(InputStream body, boolean upsert) throws IOException {
+        return importUsers(body, upsert, false);
+    }
+
+    private BatchResult importUsers(InputStream body, boolean upsert, boolean routed) throws IOException {
+        int batchSize = userConfiguration.getImportBatchSize();
+        List<BatchItemResult> items = new ArrayList<>();
+        List<User> chunk = new ArrayList<>(batchSize);
+        // Per item of the chunk, why it did not bind to a user, with a null user then
+        List<String> bindErrors = new ArrayList<>(batchSize);
+
+        try (MappingIterator<User> iterator = objectMapper.readerFor(User.class).readValues(body)) {
+            while (iterator.hasNextValue()) {
+                try {
+                    chunk.add(iterator.nextValue());
+                    bindErrors.add(null);
+                } catch (JsonMappingException e) {
+                    // The iterator skips the rest of the item on the next hasNextValue
+                    chunk.add(null);
+                    bindErrors.add("Malformed user: " + e.getOriginalMessage());
+                }
+                if (chunk.size() == batchSize) {
+                    importChunk(chunk, bindErrors, upsert, routed, items);
+                    chunk.clear();
+                    bindErrors.clear();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            importChunk(chunk, bindErrors, upsert, routed, items);
+            items.add(new BatchItemResult(items.size(), null, BatchItemResult.Status.INVALID,
+                    "Malformed document, import stopped: " + e.getOriginalMessage()));
+            return result(items);
+        }
+        importChunk(chunk, bindErrors, upsert, routed, items);
+        return result(items);
+    }
+
+    private static BatchResult result(List<BatchItemResult> items) {
+        int[] counts = new int[BatchItemResult.Status.values().length];
+        items.forEach(item -> counts[item.status().ordinal()]++);
+        return new BatchResult(counts[BatchItemResult.Status.CREATED.ordinal()],
+                counts[BatchItemResult.Status.UPDATED.ordinal()],
+                counts[BatchItemResult.Status.DUPLICATE_EMAIL.ordinal()],
+                counts[BatchItemResult.Status.INVALID.ordinal()],
+                items);
+    }
+
+    private void importChunk(List<User> chunk, List<String> bindErrors, boolean upsert, boolean routed,
+                             List<BatchItemResult> items) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        String[] errors = new String[chunk.size()];
+        IntStream.range(0, chunk.size()).parallel().forEach(i -> errors[i] = chunk.get(i) == null
+                ? bindErrors.get(i) : userValidator.check(chunk.get(i)));
+
+        List<User> valid = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            if (errors[i] == null) {
+                valid.add(EmailKeys.normalize(chunk.get(i)));
+            }
+        }
+        BatchItemResult[] stored = routed ? storeOnShards(valid, upsert) : storeLocally(valid, upsert);
+
+        int offset = items.size();
+        int v = 0;
+        for (int i = 0; i < chunk.size(); i++) {
+            User user = chunk.get(i);
+            if (errors[i] != null) {
+                items.add(new BatchItemResult(offset + i, user == null ? null : user.getEmail(),
+                        BatchItemResult.Status.INVALID, errors[i]));
+                continue;
+            }
+            BatchItemResult result = stored[v++];
+            items.add(new BatchItemResult(offset + i, user.getEmail(), result.status(), result.message()));
+        }
+    }
+
+    //  Results indexed like the users, every user is stored with a version of its own
+    private BatchItemResult[] storeLocally(List<User> users, boolean upsert) {
+        List<User> versioned = new ArrayList<>(users.size());
+        for (User user : users) {
+            versioned.add(user.withVersion(userStorage.nextVersion()));
+        }
+        List<User> previous = userStorage.putAll(versioned, upsert);
+        BatchItemResult[] results = new BatchItemResult[users.size()];
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            BatchItemResult.Status status;
+            if (previous.get(i) == null) {
+                status = BatchItemResult.Status.CREATED;
+            } else {
+                status = upsert ? BatchItemResult.Status.UPDATED : BatchItemResult.Status.DUPLICATE_EMAIL;
+                if (upsert) {
+                    userJsonCache.invalidate(user.getEmail());
+                }
+            }
+            results[i] = new BatchItemResult(i, user.getEmail(), status, null);
+        }
+        return results;
+    }
+
+    //  Splits the users by owner; the other shards get theirs while the local ones are stored.
+    //  A shard failing fails the request like a malformed document, after the rest was stored.
+    private BatchItemResult[] storeOnShards(List<User> users, boolean upsert) {
+        int shards = userCluster.shards();
+        List<List<User>> usersByShard = new ArrayList<>(shards);
+        List<List<Integer>> positionsByShard = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            usersByShard.add(new ArrayList<>());
+            positionsByShard.add(new ArrayList<>());
+        }
+        for (int i = 0; i < users.size(); i++) {
+            int shard = userCluster.shardOf(users.get(i).getEmail());
+            usersByShard.get(shard).add(users.get(i));
+            positionsByShard.get(shard).add(i);
+        }
+
+        List<CompletableFuture<BatchResult>> remote = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            boolean send = shard != userCluster.self() && !usersByShard.get(shard).isEmpty();
+            remote.add(send ? userCluster.importUsers(shard, usersByShard.get(shard), upsert) : null);
+        }
+
+        BatchItemResult[] results = new BatchItemResult[users.size()];
+        int self = userCluster.self();
+        place(storeLocally(usersByShard.get(self), upsert), positionsByShard.get(self), results);
+        for (int shard = 0; shard < shards; shard++) {
+            if (remote.get(shard) != null) {
+                BatchResult shardResult = UserCluster.await(remote.get(shard));
+                place(shardResult.items().toArray(BatchItemResult[]::new), positionsByShard.get(shard), results);
+            }
+        }
+        return results;
+    }
+
+    private static void place(BatchItemResult[] shardResults, List<Integer> positions, BatchItemResult[] results) {
+        for (BatchItemResult result : shardResults) {
+            results[positions.get(result.index())] = result;
+        }
+    }
+}
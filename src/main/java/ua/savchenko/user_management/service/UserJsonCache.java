@@ -0,0 +1,87 @@
+package ua.savchenko.user_management.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.io.UncheckedIOException;
+import java.util.Optional;
+
+/**
+ * Bounded read-through cache of users serialized to JSON, for single user reads.
+ * Every serialization keeps the version of the stored user, which changes with every write,
+ * so it serves as a strong ETag that also matches the If-Match of a later write.
+ * Writers have to invalidate the emails they change.
+ */
+@Component
+public class UserJsonCache {
+
+    public record Entry(long version, byte[] json) {
+
+        public String etag() {
+            return UserJsonCache.etag(version);
+        }
+    }
+
+    public static String etag(long version) {
+        return "\"" + version + "\"";
+    }
+
+    private final UserStorage userStorage;
+    private final ObjectWriter writer;
+    private final Cache<String, Entry> cache;
+
+    public UserJsonCache(UserStorage userStorage, ObjectMapper objectMapper, UserConfiguration userConfiguration,
+                         MeterRegistry registry) {
+        this.userStorage = userStorage;
+        this.writer = objectMapper.writerFor(User.class);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(userConfiguration.getJsonCacheSize())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, cache, "user.json");
+    }
+
+    //  The cached JSON of the user, serialized on a miss; empty if there is no such user
+    public Optional<Entry> get(String email) {
+        Entry entry = cache.getIfPresent(email);
+        if (entry != null) {
+            return Optional.of(entry);
+        }
+        Optional<User> user = userStorage.find(email);
+        if (user.isEmpty()) {
+            return Optional.empty();
+        }
+
+        Entry loaded = new Entry(user.get().getVersion(), serialize(user.get()));
+        Entry raced = cache.asMap().putIfAbsent(email, loaded);
+        if (raced != null) {
+            return Optional.of(raced);
+        }
+        // A write between the read and the put may have invalidated before the put, drop what is now stale
+        if (!user.equals(userStorage.find(email))) {
+            cache.asMap().remove(email, loaded);
+        }
+        return Optional.of(loaded);
+    }
+
+    public void invalidate(String email) {
+        cache.invalidate(email);
+    }
+
+    private byte[] serialize(User user) {
+        try {
+            return writer.writeValueAsBytes(user);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
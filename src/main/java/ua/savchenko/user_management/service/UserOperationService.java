@@ -0,0 +1,279 @@
+package ua.savchenko.user_management.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.BusinessException;
+import ua.savchenko.user_management.exception.NotFoundException;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.metrics.UserMetrics;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserOperation;
+import ua.savchenko.user_management.model.UserOperationResult;
+import ua.savchenko.user_management.model.UserOperationsResult;
+import ua.savchenko.user_management.storage.UserBatchWrite;
+import ua.savchenko.user_management.storage.UserStorage;
+import ua.savchenko.user_management.util.EmailKeys;
+import ua.savchenko.user_management.util.UserValidator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Mixed creates, patches, replaces and deletes sent as one request. Operations are checked up front, then the
+ * ones owned by this instance are written with {@link UserStorage#writeAll}, so every stripe is locked once per
+ * run of them and the change log is waited for once. Operations owned by other shards are sent there one by one,
+ * between the runs, so every operation sees the ones before it.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UserOperationService {
+
+    private final UserStorage userStorage;
+    private final UserService userService;
+    private final UserValidator userValidator;
+    private final UserConfiguration userConfiguration;
+    private final UserMetrics userMetrics;
+    private final UserJsonCache userJsonCache;
+    private final UserCluster userCluster;
+
+    //  With atomic either every operation is applied or none; all of them have to be owned by this instance
+    public UserOperationsResult runOperations(List<UserOperation> operations, boolean atomic) {
+        long start = System.nanoTime();
+        try {
+            if (operations.size() > userConfiguration.getMaxOperations()) {
+                throw new ValidatorException("At most " + userConfiguration.getMaxOperations() + " operations per request");
+            }
+            operations = operations.stream().map(UserOperationService::normalize).toList();
+            UserOperationResult[] results = new UserOperationResult[operations.size()];
+            for (int i = 0; i < operations.size(); i++) {
+                String error = check(operations.get(i));
+                if (error != null) {
+                    results[i] = new UserOperationResult(i, email(operations.get(i)), 400, null, error);
+                }
+            }
+
+            if (atomic) {
+                runAtomically(operations, results);
+            } else {
+                run(operations, results);
+            }
+
+            int failed = (int) Arrays.stream(results).filter(result -> result.status() >= 400).count();
+            return new UserOperationsResult(results.length - failed, failed, Arrays.asList(results));
+        } finally {
+            userMetrics.record(UserMetrics.Operation.BATCH, start);
+        }
+    }
+
+    private void run(List<UserOperation> operations, UserOperationResult[] results) {
+        List<Write> local = new ArrayList<>();
+        for (int i = 0; i < operations.size(); i++) {
+            UserOperation operation = operations.get(i);
+            if (results[i] != null) {
+                continue;
+            }
+            if (isLocal(operation)) {
+                local.add(new Write(i, operation));
+                continue;
+            }
+            write(local, false, results);
+            local.clear();
+            results[i] = runRemote(i, operation);
+        }
+        write(local, false, results);
+    }
+
+    private void runAtomically(List<UserOperation> operations, UserOperationResult[] results) {
+        for (int i = 0; i < operations.size(); i++) {
+            if (results[i] == null && !isLocal(operations.get(i))) {
+                throw new ValidatorException("All-or-nothing operations must only touch users of this instance, not "
+                        + operations.get(i).target());
+            }
+        }
+        if (!failed(results)) {
+            List<Write> writes = new ArrayList<>(operations.size());
+            for (int i = 0; i < operations.size(); i++) {
+                writes.add(new Write(i, operations.get(i)));
+            }
+            write(writes, true, results);
+        }
+        int failure = firstFailure(results);
+        if (failure < 0) {
+            return;
+        }
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                results[i] = new UserOperationResult(i, email(operations.get(i)), HttpStatus.FAILED_DEPENDENCY.value(),
+                        null, "Not applied, operation " + failure + " failed");
+            }
+        }
+    }
+
+    //  Fills in the results of the writes; of a rejected atomic batch only the rejection
+    private void write(List<Write> writes, boolean atomic, UserOperationResult[] results) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        List<RuntimeException> rejected = userStorage.writeAll(writes, atomic);
+        boolean rolledBack = atomic && rejected.stream().anyMatch(Objects::nonNull);
+        for (int j = 0; j < writes.size(); j++) {
+            Write write = writes.get(j);
+            RuntimeException error = rejected.get(j);
+            if (error != null) {
+                results[write.index] = failure(write.index, write.email, error);
+            } else if (rolledBack) {
+                continue;
+            } else if (write.operation.op() == UserOperation.Type.DELETE) {
+                results[write.index] = new UserOperationResult(write.index, write.email, 204, null, null);
+            } else {
+                results[write.index] = new UserOperationResult(write.index, write.email,
+                        write.operation.op() == UserOperation.Type.CREATE ? 201 : 200, write.stored, null);
+            }
+            if (!rolledBack) {
+                userJsonCache.invalidate(write.email);
+                userJsonCache.invalidate(write.target);
+            }
+        }
+    }
+
+    //  Through the regular service calls, which send the operation to its owner
+    private UserOperationResult runRemote(int index, UserOperation operation) {
+        try {
+            return switch (operation.op()) {
+                case CREATE -> new UserOperationResult(index, email(operation), 201,
+                        userService.createUser(operation.user()), null);
+                case PATCH -> new UserOperationResult(index, operation.email(), 200,
+                        userService.updateUser(operation.email(), operation.user(), operation.version()), null);
+                case REPLACE -> new UserOperationResult(index, operation.email(), 200,
+                        userService.replaceUser(operation.email(), operation.user(), operation.version()), null);
+                case DELETE -> {
+                    userService.deleteUser(operation.email());
+                    yield new UserOperationResult(index, operation.email(), 204, null, null);
+                }
+            };
+        } catch (BusinessException e) {
+            return failure(index, email(operation), e);
+        }
+    }
+
+    //  With the emails stored under, as the single operations of UserService use them
+    private static UserOperation normalize(UserOperation operation) {
+        return new UserOperation(operation.op(), EmailKeys.normalize(operation.email()),
+                EmailKeys.normalize(operation.user()), operation.version());
+    }
+
+    //  The user an operation is about, for creates the new one
+    private static String email(UserOperation operation) {
+        return operation.op() == UserOperation.Type.CREATE && operation.user() != null
+                ? operation.user().getEmail() : operation.email();
+    }
+
+    private boolean isLocal(UserOperation operation) {
+        return userCluster.isLocal(email(operation)) && userCluster.isLocal(operation.target());
+    }
+
+    //  Same checks as the single operations, returns the error message or null when the operation can be tried
+    private String check(UserOperation operation) {
+        if (operation.op() == null) {
+            return "Operation is required, one of CREATE, PATCH, REPLACE, DELETE";
+        }
+        if (operation.op() != UserOperation.Type.CREATE && (operation.email() == null || operation.email().isBlank())) {
+            return "Email is required";
+        }
+        if (operation.op() == UserOperation.Type.DELETE) {
+            return null;
+        }
+        if (operation.user() == null) {
+            return "User is required";
+        }
+        return operation.op() == UserOperation.Type.PATCH
+                ? userValidator.checkPatch(operation.user()) : userValidator.check(operation.user());
+    }
+
+    //  Other exceptions fail only their operation, as the ones before may already be applied
+    private static UserOperationResult failure(int index, String email, RuntimeException error) {
+        if (!(error instanceof BusinessException)) {
+            log.error("Operation {} on {} failed", index, email, error);
+            return new UserOperationResult(index, email, HttpStatus.INTERNAL_SERVER_ERROR.value(), null,
+                    HttpStatus.INTERNAL_SERVER_ERROR.getReasonPhrase());
+        }
+        ResponseStatus status = AnnotationUtils.findAnnotation(error.getClass(), ResponseStatus.class);
+        return new UserOperationResult(index, email,
+                status == null ? HttpStatus.INTERNAL_SERVER_ERROR.value() : status.code().value(), null, error.getMessage());
+    }
+
+    private static boolean failed(UserOperationResult[] results) {
+        return firstFailure(results) >= 0;
+    }
+
+    private static int firstFailure(UserOperationResult[] results) {
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null && results[i].status() >= 400) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //  An operation on a user of this instance, decided under the stripe locks like the single writes of UserService
+    private final class Write implements UserBatchWrite {
+
+        private final int index;
+        private final UserOperation operation;
+        private final String email;
+        private final String target;
+        private User stored;
+
+        private Write(int index, UserOperation operation) {
+            this.index = index;
+            this.operation = operation;
+            this.email = UserOperationService.email(operation);
+            this.target = operation.target();
+        }
+
+        @Override
+        public String email() {
+            return email;
+        }
+
+        @Override
+        public String target() {
+            return target;
+        }
+
+        @Override
+        public User apply(Function<String, User> users) {
+            User current = users.apply(email);
+            if (operation.op() == UserOperation.Type.CREATE) {
+                if (current != null) {
+                    throw UserService.duplicateEmail(email);
+                }
+                stored = operation.user().withVersion(userStorage.nextVersion());
+                return stored;
+            }
+            if (current == null) {
+                throw new NotFoundException("User not found");
+            }
+            UserService.checkVersion(current, operation.version());
+            if (!email.equals(target) && users.apply(target) != null) {
+                throw UserService.duplicateEmail(target);
+            }
+            stored = switch (operation.op()) {
+                case PATCH -> UserService.patch(current, operation.user(), userStorage.nextVersion());
+                case REPLACE -> operation.user().withVersion(userStorage.nextVersion());
+                default -> null;
+            };
+            return stored;
+        }
+    }
+}
@@ -2,90 +2,358 @@ package ua.savchenko.user_management.service;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.configuration.UserConfiguration;
 import ua.savchenko.user_management.exception.DuplicateEmailException;
 import ua.savchenko.user_management.exception.NotFoundException;
+import ua.savchenko.user_management.exception.PreconditionFailedException;
 import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.metrics.UserMetrics;
 import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserCursor;
+import ua.savchenko.user_management.model.UserPage;
 import ua.savchenko.user_management.storage.UserStorage;
-import ua.savchenko.user_management.util.AgeValidator;
+import ua.savchenko.user_management.util.EmailKeys;
+import ua.savchenko.user_management.util.UserValidator;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 public class UserService {
 
     private final UserStorage userStorage;
-    private final AgeValidator ageValidator;
+    private final UserValidator userValidator;
+    private final UserConfiguration userConfiguration;
+    private final UserMetrics userMetrics;
+    private final UserJsonCache userJsonCache;
+    private final UserCluster userCluster;
 
-    //  Create user
+    //  Create user. Emails are normalized by every operation, see EmailKeys
     public User createUser(User user) {
-        ageValidator.checkForAge(user.getBirthDate());
+        long start = System.nanoTime();
+        try {
+            user = EmailKeys.normalize(user);
+            userValidator.validate(user);
 
-        if (userStorage.getUsers().containsKey(user.getEmail())) {
-            throw new DuplicateEmailException("User with email " + user.getEmail() + " already exists.");
+            if (!userCluster.isLocal(user.getEmail())) {
+                return userCluster.create(user);
+            }
+            User created = user.withVersion(userStorage.nextVersion());
+            if (!userStorage.insert(created)) {
+                throw duplicateEmail(user.getEmail());
+            }
+
+            return created;
+        } finally {
+            userMetrics.record(UserMetrics.Operation.CREATE, start);
         }
-        userStorage.getUsers().put(user.getEmail(), user);
+    }
 
-        return user;
+    //  One user as cached JSON with its version
+    public UserJsonCache.Entry findUserJson(String email) {
+        long start = System.nanoTime();
+        try {
+            email = EmailKeys.normalize(email);
+            if (!userCluster.isLocal(email)) {
+                return userCluster.findJson(email);
+            }
+            return userJsonCache.get(email)
+                    .orElseThrow(() -> new NotFoundException("User not found"));
+        } finally {
+            userMetrics.record(UserMetrics.Operation.GET, start);
+        }
+    }
+
+    //  One user, for representations other than the cached JSON
+    public User findUser(String email) {
+        long start = System.nanoTime();
+        try {
+            email = EmailKeys.normalize(email);
+            if (!userCluster.isLocal(email)) {
+                return userCluster.find(email);
+            }
+            return userStorage.find(email)
+                    .orElseThrow(() -> new NotFoundException("User not found"));
+        } finally {
+            userMetrics.record(UserMetrics.Operation.GET, start);
+        }
     }
 
     //  Update one / some user fields and can also
     //  Update all user fields
     public User updateUser(String email, User updatedUser) {
-        if (!userStorage.getUsers().containsKey(email)) {
-            throw new NotFoundException("User not found");
+        return updateUser(email, updatedUser, null);
+    }
+
+    //  Applied only while the stored user still has the expected version, null for no expectation
+    public User updateUser(String email, User updatedUser, Long expectedVersion) {
+        long start = System.nanoTime();
+        try {
+            email = EmailKeys.normalize(email);
+            updatedUser = EmailKeys.normalize(updatedUser);
+            userValidator.validatePatch(updatedUser);
+            if (!userCluster.isLocal(email)) {
+                return userCluster.update(email, updatedUser, expectedVersion);
+            }
+            for (;;) {
+                User oldUser = find(email, expectedVersion);
+                User newUser = patch(oldUser, updatedUser, userStorage.nextVersion());
+
+                User applied = apply(email, oldUser, newUser);
+                if (applied != null) {
+                    return applied;
+                }
+            }
+        } finally {
+            userMetrics.record(UserMetrics.Operation.UPDATE, start);
         }
+    }
 
-        User oldUser = userStorage.getUsers().get(email);
+    public User replaceUser(String email, User updatedUser) {
+        return replaceUser(email, updatedUser, null);
+    }
 
-        Optional.ofNullable(updatedUser.getEmail()).ifPresent(e -> {
-            userStorage.getUsers().remove(email);
-            oldUser.setEmail(e);
-            userStorage.getUsers().put(e, oldUser);
-        });
+    //  Applied only while the stored user still has the expected version, null for no expectation
+    public User replaceUser(String email, User updatedUser, Long expectedVersion) {
+        long start = System.nanoTime();
+        try {
+            email = EmailKeys.normalize(email);
+            updatedUser = EmailKeys.normalize(updatedUser);
+            userValidator.validate(updatedUser);
+            if (!userCluster.isLocal(email)) {
+                return userCluster.replace(email, updatedUser, expectedVersion);
+            }
+            for (;;) {
+                User oldUser = find(email, expectedVersion);
 
-        Optional.ofNullable(updatedUser.getFirstName()).ifPresent(oldUser::setFirstName);
-        Optional.ofNullable(updatedUser.getLastName()).ifPresent(oldUser::setLastName);
-        Optional.ofNullable(updatedUser.getBirthDate()).ifPresent(oldUser::setBirthDate);
-        Optional.ofNullable(updatedUser.getAddress()).ifPresent(oldUser::setAddress);
-        Optional.ofNullable(updatedUser.getPhoneNumber()).ifPresent(oldUser::setPhoneNumber);
+                User applied = apply(email, oldUser, updatedUser.withVersion(userStorage.nextVersion()));
+                if (applied != null) {
+                    return applied;
+                }
+            }
+        } finally {
+            userMetrics.record(UserMetrics.Operation.REPLACE, start);
+        }
+    }
 
-        return oldUser;
+    // Deleting user
+    public void deleteUser(String email) {
+        long start = System.nanoTime();
+        try {
+            email = EmailKeys.normalize(email);
+            if (!userCluster.isLocal(email)) {
+                userCluster.delete(email);
+                return;
+            }
+            if (userStorage.remove(email) == null) {
+                throw new NotFoundException("User not found");
+            }
+            userJsonCache.invalidate(email);
+        } finally {
+            userMetrics.record(UserMetrics.Operation.DELETE, start);
+        }
     }
 
-    public User replaceUser(String email, User updatedUser) {
-        if (!userStorage.getUsers().containsKey(email)) {
-            throw new NotFoundException("User not found");
+    // Search for users by birth date range
+    public List<User> findUsersByBirthDateRange(LocalDate from, LocalDate to) {
+        long start = System.nanoTime();
+        try {
+            checkBirthDateRange(from, to);
+            List<User> users;
+            if (userCluster.isEnabled()) {
+                try (Stream<User> stream = searchAllShards(from, to, null)) {
+                    users = stream.toList();
+                }
+            } else {
+                users = userStorage.findByBirthDateRange(from, to);
+            }
+            userMetrics.recordSearchResults(users.size());
+            return users;
+        } finally {
+            userMetrics.record(UserMetrics.Operation.SEARCH, start);
         }
+    }
+
+    // One page of the search, ordered by birth date and email and resumed after the given cursor
+    public UserPage findUsersByBirthDateRange(LocalDate from, LocalDate to, String after, int limit) {
+        long start = System.nanoTime();
+        try {
+            UserPage page = findPage(from, to, after, limit);
+            userMetrics.recordSearchResults(page.users().size());
+            return page;
+        } finally {
+            userMetrics.record(UserMetrics.Operation.SEARCH, start);
+        }
+    }
 
-        userStorage.getUsers().remove(email);
+    // Lazy search results for streaming, the range is validated before anything is produced.
+    // The search is measured until the stream is closed.
+    public Stream<User> streamUsersByBirthDateRange(LocalDate from, LocalDate to) {
+        long start = System.nanoTime();
+        checkBirthDateRange(from, to);
+        int[] produced = new int[1];
+        return searchAllShards(from, to, null)
+                .peek(user -> produced[0]++)
+                .onClose(() -> {
+                    userMetrics.recordSearchResults(produced[0]);
+                    userMetrics.record(UserMetrics.Operation.SEARCH, start);
+                });
+    }
 
-        userStorage.getUsers().put(updatedUser.getEmail(), updatedUser);
+    // Type-ahead lookup by name, email, phone number or address prefixes, best matches first
+    public List<User> lookupUsers(String query, int limit) {
+        long start = System.nanoTime();
+        try {
+            checkLookup(query, limit);
+            if (userCluster.isEnabled()) {
+                return userCluster.mergeLookups(userStorage.search(query, limit), query, limit,
+                        user -> UserStorage.searchScore(user, query));
+            }
+            return userStorage.search(query, limit);
+        } finally {
+            userMetrics.record(UserMetrics.Operation.LOOKUP, start);
+        }
+    }
 
-        return updatedUser;
+    // Search of this shard only, for the other shards merging it into theirs
+    public Stream<User> streamLocalUsersByBirthDateRange(LocalDate from, LocalDate to, String after) {
+        checkBirthDateRange(from, to);
+        return userStorage.streamByBirthDateRange(from, to, decodeCursor(after));
     }
 
-    // Deleting user
-    public void deleteUser(String email) {
-        if (!userStorage.getUsers().containsKey(email)) {
-            throw new NotFoundException("User not found");
+    // Lookup in this shard only, for the other shards ranking it with theirs
+    public List<User> lookupLocalUsers(String query, int limit) {
+        checkLookup(query, limit);
+        return userStorage.search(query, limit);
+    }
+
+    private UserPage findPage(LocalDate from, LocalDate to, String after, int limit) {
+        checkBirthDateRange(from, to);
+        if (limit < 1 || limit > userConfiguration.getMaxPageSize()) {
+            throw new ValidatorException("Limit must be between 1 and " + userConfiguration.getMaxPageSize());
+        }
+
+        // One extra user tells whether there is a next page
+        List<User> users;
+        try (Stream<User> stream = searchAllShards(from, to, after)) {
+            users = stream.limit(limit + 1L).collect(Collectors.toCollection(ArrayList::new));
         }
 
-        userStorage.getUsers().remove(email);
+        String nextCursor = null;
+        if (users.size() > limit) {
+            users.remove(limit);
+            nextCursor = encodeCursor(UserCursor.of(users.get(limit - 1)));
+        }
+        return new UserPage(users, nextCursor);
     }
 
-    // Search for users by birth date range
-    public List<User> findUsersByBirthDateRange(LocalDate from, LocalDate to) {
-        if (from.isAfter(to)) {
+    //  The search of this shard merged with the other shards, in birth date and email order
+    private Stream<User> searchAllShards(LocalDate from, LocalDate to, String after) {
+        Stream<User> local = userStorage.streamByBirthDateRange(from, to, decodeCursor(after));
+        return userCluster.isEnabled() ? userCluster.mergeByBirthDate(local, from, to, after) : local;
+    }
+
+    //  The stored user a write starts from. A version expected by the client is checked against every
+    //  read, so a retry after a concurrent change fails instead of overwriting that change.
+    private User find(String email, Long expectedVersion) {
+        User user = userStorage.find(email)
+                .orElseThrow(() -> new NotFoundException("User not found"));
+        checkVersion(user, expectedVersion);
+        return user;
+    }
+
+    static void checkVersion(User user, Long expectedVersion) {
+        if (expectedVersion != null && user.getVersion() != expectedVersion) {
+            throw new PreconditionFailedException("User " + user.getEmail() + " has version " + user.getVersion()
+                    + ", not " + expectedVersion);
+        }
+    }
+
+    //  The user with the fields the patch sets, as a new instance with the given version
+    static User patch(User user, User patch, long version) {
+        return new User(
+                Optional.ofNullable(patch.getEmail()).orElse(user.getEmail()),
+                Optional.ofNullable(patch.getFirstName()).orElse(user.getFirstName()),
+                Optional.ofNullable(patch.getLastName()).orElse(user.getLastName()),
+                Optional.ofNullable(patch.getBirthDate()).orElse(user.getBirthDate()),
+                Optional.ofNullable(patch.getAddress()).orElse(user.getAddress()),
+                Optional.ofNullable(patch.getPhoneNumber()).orElse(user.getPhoneNumber()),
+                version);
+    }
+
+    //  Returns the stored user, or null when the user was changed concurrently and the caller has to retry.
+    //  The storage compares the versions as well, so a user written in between is never overwritten.
+    private User apply(String email, User oldUser, User newUser) {
+        if (!userCluster.isLocal(newUser.getEmail())) {
+            return move(email, oldUser, newUser);
+        }
+        return switch (userStorage.compareAndSet(email, oldUser, newUser)) {
+            case APPLIED -> {
+                userJsonCache.invalidate(email);
+                userJsonCache.invalidate(newUser.getEmail());
+                yield newUser;
+            }
+            case STALE -> null;
+            case DUPLICATE -> throw duplicateEmail(newUser.getEmail());
+        };
+    }
+
+    //  A new email owned by another shard: the user is created there first and only then removed here,
+    //  so it is never missing. A concurrent change here undoes the copy and the caller retries.
+    //  The owner stamps the copy with a version of its own.
+    private User move(String email, User oldUser, User newUser) {
+        User created = userCluster.create(newUser);
+        if (!userStorage.remove(email, oldUser)) {
+            userCluster.delete(newUser.getEmail());
+            return null;
+        }
+        userJsonCache.invalidate(email);
+        return created;
+    }
+
+    private void checkLookup(String query, int limit) {
+        if (query == null || query.isBlank()) {
+            throw new ValidatorException("Query must not be blank");
+        }
+        if (limit < 1 || limit > userConfiguration.getMaxPageSize()) {
+            throw new ValidatorException("Limit must be between 1 and " + userConfiguration.getMaxPageSize());
+        }
+    }
+
+    private static void checkBirthDateRange(LocalDate from, LocalDate to) {
+        if (from.toEpochDay() > to.toEpochDay()) {
             throw new ValidatorException("'From' date must be before 'To' date");
         }
-        return userStorage.getUsers().values().stream()
-                .filter(u -> (u.getBirthDate().isEqual(from) || u.getBirthDate().isAfter(from)) &&
-                        (u.getBirthDate().isEqual(to) || u.getBirthDate().isBefore(to)))
-                .toList();
     }
-}
 
+    private static String encodeCursor(UserCursor cursor) {
+        String position = cursor.birthDate() + "|" + cursor.email();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static UserCursor decodeCursor(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            String position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = position.indexOf('|');
+            return new UserCursor(LocalDate.parse(position.substring(0, separator)), position.substring(separator + 1));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new ValidatorException("Invalid cursor", e);
+        }
+    }
+
+    static DuplicateEmailException duplicateEmail(String email) {
+        return new DuplicateEmailException("User with email " + email + " already exists.");
+    }
+}
@@ -0,0 +1,222 @@
+package ua.savchenko.user_management.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.metrics.UserMetrics;
+import ua.savchenko.user_management.model.UserCount;
+import ua.savchenko.user_management.model.UserStats;
+import ua.savchenko.user_management.storage.UserStorage;
+import ua.savchenko.user_management.util.AgeValidator;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Aggregates over all users, counted from the columns of {@link UserStorage} without looking up any user.
+ * Every request lays its buckets over the epoch days once, the scan then only adds up counts per bucket.
+ * In a cluster the counts of every shard are added up; the local variants serve the other shards.
+ */
+@Service
+@RequiredArgsConstructor
+public class UserStatsService {
+
+    //  Older birth dates are rejected on write, and left out of the age and month aggregates
+    private static final int MAX_AGE = AgeValidator.MAX_AGE;
+    private static final int MAX_BUCKETS = 10_000;
+    private static final Set<ChronoUnit> UNITS = Set.of(ChronoUnit.DAYS, ChronoUnit.WEEKS, ChronoUnit.MONTHS,
+            ChronoUnit.YEARS);
+
+    private final UserStorage userStorage;
+    private final UserCluster userCluster;
+    private final UserMetrics userMetrics;
+    private final Clock clock;
+
+    //  Users per age range of the given number of years, "20-29" and so on, optionally of one email domain
+    public UserStats countByAge(int bucketYears, String domain) {
+        long start = System.nanoTime();
+        try {
+            UserStats local = countLocalByAge(bucketYears, domain);
+            return merge(local, "/stats/ages", parameters("bucket", bucketYears, "domain", domain));
+        } finally {
+            userMetrics.record(UserMetrics.Operation.STATS, start);
+        }
+    }
+
+    public UserStats countLocalByAge(int bucketYears, String domain) {
+        if (bucketYears < 1 || bucketYears > MAX_AGE) {
+            throw new ValidatorException("Bucket must be between 1 and " + MAX_AGE + " years");
+        }
+        LocalDate today = LocalDate.now(clock);
+        LocalDate first = today.minusYears(MAX_AGE).plusDays(1);
+        int buckets = (MAX_AGE + bucketYears - 1) / bucketYears;
+        int[] bucketOfDay = unbucketed(first, today);
+        List<String> keys = new ArrayList<>(buckets);
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            int youngest = bucket * bucketYears;
+            int oldest = Math.min(youngest + bucketYears, MAX_AGE) - 1;
+            // Born after the birthday that made them oldest + 1 and on or before the one that made them youngest
+            fill(bucketOfDay, first, today.minusYears(oldest + 1L).plusDays(1), today.minusYears(youngest), bucket);
+            keys.add(youngest == oldest ? Integer.toString(youngest) : youngest + "-" + oldest);
+        }
+        return stats(keys, userStorage.countByBirthDay(first, bucketOfDay, buckets, normalize(domain)));
+    }
+
+    //  Users per month of the year they were born in, whatever the year
+    public UserStats countByBirthMonth(String domain) {
+        long start = System.nanoTime();
+        try {
+            return merge(countLocalByBirthMonth(domain), "/stats/birth-months", parameters("domain", domain));
+        } finally {
+            userMetrics.record(UserMetrics.Operation.STATS, start);
+        }
+    }
+
+    public UserStats countLocalByBirthMonth(String domain) {
+        LocalDate today = LocalDate.now(clock);
+        LocalDate first = today.minusYears(MAX_AGE).withDayOfMonth(1);
+        int[] bucketOfDay = unbucketed(first, today);
+        for (LocalDate month = first; !month.isAfter(today); month = month.plusMonths(1)) {
+            fill(bucketOfDay, first, month, month.plusMonths(1).minusDays(1), month.getMonthValue() - 1);
+        }
+        List<String> keys = Arrays.stream(Month.values()).map(Month::name).toList();
+        return stats(keys, userStorage.countByBirthDay(first, bucketOfDay, keys.size(), normalize(domain)));
+    }
+
+    //  Users born in each period of the unit (DAYS, WEEKS, MONTHS or YEARS) from from on, keyed by the first day
+    //  of the period; the last one ends with to
+    public UserStats countByBirthDate(LocalDate from, LocalDate to, String unit, String domain) {
+        long start = System.nanoTime();
+        try {
+            UserStats local = countLocalByBirthDate(from, to, unit, domain);
+            return merge(local, "/stats/birth-dates",
+                    parameters("from", from, "to", to, "unit", unit, "domain", domain));
+        } finally {
+            userMetrics.record(UserMetrics.Operation.STATS, start);
+        }
+    }
+
+    public UserStats countLocalByBirthDate(LocalDate from, LocalDate to, String unit, String domain) {
+        if (from.isAfter(to)) {
+            throw new ValidatorException("Invalid date range");
+        }
+        ChronoUnit periods = unit(unit);
+        if (periods.between(from, to) >= MAX_BUCKETS) {
+            throw new ValidatorException("At most " + MAX_BUCKETS + " periods per request");
+        }
+        // Days are only laid out where users can be born, however many years the periods span
+        LocalDate today = LocalDate.now(clock);
+        LocalDate firstDay = max(from, today.minusYears(MAX_AGE).plusDays(1));
+        LocalDate lastDay = min(to, today.minusDays(1));
+        int[] bucketOfDay = firstDay.isAfter(lastDay) ? new int[0] : unbucketed(firstDay, lastDay);
+        List<String> keys = new ArrayList<>();
+        for (LocalDate period = from; !period.isAfter(to); period = from.plus(keys.size(), periods)) {
+            LocalDate last = from.plus(keys.size() + 1L, periods).minusDays(1);
+            fill(bucketOfDay, firstDay, period, last.isAfter(to) ? to : last, keys.size());
+            keys.add(period.toString());
+        }
+        return stats(keys, userStorage.countByBirthDay(firstDay, bucketOfDay, keys.size(), normalize(domain)));
+    }
+
+    //  Users per email domain, most users first, of those born between from and to when given
+    public UserStats countByDomain(LocalDate from, LocalDate to, int limit) {
+        long start = System.nanoTime();
+        try {
+            if (limit < 1) {
+                throw new ValidatorException("Limit must be positive");
+            }
+            UserStats all = merge(countLocalByDomain(from, to), "/stats/domains", parameters("from", from, "to", to));
+            return new UserStats(all.total(), all.counts().stream()
+                    .sorted(Comparator.comparingLong(UserCount::count).reversed().thenComparing(UserCount::key))
+                    .limit(limit)
+                    .toList());
+        } finally {
+            userMetrics.record(UserMetrics.Operation.STATS, start);
+        }
+    }
+
+    //  Every domain of this instance, unsorted
+    public UserStats countLocalByDomain(LocalDate from, LocalDate to) {
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new ValidatorException("Invalid date range");
+        }
+        Map<String, Long> counts = userStorage.countByDomain(from, to);
+        return new UserStats(counts.values().stream().mapToLong(Long::longValue).sum(), counts.entrySet().stream()
+                .map(count -> new UserCount(count.getKey(), count.getValue()))
+                .toList());
+    }
+
+    private UserStats merge(UserStats local, String path, Map<String, Object> parameters) {
+        return userCluster.isEnabled() ? userCluster.mergeStats(local, path, parameters) : local;
+    }
+
+    private static ChronoUnit unit(String unit) {
+        try {
+            ChronoUnit periods = ChronoUnit.valueOf(unit.toUpperCase(Locale.ROOT));
+            if (UNITS.contains(periods)) {
+                return periods;
+            }
+        } catch (IllegalArgumentException e) {
+            // Reported below
+        }
+        throw new ValidatorException("Unit must be one of DAYS, WEEKS, MONTHS, YEARS");
+    }
+
+    //  Domains are stored lowercased, see EmailKeys
+    private static String normalize(String domain) {
+        return domain == null || domain.isBlank() ? null : domain.toLowerCase(Locale.ROOT);
+    }
+
+    //  One entry per day from first to last, none of them in a bucket yet
+    private static int[] unbucketed(LocalDate first, LocalDate last) {
+        int[] bucketOfDay = new int[Math.toIntExact(ChronoUnit.DAYS.between(first, last) + 1)];
+        Arrays.fill(bucketOfDay, -1);
+        return bucketOfDay;
+    }
+
+    private static LocalDate max(LocalDate a, LocalDate b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private static LocalDate min(LocalDate a, LocalDate b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private static void fill(int[] bucketOfDay, LocalDate first, LocalDate from, LocalDate to, int bucket) {
+        int fromIndex = (int) Math.max(0, ChronoUnit.DAYS.between(first, from));
+        int toIndex = (int) Math.min(bucketOfDay.length, ChronoUnit.DAYS.between(first, to) + 1);
+        if (fromIndex < toIndex) {
+            Arrays.fill(bucketOfDay, fromIndex, toIndex, bucket);
+        }
+    }
+
+    private static UserStats stats(List<String> keys, long[] counts) {
+        List<UserCount> buckets = new ArrayList<>(keys.size());
+        long total = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            buckets.add(new UserCount(keys.get(i), counts[i]));
+            total += counts[i];
+        }
+        return new UserStats(total, buckets);
+    }
+
+    //  Map.of rejects the null values of parameters not given
+    private static Map<String, Object> parameters(Object... namesAndValues) {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            parameters.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return parameters;
+    }
+}
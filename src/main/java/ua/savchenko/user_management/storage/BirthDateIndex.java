@@ -0,0 +1,71 @@
+package ua.savchenko.user_management.storage;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Secondary index of emails by birth date, used for O(log N + k) range searches.
+ * Emails of one day are kept in a small sorted immutable array that is copied on write,
+ * so concurrent updates of the same day never lose each other and pages can resume
+ * from a (birth date, email) position.
+ */
+class BirthDateIndex {
+
+    private final ConcurrentSkipListMap<Long, String[]> emailsByEpochDay = new ConcurrentSkipListMap<>();
+
+    void add(LocalDate birthDate, String email) {
+        if (birthDate == null) {
+            return;
+        }
+        emailsByEpochDay.compute(birthDate.toEpochDay(), (day, emails) -> with(emails, email));
+    }
+
+    void remove(LocalDate birthDate, String email) {
+        if (birthDate == null) {
+            return;
+        }
+        emailsByEpochDay.computeIfPresent(birthDate.toEpochDay(), (day, emails) -> without(emails, email));
+    }
+
+    //  Days with their sorted emails in ascending order, both bounds inclusive
+    NavigableMap<Long, String[]> between(long fromEpochDay, long toEpochDay) {
+        return emailsByEpochDay.subMap(fromEpochDay, true, toEpochDay, true);
+    }
+
+    int size() {
+        return emailsByEpochDay.size();
+    }
+
+    private static String[] with(String[] emails, String email) {
+        if (emails == null) {
+            return new String[]{email};
+        }
+        int i = Arrays.binarySearch(emails, email);
+        if (i >= 0) {
+            return emails;
+        }
+        int at = -i - 1;
+        String[] copy = new String[emails.length + 1];
+        System.arraycopy(emails, 0, copy, 0, at);
+        copy[at] = email;
+        System.arraycopy(emails, at, copy, at + 1, emails.length - at);
+        return copy;
+    }
+
+    //  Returning null drops the day from the index
+    private static String[] without(String[] emails, String email) {
+        int i = Arrays.binarySearch(emails, email);
+        if (i < 0) {
+            return emails;
+        }
+        if (emails.length == 1) {
+            return null;
+        }
+        String[] copy = new String[emails.length - 1];
+        System.arraycopy(emails, 0, copy, 0, i);
+        System.arraycopy(emails, i + 1, copy, i, emails.length - i - 1);
+        return copy;
+    }
+}
@@ -0,0 +1,10 @@
+package ua.savchenko.user_management.storage;
+
+public enum FsyncPolicy {
+    // Every write waits until its group commit is forced to disk
+    ALWAYS,
+    // Writes wait for the group commit to be written, the log is forced periodically
+    INTERVAL,
+    // Writes wait for the group commit to be written, forcing is left to the OS
+    NEVER
+}
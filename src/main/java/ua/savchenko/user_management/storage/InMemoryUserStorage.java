@@ -0,0 +1,222 @@
+package ua.savchenko.user_management.storage;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ua.savchenko.user_management.model.User;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * Default storage backend keeping every user as an object on the heap, in one open-addressing table per stripe.
+ * A table holds the users themselves next to the precomputed hashes of their emails, so the email is stored once,
+ * inside its user, and there is no map entry or separate key object per user. Probing compares the hashes first
+ * and only calls equals on a match.
+ */
+@Component
+@ConditionalOnProperty(prefix = "user.storage", name = "backend", havingValue = "heap", matchIfMissing = true)
+public class InMemoryUserStorage extends UserStorage {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final User TOMBSTONE = new User();
+
+    private final Table[] tables = new Table[STRIPES];
+    private final AtomicInteger count = new AtomicInteger();
+
+    public InMemoryUserStorage() {
+        for (int i = 0; i < STRIPES; i++) {
+            tables[i] = new Table();
+        }
+    }
+
+    //  Optimistic probe, repeated under the read lock when a writer interfered
+    @Override
+    protected User get(String email) {
+        int hash = hash(email);
+        Table table = tables[stripe(email)];
+        long stamp = table.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                User user = table.find(hash, email);
+                if (table.lock.validate(stamp)) {
+                    return user;
+                }
+            } catch (RuntimeException e) {
+                // Inconsistent view of a table being resized, retried below
+            }
+        }
+        stamp = table.lock.readLock();
+        try {
+            return table.find(hash, email);
+        } finally {
+            table.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    protected void put(String email, User user) {
+        Table table = tables[stripe(email)];
+        User old;
+        long stamp = table.lock.writeLock();
+        try {
+            old = table.put(hash(email), user);
+        } finally {
+            table.lock.unlockWrite(stamp);
+        }
+        if (old == null) {
+            count.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected void delete(String email) {
+        Table table = tables[stripe(email)];
+        User old;
+        long stamp = table.lock.writeLock();
+        try {
+            old = table.remove(hash(email), email);
+        } finally {
+            table.lock.unlockWrite(stamp);
+        }
+        if (old != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    @Override
+    protected void forEachInStripe(int stripe, Consumer<User> action) {
+        for (User user : tables[stripe].users) {
+            if (user != null && user != TOMBSTONE) {
+                action.accept(user);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return count.get();
+    }
+
+    //  Weakly consistent like the maps it replaces: every table is walked as it was when it was reached
+    @Override
+    public Collection<User> findAll() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<User> iterator() {
+                return Arrays.stream(tables)
+                        .flatMap(table -> Arrays.stream(table.users))
+                        .filter(user -> user != null && user != TOMBSTONE)
+                        .iterator();
+            }
+
+            @Override
+            public int size() {
+                return InMemoryUserStorage.this.size();
+            }
+        };
+    }
+
+    //  Open-addressing hash table with linear probing, keyed by the emails of the users it holds.
+    //  Writers hold the stripe lock and the write lock, readers probe optimistically and may see it
+    //  half updated until validated.
+    private static final class Table {
+
+        final StampedLock lock = new StampedLock();
+        int[] hashes = new int[MIN_CAPACITY];
+        User[] users = new User[MIN_CAPACITY];
+        // Occupied slots, tombstones included
+        int used;
+
+        User find(int hash, String email) {
+            User[] users = this.users;
+            int slot = slot(this.hashes, users, hash, email);
+            return slot < 0 ? null : users[slot];
+        }
+
+        //  Stores the user under its email and returns the one it replaces, null for a new email
+        User put(int hash, User user) {
+            int slot = slot(hashes, users, hash, user.getEmail());
+            if (slot >= 0) {
+                User old = users[slot];
+                users[slot] = user;
+                return old;
+            }
+            if ((used + 1) * 2 > users.length) {
+                resize();
+            }
+            int mask = users.length - 1;
+            int i = hash & mask;
+            while (users[i] != null && users[i] != TOMBSTONE) {
+                i = (i + 1) & mask;
+            }
+            if (users[i] == null) {
+                used++;
+            }
+            hashes[i] = hash;
+            users[i] = user;
+            return null;
+        }
+
+        User remove(int hash, String email) {
+            int slot = slot(hashes, users, hash, email);
+            if (slot < 0) {
+                return null;
+            }
+            User old = users[slot];
+            users[slot] = TOMBSTONE;
+            return old;
+        }
+
+        private static int slot(int[] hashes, User[] users, int hash, String email) {
+            int mask = users.length - 1;
+            int i = hash & mask;
+            for (int probes = 0; probes < users.length; probes++) {
+                User user = users[i];
+                if (user == null) {
+                    return -1;
+                }
+                if (user != TOMBSTONE && hashes[i] == hash && Objects.equals(user.getEmail(), email)) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        //  Rehashes the live entries into a table at most a quarter full, dropping the tombstones
+        private void resize() {
+            int live = 0;
+            for (User user : users) {
+                if (user != null && user != TOMBSTONE) {
+                    live++;
+                }
+            }
+            int capacity = MIN_CAPACITY;
+            while (capacity < (live + 1) * 4) {
+                capacity <<= 1;
+            }
+            int[] newHashes = new int[capacity];
+            User[] newUsers = new User[capacity];
+            int mask = capacity - 1;
+            for (int j = 0; j < users.length; j++) {
+                if (users[j] != null && users[j] != TOMBSTONE) {
+                    int i = hashes[j] & mask;
+                    while (newUsers[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    newHashes[i] = hashes[j];
+                    newUsers[i] = users[j];
+                }
+            }
+            hashes = newHashes;
+            users = newUsers;
+            used = live;
+        }
+    }
+}
@@ -0,0 +1,582 @@
+package ua.savchenko.user_management.storage;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.model.User;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Storage backend keeping users outside the Java heap, as binary records appended to memory-mapped
+ * segment files. Each stripe has an open-addressing hash table from email to record address built
+ * from primitive arrays, so the users themselves take no heap objects and are only materialized on read.
+ * The indexes and columns of {@link UserStorage} stay on the heap, and they hold every email as a String.
+ * Overwritten and removed records are reclaimed by moving the live rest of a mostly dead segment
+ * to the active one. Record layout: int length, the user as written by {@link UserRecordCodec}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "user.storage", name = "backend", havingValue = "off-heap")
+public class OffHeapUserStorage extends UserStorage implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "users-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int MIN_CAPACITY = 16;
+    private static final long EMPTY = 0;
+    private static final long TOMBSTONE = -1;
+
+    private final Path directory;
+    private final boolean ownsDirectory;
+    private final int segmentSize;
+    private final Table[] tables = new Table[STRIPES];
+    private final AtomicInteger count = new AtomicInteger();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ExecutorService compactor;
+
+    // Indexed by segment id, copied on change; compacted segments are set to null
+    private volatile Segment[] segments = new Segment[0];
+    // Guarded by appendLock
+    private Segment active;
+
+    @Autowired
+    public OffHeapUserStorage(UserConfiguration userConfiguration) throws IOException {
+        this(userConfiguration.getStorage());
+    }
+
+    private OffHeapUserStorage(UserConfiguration.Storage storage) throws IOException {
+        this(directory(storage.getDirectory()), storage.getDirectory() == null, (int) storage.getSegmentSize().toBytes());
+    }
+
+    OffHeapUserStorage(Path directory, boolean ownsDirectory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.ownsDirectory = ownsDirectory;
+        this.segmentSize = segmentSize;
+        for (int i = 0; i < STRIPES; i++) {
+            tables[i] = new Table();
+        }
+        // Segments are scratch space, whatever a previous run left behind is stale
+        for (Path segment : segments(directory)) {
+            Files.delete(segment);
+        }
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "user-storage-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    protected User get(String email) {
+        while (true) {
+            long address = addressOf(email);
+            if (address == EMPTY) {
+                return null;
+            }
+            User user = read(address);
+            if (user != null) {
+                return user;
+            }
+            // The record has been moved by a compaction in the meantime
+        }
+    }
+
+    @Override
+    protected void put(String email, User user) {
+        long address = append(encode(user));
+        Table table = tables[stripe(email)];
+        long old;
+        long stamp = table.lock.writeLock();
+        try {
+            old = table.put(hash(email), key(email), address);
+        } finally {
+            table.lock.unlockWrite(stamp);
+        }
+        if (old == EMPTY) {
+            count.incrementAndGet();
+        } else {
+            release(old);
+        }
+    }
+
+    @Override
+    protected void delete(String email) {
+        Table table = tables[stripe(email)];
+        long old;
+        long stamp = table.lock.writeLock();
+        try {
+            old = table.remove(hash(email), key(email));
+        } finally {
+            table.lock.unlockWrite(stamp);
+        }
+        if (old != EMPTY) {
+            count.decrementAndGet();
+            release(old);
+        }
+    }
+
+    @Override
+    public boolean contains(String email) {
+        return addressOf(email) != EMPTY;
+    }
+
+    //  Tables and the records they point to only change under the stripe lock, so they are read directly
+    @Override
+    protected void forEachInStripe(int stripe, Consumer<User> action) {
+        for (long address : tables[stripe].addresses) {
+            if (address != EMPTY && address != TOMBSTONE) {
+                action.accept(read(address));
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return count.get();
+    }
+
+    @Override
+    public Collection<User> findAll() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<User> iterator() {
+                return new LiveRecords();
+            }
+
+            @Override
+            public int size() {
+                return count.get();
+            }
+        };
+    }
+
+    //  Stops the compaction and deletes the segment files
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Path segment : segments(directory)) {
+            Files.deleteIfExists(segment);
+        }
+        if (ownsDirectory) {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    //  Optimistic lookup of the record address, repeated under the read lock when a writer interfered
+    private long addressOf(String email) {
+        int hash = hash(email);
+        byte[] key = key(email);
+        Table table = tables[stripe(email)];
+        long stamp = table.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                long address = table.find(hash, key);
+                if (table.lock.validate(stamp)) {
+                    return address;
+                }
+            } catch (RuntimeException e) {
+                // Inconsistent view of a table or segment being changed, retried below
+            }
+        }
+        stamp = table.lock.readLock();
+        try {
+            return table.find(hash, key);
+        } finally {
+            table.lock.unlockRead(stamp);
+        }
+    }
+
+    //  Materializes the record at address, null if its segment has been compacted away
+    private User read(long address) {
+        Segment segment = segments[segmentOf(address)];
+        if (segment == null) {
+            return null;
+        }
+        int offset = offsetOf(address);
+        byte[] body = new byte[segment.buffer.getInt(offset)];
+        segment.buffer.get(offset + Integer.BYTES, body);
+        try {
+            return UserRecordCodec.read(new DataInputStream(new ByteArrayInputStream(body)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt user record in " + segment.file, e);
+        }
+    }
+
+    private boolean keyEquals(long address, byte[] key) {
+        ByteBuffer buffer = segments[segmentOf(address)].buffer;
+        // The record starts with the email: its length, then its bytes
+        int offset = offsetOf(address) + Integer.BYTES;
+        if (buffer.getInt(offset) != key.length) {
+            return false;
+        }
+        offset += Integer.BYTES;
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readEmail(Segment segment, int offset) {
+        int start = offset + 2 * Integer.BYTES;
+        byte[] email = new byte[segment.buffer.getInt(offset + Integer.BYTES)];
+        segment.buffer.get(start, email);
+        return new String(email, StandardCharsets.UTF_8);
+    }
+
+    private long append(byte[] record) {
+        if (record.length > segmentSize) {
+            throw new IllegalArgumentException("User record of " + record.length + " bytes exceeds the segment size");
+        }
+        appendLock.lock();
+        try {
+            if (active == null || active.end > segmentSize - record.length) {
+                roll();
+            }
+            int offset = active.end;
+            active.buffer.put(offset, record);
+            // Publishes the record to iterations reading up to the end
+            active.end = offset + record.length;
+            return address(active.id, offset);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    //  Seals the active segment and maps a new one, called with appendLock held
+    private void roll() {
+        Segment[] current = segments;
+        int id = current.length;
+        Path file = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map user storage segment " + file, e);
+        }
+
+        Segment sealed = active;
+        active = new Segment(id, file, buffer);
+        Segment[] grown = Arrays.copyOf(current, id + 1);
+        grown[id] = active;
+        segments = grown;
+        if (sealed != null) {
+            sealed.sealed = true;
+            compactIfMostlyDead(sealed);
+        }
+    }
+
+    //  Accounts an overwritten or removed record as dead space
+    private void release(long address) {
+        Segment segment = segments[segmentOf(address)];
+        segment.dead.addAndGet(Integer.BYTES + segment.buffer.getInt(offsetOf(address)));
+        compactIfMostlyDead(segment);
+    }
+
+    private void compactIfMostlyDead(Segment segment) {
+        if (segment.sealed && segment.dead.get() * 2L >= segment.end && segment.compacting.compareAndSet(false, true)
+                && !compactor.isShutdown()) {
+            compactor.execute(() -> compact(segment));
+        }
+    }
+
+    //  Moves the live records of a sealed segment to the active one and drops the segment.
+    //  Records only ever move to a later position, so a concurrent iteration still meets every user.
+    private void compact(Segment segment) {
+        try {
+            int offset = 0;
+            while (offset < segment.end) {
+                int recordLength = Integer.BYTES + segment.buffer.getInt(offset);
+                long address = address(segment.id, offset);
+                String email = readEmail(segment, offset);
+                int hash = hash(email);
+                byte[] key = key(email);
+                Table table = tables[stripe(email)];
+                ReentrantLock lock = lockFor(email);
+                lock.lock();
+                try {
+                    // Tables only change under their stripe lock, so it is read directly here
+                    if (table.find(hash, key) == address) {
+                        byte[] record = new byte[recordLength];
+                        segment.buffer.get(offset, record);
+                        long moved = append(record);
+                        long stamp = table.lock.writeLock();
+                        try {
+                            table.put(hash, key, moved);
+                        } finally {
+                            table.lock.unlockWrite(stamp);
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                offset += recordLength;
+            }
+            free(segment);
+        } catch (RuntimeException e) {
+            log.error("Compaction of {} failed, its space stays in use", segment.file, e);
+        }
+    }
+
+    private void free(Segment segment) {
+        appendLock.lock();
+        try {
+            Segment[] copy = segments.clone();
+            copy[segment.id] = null;
+            segments = copy;
+        } finally {
+            appendLock.unlock();
+        }
+        // The memory is unmapped once the buffer is garbage collected, readers still holding it stay valid
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            log.warn("Cannot delete compacted segment {}", segment.file, e);
+        }
+    }
+
+    private static byte[] encode(User user) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0);
+            UserRecordCodec.write(out, user);
+        } catch (IOException e) {
+            // Cannot happen when writing to memory
+            throw new UncheckedIOException(e);
+        }
+        byte[] record = bytes.toByteArray();
+        ByteBuffer.wrap(record).putInt(record.length - Integer.BYTES);
+        return record;
+    }
+
+    private static byte[] key(String email) {
+        return email.getBytes(StandardCharsets.UTF_8);
+    }
+
+    //  Segment ids are stored shifted by one, so no address is ever EMPTY or TOMBSTONE
+    private static long address(int segment, int offset) {
+        return (long) (segment + 1) << 32 | offset;
+    }
+
+    private static int segmentOf(long address) {
+        return (int) (address >>> 32) - 1;
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    private static Path directory(String directory) throws IOException {
+        if (directory == null) {
+            return Files.createTempDirectory("user-storage");
+        }
+        return Files.createDirectories(Path.of(directory));
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && f.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .toList();
+        }
+    }
+
+    private static final class Segment {
+
+        final int id;
+        final Path file;
+        final MappedByteBuffer buffer;
+        final AtomicInteger dead = new AtomicInteger();
+        final AtomicBoolean compacting = new AtomicBoolean();
+        volatile int end;
+        volatile boolean sealed;
+
+        Segment(int id, Path file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    //  Open-addressing hash table with linear probing. Writers hold the stripe lock and the write lock,
+    //  readers probe optimistically and may see it half updated until validated.
+    private final class Table {
+
+        final StampedLock lock = new StampedLock();
+        int[] hashes = new int[MIN_CAPACITY];
+        long[] addresses = new long[MIN_CAPACITY];
+        // Occupied slots, tombstones included
+        int used;
+
+        long find(int hash, byte[] key) {
+            long[] addresses = this.addresses;
+            int slot = slot(this.hashes, addresses, hash, key);
+            return slot < 0 ? EMPTY : addresses[slot];
+        }
+
+        //  Stores the address and returns the one it replaces, EMPTY for a new email
+        long put(int hash, byte[] key, long address) {
+            int slot = slot(hashes, addresses, hash, key);
+            if (slot >= 0) {
+                long old = addresses[slot];
+                addresses[slot] = address;
+                return old;
+            }
+            if ((used + 1) * 2 > addresses.length) {
+                resize();
+            }
+            int mask = addresses.length - 1;
+            int i = hash & mask;
+            while (addresses[i] != EMPTY && addresses[i] != TOMBSTONE) {
+                i = (i + 1) & mask;
+            }
+            if (addresses[i] == EMPTY) {
+                used++;
+            }
+            hashes[i] = hash;
+            addresses[i] = address;
+            return EMPTY;
+        }
+
+        long remove(int hash, byte[] key) {
+            int slot = slot(hashes, addresses, hash, key);
+            if (slot < 0) {
+                return EMPTY;
+            }
+            long old = addresses[slot];
+            addresses[slot] = TOMBSTONE;
+            return old;
+        }
+
+        private int slot(int[] hashes, long[] addresses, int hash, byte[] key) {
+            int mask = addresses.length - 1;
+            int i = hash & mask;
+            for (int probes = 0; probes < addresses.length; probes++) {
+                long address = addresses[i];
+                if (address == EMPTY) {
+                    return -1;
+                }
+                if (address != TOMBSTONE && hashes[i] == hash && keyEquals(address, key)) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        //  Rehashes the live entries into a table at most a quarter full, dropping the tombstones
+        private void resize() {
+            int live = 0;
+            for (long address : addresses) {
+                if (address != EMPTY && address != TOMBSTONE) {
+                    live++;
+                }
+            }
+            int capacity = MIN_CAPACITY;
+            while (capacity < (live + 1) * 4) {
+                capacity <<= 1;
+            }
+            int[] newHashes = new int[capacity];
+            long[] newAddresses = new long[capacity];
+            int mask = capacity - 1;
+            for (int j = 0; j < addresses.length; j++) {
+                if (addresses[j] != EMPTY && addresses[j] != TOMBSTONE) {
+                    int i = hashes[j] & mask;
+                    while (newAddresses[i] != EMPTY) {
+                        i = (i + 1) & mask;
+                    }
+                    newHashes[i] = hashes[j];
+                    newAddresses[i] = addresses[j];
+                }
+            }
+            hashes = newHashes;
+            addresses = newAddresses;
+            used = live;
+        }
+    }
+
+    //  Walks the segments in order and yields the records the tables still point to
+    private final class LiveRecords implements Iterator<User> {
+
+        private int segmentId;
+        private int offset;
+        private User next;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                Segment[] current = segments;
+                if (segmentId >= current.length) {
+                    return false;
+                }
+                Segment segment = current[segmentId];
+                if (segment == null || offset >= segment.end) {
+                    if (segmentId == current.length - 1) {
+                        return false;
+                    }
+                    segmentId++;
+                    offset = 0;
+                    continue;
+                }
+                long address = address(segmentId, offset);
+                String email = readEmail(segment, offset);
+                offset += Integer.BYTES + segment.buffer.getInt(offset);
+                if (addressOf(email) == address) {
+                    next = read(address);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public User next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            User user = next;
+            next = null;
+            return user;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package ua.savchenko.user_management.storage;
+
+import ua.savchenko.user_management.model.User;
+
+import java.util.function.Function;
+
+/**
+ * One write of {@link UserStorage#writeAll}, decided with the stripe locks of its emails held.
+ */
+public interface UserBatchWrite {
+
+    //  Email of the user the write reads and replaces or removes
+    String email();
+
+    //  Email the written user is stored under, the same as email() unless the write renames
+    String target();
+
+    //  Returns the user to store under target(), or null to remove the user under email().
+    //  users looks up email() and target() as the writes before left them; throwing rejects the write.
+    User apply(Function<String, User> users);
+}
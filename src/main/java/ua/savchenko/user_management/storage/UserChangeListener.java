@@ -0,0 +1,23 @@
+package ua.savchenko.user_management.storage;
+
+import ua.savchenko.user_management.model.User;
+
+/**
+ * Notified of every change applied to {@link UserStorage}, except those replayed during recovery.
+ * Called under the stripe locks of the changed emails, so the changes of one email arrive
+ * in the order they were applied; has to return quickly and must not block.
+ * Once a write or a whole batch is applied, published is called with the locks released.
+ */
+public interface UserChangeListener {
+
+    UserChangeListener NONE = (email, old, updated) -> {
+    };
+
+    //  The user stored under email changed from old to updated; old is null for a new user,
+    //  updated is null for a removed one and carries another email when the user was renamed
+    void changed(String email, User old, User updated);
+
+    //  The changes of a write or batch were all passed to changed, e.g. to wake consumers once for them
+    default void published() {
+    }
+}
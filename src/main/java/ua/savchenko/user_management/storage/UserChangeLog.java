@@ -0,0 +1,41 @@
+package ua.savchenko.user_management.storage;
+
+import ua.savchenko.user_management.model.User;
+
+import java.util.List;
+
+/**
+ * Receives every change applied to {@link UserStorage}.
+ * Appends are made under the stripe locks of the changed emails, so the changes
+ * of one email are appended in the order they were applied.
+ */
+public interface UserChangeLog {
+
+    UserChangeLog NONE = new UserChangeLog() {
+        @Override
+        public long append(String email, User updated) {
+            return 0;
+        }
+
+        @Override
+        public void awaitDurable(long position) {
+        }
+    };
+
+    //  Records that the user stored under email became updated, or was removed when updated is null.
+    //  Returns the position of the change; must not block on I/O.
+    long append(String email, User updated);
+
+    //  Appends the changes of an atomic batch as a whole: when the log refuses them, none is recorded.
+    //  Returns the position of the last one.
+    default long appendAll(List<String> emails, List<User> updates) {
+        long position = 0;
+        for (int i = 0; i < emails.size(); i++) {
+            position = append(emails.get(i), updates.get(i));
+        }
+        return position;
+    }
+
+    //  Blocks until the change at the given position is as durable as the log guarantees
+    void awaitDurable(long position);
+}
@@ -0,0 +1,210 @@
+package ua.savchenko.user_management.storage;
+
+import ua.savchenko.user_management.model.User;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The birth dates and email domains of the users as primitive columns, one set per stripe, for aggregations
+ * that scan them without looking up or materializing users. A stripe's columns are changed and scanned
+ * with its stripe lock held. Birth dates are epoch days, domains ids into a dictionary shared by all stripes.
+ */
+final class UserColumns {
+
+    static final int NO_BIRTH_DATE = Integer.MIN_VALUE;
+
+    private final Stripe[] stripes = new Stripe[UserStorage.STRIPES];
+    private final ConcurrentHashMap<String, Integer> domainIds = new ConcurrentHashMap<>();
+    // Indexed by domain id, only ever appended to
+    private volatile String[] domains = new String[0];
+
+    UserColumns() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    void add(int stripe, User user) {
+        // Clamped rather than checked, so a recovered user of any birth date cannot fail a change half applied
+        int day = user.getBirthDate() == null ? NO_BIRTH_DATE
+                : (int) Math.max(NO_BIRTH_DATE + 1, Math.min(Integer.MAX_VALUE, user.getBirthDate().toEpochDay()));
+        stripes[stripe].add(user.getEmail(), day, domainId(domainOf(user.getEmail())));
+    }
+
+    void remove(int stripe, String email) {
+        stripes[stripe].remove(email);
+    }
+
+    //  Adds the users of the stripe born on firstDay + i to buckets[bucketOfDay[i]], skipping negative buckets.
+    //  domain < 0 counts every domain.
+    void countByBirthDay(int stripe, int firstDay, int[] bucketOfDay, int domain, long[] buckets) {
+        Stripe columns = stripes[stripe];
+        int[] days = columns.days;
+        int[] domainColumn = columns.domains;
+        for (int i = 0; i < columns.size; i++) {
+            int offset = days[i] - firstDay;
+            if (days[i] != NO_BIRTH_DATE && offset >= 0 && offset < bucketOfDay.length
+                    && (domain < 0 || domainColumn[i] == domain)) {
+                int bucket = bucketOfDay[offset];
+                if (bucket >= 0) {
+                    buckets[bucket]++;
+                }
+            }
+        }
+    }
+
+    //  Adds the users of the stripe born between fromDay and toDay inclusive to counts[domain id];
+    //  users without a birth date only count when the range is unbounded
+    void countByDomain(int stripe, int fromDay, int toDay, long[] counts) {
+        Stripe columns = stripes[stripe];
+        int[] days = columns.days;
+        int[] domainColumn = columns.domains;
+        for (int i = 0; i < columns.size; i++) {
+            if (days[i] >= fromDay && days[i] <= toDay) {
+                counts[domainColumn[i]]++;
+            }
+        }
+    }
+
+    //  -1 for a domain no user has had
+    int findDomainId(String domain) {
+        return domainIds.getOrDefault(domain, -1);
+    }
+
+    String[] domains() {
+        return domains;
+    }
+
+    static String domainOf(String email) {
+        return email.substring(email.lastIndexOf('@') + 1);
+    }
+
+    private int domainId(String domain) {
+        Integer id = domainIds.get(domain);
+        if (id != null) {
+            return id;
+        }
+        synchronized (domainIds) {
+            id = domainIds.get(domain);
+            if (id == null) {
+                String[] grown = Arrays.copyOf(domains, domains.length + 1);
+                id = domains.length;
+                grown[id] = domain;
+                domains = grown;
+                domainIds.put(domain, id);
+            }
+            return id;
+        }
+    }
+
+    //  Users are packed at the start of the columns; a removed one is replaced by the last.
+    //  An open-addressing table of hash to row finds the row of an email.
+    private static final class Stripe {
+
+        private static final int MIN_CAPACITY = 16;
+        private static final int EMPTY = 0;
+        private static final int TOMBSTONE = -1;
+
+        String[] emails = new String[MIN_CAPACITY];
+        int[] days = new int[MIN_CAPACITY];
+        int[] domains = new int[MIN_CAPACITY];
+        int size;
+        // Row + 1, so 0 is EMPTY
+        private int[] rows = new int[MIN_CAPACITY * 2];
+        private int[] hashes = new int[MIN_CAPACITY * 2];
+        // Occupied slots, tombstones included
+        private int used;
+
+        void add(String email, int day, int domain) {
+            int slot = slot(email);
+            int row = slot >= 0 ? rows[slot] - 1 : size++;
+            if (row == emails.length) {
+                emails = Arrays.copyOf(emails, row * 2);
+                days = Arrays.copyOf(days, row * 2);
+                domains = Arrays.copyOf(domains, row * 2);
+            }
+            emails[row] = email;
+            days[row] = day;
+            domains[row] = domain;
+            if (slot >= 0) {
+                return;
+            }
+            if ((used + 1) * 2 > rows.length) {
+                // Takes in the new row as well
+                rehash();
+            } else {
+                insert(UserStorage.hash(email), row);
+            }
+        }
+
+        void remove(String email) {
+            int slot = slot(email);
+            if (slot < 0) {
+                return;
+            }
+            int row = rows[slot] - 1;
+            rows[slot] = TOMBSTONE;
+            int last = --size;
+            if (row != last) {
+                emails[row] = emails[last];
+                days[row] = days[last];
+                domains[row] = domains[last];
+                rows[slot(emails[row])] = row + 1;
+            }
+            emails[last] = null;
+        }
+
+        private int slot(String email) {
+            int hash = UserStorage.hash(email);
+            int mask = rows.length - 1;
+            int i = hash & mask;
+            for (int probes = 0; probes < rows.length; probes++) {
+                int row = rows[i];
+                if (row == EMPTY) {
+                    return -1;
+                }
+                if (row != TOMBSTONE && hashes[i] == hash && emails[row - 1].equals(email)) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void insert(int hash, int row) {
+            int mask = rows.length - 1;
+            int i = hash & mask;
+            while (rows[i] != EMPTY && rows[i] != TOMBSTONE) {
+                i = (i + 1) & mask;
+            }
+            if (rows[i] == EMPTY) {
+                used++;
+            }
+            hashes[i] = hash;
+            rows[i] = row + 1;
+        }
+
+        //  Rebuilds the table from the packed rows at most a quarter full, dropping the tombstones
+        private void rehash() {
+            int capacity = MIN_CAPACITY;
+            while (capacity < (size + 1) * 4) {
+                capacity <<= 1;
+            }
+            rows = new int[capacity];
+            hashes = new int[capacity];
+            used = 0;
+            int mask = capacity - 1;
+            for (int row = 0; row < size; row++) {
+                int hash = UserStorage.hash(emails[row]);
+                int i = hash & mask;
+                while (rows[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                hashes[i] = hash;
+                rows[i] = row + 1;
+                used++;
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package ua.savchenko.user_management.storage;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes {@link UserStorage} durable: restores it from the latest snapshot plus the log tail
+ * on startup, then logs every change and compacts the log into a new snapshot whenever
+ * user.persistence.snapshot-every changes have been logged since the last one.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "user.persistence", name = "enabled", havingValue = "true")
+@RequiredArgsConstructor
+public class UserPersistence {
+
+    private final UserStorage userStorage;
+    private final UserConfiguration userConfiguration;
+
+    private Path directory;
+    private UserWriteAheadLog writeAheadLog;
+    private ScheduledExecutorService snapshotter;
+    private volatile long snapshotPosition;
+
+    @PostConstruct
+    public void recover() throws IOException {
+        UserConfiguration.Persistence persistence = userConfiguration.getPersistence();
+        directory = Path.of(persistence.getDirectory());
+        Files.createDirectories(directory);
+
+        long started = System.nanoTime();
+        snapshotPosition = UserSnapshots.load(directory, userStorage::restore);
+        long lastPosition = UserWriteAheadLog.replay(directory, snapshotPosition, userStorage::restore);
+        log.info("Recovered {} users from {} in {} ms", userStorage.size(), directory,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+        writeAheadLog = new UserWriteAheadLog(directory, lastPosition, persistence.getFsync(), persistence.getFsyncInterval());
+        userStorage.setChangeLog(writeAheadLog);
+
+        snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "user-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotter.scheduleWithFixedDelay(this::snapshotIfDue, 1, 1, TimeUnit.SECONDS);
+    }
+
+    //  Takes a snapshot on shutdown so the next start does not have to replay the log
+    @PreDestroy
+    public void close() throws IOException, InterruptedException {
+        snapshotter.shutdown();
+        snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        snapshot();
+        writeAheadLog.close();
+    }
+
+    private void snapshotIfDue() {
+        if (writeAheadLog.lastPosition() - snapshotPosition < userConfiguration.getPersistence().getSnapshotEvery()) {
+            return;
+        }
+        try {
+            snapshot();
+        } catch (IOException e) {
+            log.error("User snapshot failed, the log keeps growing until the next attempt", e);
+        }
+    }
+
+    //  Every change up to the rotated position has already been applied to the storage,
+    //  changes after it may or may not be in the snapshot and are replayed from the new segment
+    private void snapshot() throws IOException {
+        long position = writeAheadLog.rotate();
+        UserSnapshots.write(directory, position, userStorage.findAll());
+        writeAheadLog.deleteSegmentsUpTo(position);
+        snapshotPosition = position;
+    }
+}
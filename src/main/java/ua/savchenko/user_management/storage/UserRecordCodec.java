@@ -0,0 +1,69 @@
+package ua.savchenko.user_management.storage;
+
+import ua.savchenko.user_management.model.User;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * Binary layout of a user shared by the write-ahead log and the snapshots.
+ * Strings are stored as UTF-8 bytes prefixed with their length (-1 for null),
+ * the birth date as a presence flag followed by the epoch day, the version last.
+ */
+final class UserRecordCodec {
+
+    private UserRecordCodec() {
+    }
+
+    static void write(DataOutput out, User user) throws IOException {
+        writeString(out, user.getEmail());
+        writeString(out, user.getFirstName());
+        writeString(out, user.getLastName());
+        out.writeBoolean(user.getBirthDate() != null);
+        if (user.getBirthDate() != null) {
+            out.writeLong(user.getBirthDate().toEpochDay());
+        }
+        writeString(out, user.getAddress());
+        writeString(out, user.getPhoneNumber());
+        out.writeLong(user.getVersion());
+    }
+
+    static User read(DataInput in) throws IOException {
+        return read(in, true);
+    }
+
+    //  Records written before users had versions end after the phone number, they are read as version 0
+    static User read(DataInput in, boolean versioned) throws IOException {
+        String email = readString(in);
+        String firstName = readString(in);
+        String lastName = readString(in);
+        LocalDate birthDate = in.readBoolean() ? LocalDate.ofEpochDay(in.readLong()) : null;
+        String address = readString(in);
+        String phoneNumber = readString(in);
+        long version = versioned ? in.readLong() : 0;
+        return new User(email, firstName, lastName, birthDate, address, phoneNumber, version);
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,106 @@
+package ua.savchenko.user_management.storage;
+
+import ua.savchenko.user_management.model.User;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshots of all users, named after the last change log position they cover.
+ * Layout: int magic, long position, users each preceded by a true flag, a false flag, long CRC32.
+ */
+final class UserSnapshots {
+
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int MAGIC = 0x55534E32;
+    // Snapshots written before users had versions, still loaded with version 0
+    private static final int UNVERSIONED_MAGIC = 0x55534E31;
+
+    private UserSnapshots() {
+    }
+
+    //  Writes the snapshot next to the final file and moves it in place once it is on disk,
+    //  then removes the older snapshots
+    static void write(Path directory, long position, Iterable<User> users) throws IOException {
+        Path target = directory.resolve(String.format("%s%020d%s", PREFIX, position, SUFFIX));
+        Path tmp = directory.resolve(target.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024), crc));
+            out.writeInt(MAGIC);
+            out.writeLong(position);
+            for (User user : users) {
+                out.writeBoolean(true);
+                UserRecordCodec.write(out, user);
+            }
+            out.writeBoolean(false);
+            out.flush();
+            new DataOutputStream(Channels.newOutputStream(channel)).writeLong(crc.getValue());
+            channel.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        for (Path snapshot : snapshots(directory)) {
+            if (!snapshot.equals(target)) {
+                Files.deleteIfExists(snapshot);
+            }
+        }
+    }
+
+    //  Loads the latest snapshot and returns the change log position it covers, 0 without snapshots
+    static long load(Path directory, BiConsumer<String, User> users) throws IOException {
+        List<Path> snapshots = snapshots(directory);
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        Path latest = snapshots.get(snapshots.size() - 1);
+
+        try (FileChannel channel = FileChannel.open(latest, StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            BufferedInputStream buffered = new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+            DataInputStream in = new DataInputStream(new CheckedInputStream(buffered, crc));
+            int magic = in.readInt();
+            if (magic != MAGIC && magic != UNVERSIONED_MAGIC) {
+                throw new IOException("Not a user snapshot: " + latest);
+            }
+            long position = in.readLong();
+            while (in.readBoolean()) {
+                User user = UserRecordCodec.read(in, magic == MAGIC);
+                users.accept(user.getEmail(), user);
+            }
+            long expected = crc.getValue();
+            if (new DataInputStream(buffered).readLong() != expected) {
+                throw new IOException("Corrupt user snapshot: " + latest);
+            }
+            return position;
+        }
+    }
+
+    private static List<Path> snapshots(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().startsWith(PREFIX)
+                            && f.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+}
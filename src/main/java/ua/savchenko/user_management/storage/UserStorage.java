@@ -1,20 +1,628 @@
 package ua.savchenko.user_management.storage;
 
-import lombok.Getter;
-import lombok.Setter;
-import org.springframework.stereotype.Component;
 import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserCursor;
+import ua.savchenko.user_management.util.EmailKeys;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
-@Component
-@Getter
-@Setter
-public class UserStorage {
+/**
+ * Thread-safe user storage keyed by email.
+ * Reads are lock-free; every write takes the stripe lock of the email(s) it touches,
+ * so writes to different emails only contend when they hash to the same stripe.
+ * The birth date index, the text index, the aggregation columns, the change log and the change listener
+ * are maintained under the same locks, as are the users preserved for open snapshots.
+ * Stored users are immutable and replaced as a whole, compareAndSet makes a replacement conditional on the version read.
+ * Backends only provide the email to user mapping, selected by user.storage.backend.
+ */
+public abstract class UserStorage {
 
-    private HashMap<String, User> users;
+    protected static final int STRIPES = 64;
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final BirthDateIndex birthDateIndex = new BirthDateIndex();
+    private final UserTextIndex textIndex = new UserTextIndex();
+    private final UserColumns columns = new UserColumns();
+    private volatile UserChangeLog changeLog = UserChangeLog.NONE;
+    private volatile UserChangeListener changeListener = UserChangeListener.NONE;
+    // Only changed with every stripe lock held
+    private volatile UserStorageSnapshot[] openSnapshots = new UserStorageSnapshot[0];
+    // Source of user versions; recovery moves it past every restored version
+    private final AtomicLong versions = new AtomicLong();
+
+    public enum WriteResult {
+        APPLIED,
+        // The stored user is no longer the expected one (changed or removed concurrently)
+        STALE,
+        // The new email is already taken by another user
+        DUPLICATE
+    }
 
     public UserStorage() {
-        users = new HashMap<>();
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public void setChangeLog(UserChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    public void setChangeListener(UserChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    //  Version for a user about to be written, greater than any version handed out or restored before
+    public long nextVersion() {
+        return versions.incrementAndGet();
+    }
+
+    //  Lock-free lookup of the user stored under email, null if there is none
+    protected abstract User get(String email);
+
+    //  Stores user under email, which is its own email, called with the stripe lock of email held
+    protected abstract void put(String email, User user);
+
+    //  Removes the user stored under email, called with the stripe lock of email held
+    protected abstract void delete(String email);
+
+    //  Passes every user of the stripe to action, called with the stripe lock held
+    protected abstract void forEachInStripe(int stripe, Consumer<User> action);
+
+    public abstract int size();
+
+    // Weakly consistent read-only view, safe to iterate while other threads write.
+    // Users present during the whole iteration are returned at least once.
+    public abstract Collection<User> findAll();
+
+    //  Point-in-time view of all users. Writers keep going and preserve the users they change
+    //  for the snapshot until it has read their stripe.
+    public UserStorageSnapshot openSnapshot() {
+        lockAll();
+        try {
+            UserStorageSnapshot snapshot = new UserStorageSnapshot(this, size());
+            UserStorageSnapshot[] open = Arrays.copyOf(openSnapshots, openSnapshots.length + 1);
+            open[open.length - 1] = snapshot;
+            openSnapshots = open;
+            return snapshot;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    //  Copies the users of a stripe as they were when the snapshot was opened
+    List<User> readStripe(UserStorageSnapshot snapshot, int stripe) {
+        List<User> users = new ArrayList<>();
+        locks[stripe].lock();
+        try {
+            Map<String, User> changed = snapshot.changed(stripe);
+            forEachInStripe(stripe, user -> {
+                if (!changed.containsKey(user.getEmail())) {
+                    users.add(user);
+                }
+            });
+            for (User user : changed.values()) {
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+            snapshot.stripeRead(stripe);
+        } finally {
+            locks[stripe].unlock();
+        }
+        return users;
+    }
+
+    //  Stops preserving users for the snapshot, a no-op when it has already been released
+    void release(UserStorageSnapshot snapshot) {
+        lockAll();
+        try {
+            openSnapshots = Arrays.stream(openSnapshots)
+                    .filter(open -> open != snapshot)
+                    .toArray(UserStorageSnapshot[]::new);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    public Optional<User> find(String email) {
+        return Optional.ofNullable(get(email));
+    }
+
+    public boolean contains(String email) {
+        return get(email) != null;
+    }
+
+    //  Users born between from and to inclusive, ordered by birth date and email.
+    //  A plain loop over epoch days, so apart from the result nothing is allocated per user.
+    public List<User> findByBirthDateRange(LocalDate from, LocalDate to) {
+        List<User> users = new ArrayList<>();
+        for (Map.Entry<Long, String[]> day : birthDateIndex.between(from.toEpochDay(), to.toEpochDay()).entrySet()) {
+            long epochDay = day.getKey();
+            for (String email : day.getValue()) {
+                User user = get(email);
+                if (isBornOn(user, epochDay)) {
+                    users.add(user);
+                }
+            }
+        }
+        return users;
+    }
+
+    //  Lazily walks the birth date index, so only the users actually consumed are looked up.
+    //  When after is given the stream starts right behind that (birth date, email) position.
+    public Stream<User> streamByBirthDateRange(LocalDate from, LocalDate to, UserCursor after) {
+        long fromDay = from.toEpochDay();
+        long toDay = to.toEpochDay();
+        long afterDay = after == null ? Long.MIN_VALUE : after.birthDate().toEpochDay();
+        if (afterDay > fromDay) {
+            fromDay = afterDay;
+        }
+        if (fromDay > toDay) {
+            return Stream.empty();
+        }
+
+        return birthDateIndex.between(fromDay, toDay).entrySet().stream()
+                .flatMap(day -> {
+                    String[] emails = day.getValue();
+                    int start = 0;
+                    if (day.getKey() == afterDay) {
+                        int i = Arrays.binarySearch(emails, after.email());
+                        start = i >= 0 ? i + 1 : -i - 1;
+                    }
+                    long epochDay = day.getKey();
+                    return Arrays.stream(emails, start, emails.length)
+                            .map(this::get)
+                            .filter(user -> isBornOn(user, epochDay));
+                });
+    }
+
+    //  The index is read without locks, entries a concurrent write has moved away are skipped
+    private static boolean isBornOn(User user, long epochDay) {
+        return user != null && user.getBirthDate() != null && user.getBirthDate().toEpochDay() == epochDay;
+    }
+
+    public int birthDateIndexSize() {
+        return birthDateIndex.size();
+    }
+
+    //  Users having a token starting with every term of the query (names, email, phone number, address),
+    //  best matches first
+    public List<User> search(String query, int limit) {
+        return textIndex.search(query, limit, this::get);
+    }
+
+    //  The rank search gives the user for the query, 0 when it does not match
+    public static int searchScore(User user, String query) {
+        return UserTextIndex.score(user, UserTextIndex.queryTerms(query));
+    }
+
+    public int textIndexSize() {
+        return textIndex.size();
+    }
+
+    //  Number of users born on each day from firstDay on, in the bucket bucketOfDay gives for the day;
+    //  days past its end and negative buckets are left out, as are other domains than the given one unless null.
+    //  Stripes are scanned in parallel on the fork-join pool, each under its lock, over primitive columns only.
+    public long[] countByBirthDay(LocalDate firstDay, int[] bucketOfDay, int buckets, String domain) {
+        int domainId = domain == null ? -1 : columns.findDomainId(domain);
+        if (domain != null && domainId < 0) {
+            return new long[buckets];
+        }
+        int first = Math.toIntExact(firstDay.toEpochDay());
+        return IntStream.range(0, STRIPES).parallel()
+                .mapToObj(stripe -> {
+                    long[] counts = new long[buckets];
+                    locks[stripe].lock();
+                    try {
+                        columns.countByBirthDay(stripe, first, bucketOfDay, domainId, counts);
+                    } finally {
+                        locks[stripe].unlock();
+                    }
+                    return counts;
+                })
+                .reduce(UserStorage::sum)
+                .orElseGet(() -> new long[buckets]);
+    }
+
+    //  Number of users per email domain, of the users born between from and to inclusive when given
+    public Map<String, Long> countByDomain(LocalDate from, LocalDate to) {
+        int fromDay = from == null ? Integer.MIN_VALUE : Math.toIntExact(from.toEpochDay());
+        int toDay = to == null ? Integer.MAX_VALUE : Math.toIntExact(to.toEpochDay());
+        long[] counts = IntStream.range(0, STRIPES).parallel()
+                .mapToObj(stripe -> {
+                    locks[stripe].lock();
+                    try {
+                        // Every domain id of the stripe is assigned before its user is added under the lock
+                        long[] stripeCounts = new long[columns.domains().length];
+                        columns.countByDomain(stripe, fromDay, toDay, stripeCounts);
+                        return stripeCounts;
+                    } finally {
+                        locks[stripe].unlock();
+                    }
+                })
+                .reduce(UserStorage::sum)
+                .orElseGet(() -> new long[0]);
+        String[] domains = columns.domains();
+        Map<String, Long> byDomain = new TreeMap<>();
+        for (int id = 0; id < counts.length; id++) {
+            if (counts[id] > 0) {
+                byDomain.put(domains[id], counts[id]);
+            }
+        }
+        return byDomain;
+    }
+
+    private static long[] sum(long[] a, long[] b) {
+        long[] longer = a.length >= b.length ? a : b;
+        long[] shorter = longer == a ? b : a;
+        for (int i = 0; i < shorter.length; i++) {
+            longer[i] += shorter[i];
+        }
+        return longer;
+    }
+
+    //  Stores the user only if its email is not taken yet
+    public boolean insert(User user) {
+        long position;
+        ReentrantLock lock = lockFor(user.getEmail());
+        lock.lock();
+        try {
+            if (contains(user.getEmail())) {
+                return false;
+            }
+            position = apply(user.getEmail(), null, user);
+        } finally {
+            lock.unlock();
+        }
+        published(position);
+        return true;
+    }
+
+    //  Writes a batch taking every stripe lock at most once, users of one stripe in batch order.
+    //  Returns for each user the one previously stored under its email, or null if there was none;
+    //  without overwrite those users are left untouched.
+    public List<User> putAll(List<User> batch, boolean overwrite) {
+        int[] stripeStarts = new int[STRIPES + 1];
+        for (User user : batch) {
+            stripeStarts[stripe(user.getEmail()) + 1]++;
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            stripeStarts[i + 1] += stripeStarts[i];
+        }
+        int[] byStripe = new int[batch.size()];
+        int[] next = Arrays.copyOf(stripeStarts, STRIPES);
+        for (int i = 0; i < batch.size(); i++) {
+            byStripe[next[stripe(batch.get(i).getEmail())]++] = i;
+        }
+
+        User[] previous = new User[batch.size()];
+        long position = 0;
+        for (int s = 0; s < STRIPES; s++) {
+            if (stripeStarts[s] == stripeStarts[s + 1]) {
+                continue;
+            }
+            locks[s].lock();
+            try {
+                for (int j = stripeStarts[s]; j < stripeStarts[s + 1]; j++) {
+                    User user = batch.get(byStripe[j]);
+                    User old = get(user.getEmail());
+                    previous[byStripe[j]] = old;
+                    if (old == null || overwrite) {
+                        position = Math.max(position, apply(user.getEmail(), old, user));
+                    }
+                }
+            } finally {
+                locks[s].unlock();
+            }
+        }
+        // One wait for the whole batch, the log commits it as a group
+        published(position);
+        return Arrays.asList(previous);
+    }
+
+    //  Runs a batch of writes taking the stripe lock of every email involved once, in stripe order, and waits
+    //  once for the change log. Writes are decided in batch order, each seeing the users as the writes before left them.
+    //  Returns for each write the exception that rejected it, or null when it was applied.
+    //  With atomic the writes are only applied once all are accepted, the first rejection leaves every user untouched,
+    //  and the change log records them as a whole; when it refuses them, writeAll throws with no write applied.
+    public List<RuntimeException> writeAll(List<? extends UserBatchWrite> writes, boolean atomic) {
+        boolean[] stripes = new boolean[STRIPES];
+        for (UserBatchWrite write : writes) {
+            stripes[stripe(write.email())] = true;
+            stripes[stripe(write.target())] = true;
+        }
+
+        RuntimeException[] rejected = new RuntimeException[writes.size()];
+        User[] olds = new User[writes.size()];
+        User[] updates = new User[writes.size()];
+        // Users as the accepted writes left them, only kept while an atomic batch is not applied yet
+        Map<String, User> view = new HashMap<>();
+        Function<String, User> users = email -> view.containsKey(email) ? view.get(email) : get(email);
+        long position = 0;
+        lock(stripes);
+        try {
+            for (int i = 0; i < writes.size(); i++) {
+                UserBatchWrite write = writes.get(i);
+                User old = users.apply(write.email());
+                User updated;
+                try {
+                    updated = write.apply(users);
+                } catch (RuntimeException e) {
+                    rejected[i] = e;
+                    if (atomic) {
+                        return Arrays.asList(rejected);
+                    }
+                    continue;
+                }
+                if (updated != null && !updated.getEmail().equals(write.target())) {
+                    rejected[i] = new IllegalStateException("Write of " + write.email() + " stored "
+                            + updated.getEmail() + " instead of " + write.target());
+                    if (atomic) {
+                        return Arrays.asList(rejected);
+                    }
+                    continue;
+                }
+                if (old == null && updated == null) {
+                    continue;
+                }
+                if (!atomic) {
+                    try {
+                        position = Math.max(position, apply(write.email(), old, updated));
+                    } catch (RuntimeException e) {
+                        // Refused by the change log, nothing of the write was applied
+                        rejected[i] = e;
+                    }
+                    continue;
+                }
+                olds[i] = old;
+                updates[i] = updated;
+                view.put(write.email(), updated == null || write.email().equals(write.target()) ? updated : null);
+                if (updated != null) {
+                    view.put(write.target(), updated);
+                }
+            }
+            if (atomic) {
+                List<String> emails = new ArrayList<>(writes.size());
+                List<User> changes = new ArrayList<>(writes.size());
+                for (int i = 0; i < writes.size(); i++) {
+                    if (olds[i] != null || updates[i] != null) {
+                        emails.add(writes.get(i).email());
+                        changes.add(updates[i]);
+                    }
+                }
+                // Logged as a whole before any is applied, applying a logged change cannot fail
+                position = changeLog.appendAll(emails, changes);
+                for (int i = 0; i < writes.size(); i++) {
+                    if (olds[i] != null || updates[i] != null) {
+                        applyLogged(writes.get(i).email(), olds[i], updates[i]);
+                    }
+                }
+            }
+        } finally {
+            unlock(stripes);
+        }
+        published(position);
+        return Arrays.asList(rejected);
+    }
+
+    //  Replaces the user stored under email with updated if it still equals the expected one.
+    //  Compared by value, as backends outside the heap hand out a new instance on every read.
+    //  When updated carries another email the user is moved to the new key atomically.
+    public WriteResult compareAndSet(String email, User expected, User updated) {
+        String target = updated.getEmail();
+        ReentrantLock first = lockFor(email);
+        ReentrantLock second = lockFor(target);
+        if (stripe(target) < stripe(email)) {
+            ReentrantLock tmp = first;
+            first = second;
+            second = tmp;
+        }
+
+        long position;
+        first.lock();
+        if (second != first) {
+            second.lock();
+        }
+        try {
+            if (!expected.equals(get(email))) {
+                return WriteResult.STALE;
+            }
+            if (!email.equals(target) && contains(target)) {
+                return WriteResult.DUPLICATE;
+            }
+            position = apply(email, expected, updated);
+        } finally {
+            if (second != first) {
+                second.unlock();
+            }
+            first.unlock();
+        }
+        published(position);
+        return WriteResult.APPLIED;
+    }
+
+    //  Returns the removed user or null if there was none
+    public User remove(String email) {
+        User removed;
+        long position;
+        ReentrantLock lock = lockFor(email);
+        lock.lock();
+        try {
+            removed = get(email);
+            if (removed == null) {
+                return null;
+            }
+            position = apply(email, removed, null);
+        } finally {
+            lock.unlock();
+        }
+        published(position);
+        return removed;
+    }
+
+    //  Removes the user only if it still equals the expected one, compared by value like in compareAndSet
+    public boolean remove(String email, User expected) {
+        long position;
+        ReentrantLock lock = lockFor(email);
+        lock.lock();
+        try {
+            if (!expected.equals(get(email))) {
+                return false;
+            }
+            position = apply(email, expected, null);
+        } finally {
+            lock.unlock();
+        }
+        published(position);
+        return true;
+    }
+
+    //  Replays a logged change during recovery, without logging it again.
+    //  Emails are normalized here too, as changes logged before EmailKeys may carry uppercase domains
+    public void restore(String email, User updated) {
+        email = EmailKeys.normalize(email);
+        updated = EmailKeys.normalize(updated);
+        String target = updated == null ? email : updated.getEmail();
+        ReentrantLock first = locks[Math.min(stripe(email), stripe(target))];
+        ReentrantLock second = locks[Math.max(stripe(email), stripe(target))];
+        first.lock();
+        if (second != first) {
+            second.lock();
+        }
+        try {
+            if (updated != null) {
+                versions.accumulateAndGet(updated.getVersion(), Math::max);
+            }
+            User old = get(email);
+            if (!email.equals(target)) {
+                // A replayed rename may find its target already present in a fuzzy snapshot
+                User overwritten = get(target);
+                if (overwritten != null) {
+                    delete(target);
+                    birthDateIndex.remove(overwritten.getBirthDate(), target);
+                    textIndex.update(overwritten, null);
+                }
+            }
+            if (old != null || updated != null) {
+                mutate(email, old, updated);
+            }
+        } finally {
+            if (second != first) {
+                second.unlock();
+            }
+            first.unlock();
+        }
+    }
+
+    //  After a write or batch, outside its stripe locks: wakes the change listener once, then waits for the change log
+    private void published(long position) {
+        changeListener.published();
+        changeLog.awaitDurable(position);
+    }
+
+    //  Applies a change with the stripe locks of email and of the updated email held
+    //  and returns its change log position
+    private long apply(String email, User old, User updated) {
+        // Logged first, so a change the log refuses is not applied either
+        long position = changeLog.append(email, updated);
+        applyLogged(email, old, updated);
+        return position;
+    }
+
+    private void applyLogged(String email, User old, User updated) {
+        for (UserStorageSnapshot snapshot : openSnapshots) {
+            snapshot.preserve(stripe(email), email, old);
+            if (updated != null && !email.equals(updated.getEmail())) {
+                snapshot.preserve(stripe(updated.getEmail()), updated.getEmail(), null);
+            }
+        }
+        mutate(email, old, updated);
+        changeListener.changed(email, old, updated);
+    }
+
+    private void mutate(String email, User old, User updated) {
+        if (updated == null) {
+            delete(email);
+        } else if (email.equals(updated.getEmail())) {
+            put(email, updated);
+        } else {
+            // Publish the new key first, so readers never miss the user during a rename
+            put(updated.getEmail(), updated);
+            delete(email);
+        }
+        if (old != null) {
+            birthDateIndex.remove(old.getBirthDate(), email);
+            if (updated == null || !email.equals(updated.getEmail())) {
+                columns.remove(stripe(email), email);
+            }
+        }
+        if (updated != null) {
+            birthDateIndex.add(updated.getBirthDate(), updated.getEmail());
+            columns.add(stripe(updated.getEmail()), updated);
+        }
+        textIndex.update(old, updated);
+    }
+
+    private void lock(boolean[] stripes) {
+        for (int i = 0; i < STRIPES; i++) {
+            if (stripes[i]) {
+                locks[i].lock();
+            }
+        }
+    }
+
+    private void unlock(boolean[] stripes) {
+        for (int i = STRIPES - 1; i >= 0; i--) {
+            if (stripes[i]) {
+                locks[i].unlock();
+            }
+        }
+    }
+
+    private void lockAll() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = STRIPES - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    protected final ReentrantLock lockFor(String email) {
+        return locks[stripe(email)];
+    }
+
+    //  Hash for the tables of a stripe mixing all bits of the hash code,
+    //  the low ones alone are shared by every email of a stripe
+    protected static int hash(String email) {
+        int h = email.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    protected static int stripe(String email) {
+        int h = email.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
     }
 }
@@ -0,0 +1,76 @@
+package ua.savchenko.user_management.storage;
+
+import ua.savchenko.user_management.model.User;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Users as they were when the snapshot was opened, read stripe by stripe while writers go on.
+ * Until its stripe has been read, the first write to an email preserves the user it replaces here,
+ * or null if there was none, so only users changed meanwhile are held twice.
+ */
+public final class UserStorageSnapshot implements AutoCloseable {
+
+    private final UserStorage userStorage;
+    private final int size;
+    // Changed users by stripe, each map only touched with the lock of its stripe held
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final Map<String, User>[] changed = new Map[UserStorage.STRIPES];
+    private final boolean[] read = new boolean[UserStorage.STRIPES];
+
+    UserStorageSnapshot(UserStorage userStorage, int size) {
+        this.userStorage = userStorage;
+        this.size = size;
+    }
+
+    //  Number of users in the snapshot
+    public int size() {
+        return size;
+    }
+
+    //  Copies one stripe at a time, so no more than a stripe of users is buffered.
+    //  Can be read once; the snapshot is released when the stream ends or is closed.
+    public Stream<User> stream() {
+        return IntStream.range(0, UserStorage.STRIPES)
+                .mapToObj(stripe -> {
+                    Stream<User> users = userStorage.readStripe(this, stripe).stream();
+                    if (stripe == UserStorage.STRIPES - 1) {
+                        close();
+                    }
+                    return users;
+                })
+                .flatMap(users -> users)
+                .onClose(this::close);
+    }
+
+    //  Called by writers with the stripe lock held
+    void preserve(int stripe, String email, User old) {
+        if (read[stripe]) {
+            return;
+        }
+        if (changed[stripe] == null) {
+            changed[stripe] = new HashMap<>();
+        }
+        // Only the first write counts, and null is a value here
+        if (!changed[stripe].containsKey(email)) {
+            changed[stripe].put(email, old);
+        }
+    }
+
+    Map<String, User> changed(int stripe) {
+        return changed[stripe] == null ? Map.of() : changed[stripe];
+    }
+
+    void stripeRead(int stripe) {
+        read[stripe] = true;
+        changed[stripe] = null;
+    }
+
+    @Override
+    public void close() {
+        userStorage.release(this);
+    }
+}
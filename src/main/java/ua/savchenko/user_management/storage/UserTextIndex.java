@@ -0,0 +1,418 @@
+package ua.savchenko.user_management.storage;
+
+import ua.savchenko.user_management.model.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Inverted index of the lower-cased tokens of names, email, address and phone number.
+ * Tokens are kept sorted per field, so all tokens starting with a typed prefix are one range scan, like a trie walk.
+ * Emails of a token are a small sorted array copied on write, like in the birth date index;
+ * a token shared by many users switches to a concurrent set updated in place,
+ * so common tokens (a popular name, a street) never make writes copy huge arrays.
+ * Tokens and the emails of a set are counted as they change, so neither search nor metrics walk them,
+ * and a token is dropped with its last email.
+ */
+class UserTextIndex {
+
+    // Posting list size above which a token switches from an array to a set
+    private static final int MAX_ARRAY_POSTINGS = 64;
+
+    private static final Pattern PHONE = Pattern.compile("[0-9+().\\-\\s]*[0-9][0-9+().\\-\\s]*");
+
+    private enum Field {
+        EMAIL(4), NAME(3), PHONE(2), ADDRESS(1);
+
+        private final int weight;
+        // Keys are the token behind this character, so every field is its own range of the index
+        private final char key = (char) ('a' + ordinal());
+
+        Field(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    // An exact token of a field scores twice its weight, a longer token starting with the term scores the weight
+    private record Tier(Field field, boolean exact, int score) {
+    }
+
+    private static final List<Tier> TIERS = Arrays.stream(Field.values())
+            .flatMap(field -> List.of(new Tier(field, true, 2 * field.weight), new Tier(field, false, field.weight)).stream())
+            .sorted(Comparator.comparingInt(Tier::score).reversed())
+            .toList();
+
+    private record Match(User user, int score, long order) {
+    }
+
+    // String[] or PostingSet per field key and token
+    private final ConcurrentSkipListMap<String, Object> postings = new ConcurrentSkipListMap<>();
+    // Keys in postings, ConcurrentSkipListMap.size() walks them all
+    private final AtomicInteger tokens = new AtomicInteger();
+
+    //  A token of many users. Writers of every stripe share it, so adding and removing are synchronized
+    //  on the set: the one removing the last email marks it dropped, and nobody adds to it any more.
+    private static final class PostingSet {
+        private final ConcurrentSkipListSet<String> emails;
+        private volatile int size;
+        private boolean dropped;
+
+        PostingSet(String[] emails, String email) {
+            this.emails = new ConcurrentSkipListSet<>(Arrays.asList(emails));
+            this.emails.add(email);
+            this.size = this.emails.size();
+        }
+
+        //  False once dropped, the token has to be added again then
+        synchronized boolean add(String email) {
+            if (dropped) {
+                return false;
+            }
+            if (emails.add(email)) {
+                size++;
+            }
+            return true;
+        }
+
+        //  True when the last email was removed, which drops the set
+        synchronized boolean remove(String email) {
+            if (emails.remove(email)) {
+                size--;
+            }
+            if (size == 0 && !dropped) {
+                dropped = true;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    //  Moves the tokens of a user from old to updated, either may be null
+    void update(User old, User updated) {
+        Set<String> oldKeys = old == null ? Set.of() : keys(old);
+        Set<String> newKeys = updated == null ? Set.of() : keys(updated);
+        boolean sameEmail = old != null && updated != null && old.getEmail().equals(updated.getEmail());
+
+        for (String key : oldKeys) {
+            if (!sameEmail || !newKeys.contains(key)) {
+                remove(key, old.getEmail());
+            }
+        }
+        for (String key : newKeys) {
+            if (!sameEmail || !oldKeys.contains(key)) {
+                add(key, updated.getEmail());
+            }
+        }
+    }
+
+    //  Users having a token starting with every term of the query, best matches first.
+    //  Candidates come from the most selective term only, walked from its best tier down:
+    //  exact tokens of the heaviest field first, within a tier in token and email order.
+    //  Equal scores keep that order, so the walk stops once no later candidate can rank higher.
+    List<User> search(String query, int limit, Function<String, User> users) {
+        List<String> terms = queryTerms(query);
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        String driver = mostSelective(terms);
+        int othersBound = 0;
+        for (String term : terms) {
+            if (!term.equals(driver)) {
+                othersBound += bestScore(term);
+            }
+        }
+
+        Comparator<Match> ranking = Comparator.comparingInt(Match::score).reversed()
+                .thenComparingLong(Match::order);
+        // Worst of the best kept at the head
+        PriorityQueue<Match> top = new PriorityQueue<>(limit + 1, ranking.reversed());
+        Set<String> seen = new HashSet<>();
+        long order = 0;
+        for (Tier tier : TIERS) {
+            int bound = tier.score() + othersBound;
+            String key = tier.field().key + driver;
+            NavigableMap<String, Object> tokens = tier.exact()
+                    ? postings.subMap(key, true, key, true)
+                    : postings.subMap(key, false, key + Character.MAX_VALUE, false);
+            for (Object tokenEmails : tokens.values()) {
+                for (String email : emails(tokenEmails)) {
+                    if (top.size() == limit && top.peek().score() >= bound) {
+                        return ranked(top, ranking);
+                    }
+                    if (!seen.add(email)) {
+                        continue;
+                    }
+                    User user = users.apply(email);
+                    int score = user == null ? 0 : score(user, terms);
+                    if (score > 0) {
+                        top.add(new Match(user, score, order++));
+                        if (top.size() > limit) {
+                            top.poll();
+                        }
+                    }
+                }
+            }
+        }
+        return ranked(top, ranking);
+    }
+
+    int size() {
+        return tokens.get();
+    }
+
+    //  A query of digits, spaces and phone punctuation only is one phone number prefix. Otherwise it is split
+    //  on whitespace: a word with '@' is an email prefix, a word of digits and phone punctuation
+    //  is a phone prefix, anything else is split into tokens like the indexed fields.
+    static List<String> queryTerms(String query) {
+        if (PHONE.matcher(query).matches()) {
+            return List.of(digits(query));
+        }
+        Set<String> terms = new LinkedHashSet<>();
+        for (String word : query.trim().toLowerCase(Locale.ROOT).split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (word.indexOf('@') >= 0) {
+                terms.add(word);
+            } else if (PHONE.matcher(word).matches()) {
+                terms.add(digits(word));
+            } else {
+                split(word, terms::add);
+            }
+        }
+        return new ArrayList<>(terms);
+    }
+
+    //  Sum over terms of the best match among the user's tokens;
+    //  0 when some term matches nothing, e.g. for a user changed since the index was read
+    static int score(User user, List<String> terms) {
+        int[] best = new int[terms.size()];
+        forEachToken(user, (field, token) -> {
+            for (int i = 0; i < best.length; i++) {
+                String term = terms.get(i);
+                if (token.startsWith(term)) {
+                    best[i] = Math.max(best[i], token.length() == term.length() ? 2 * field.weight : field.weight);
+                }
+            }
+        });
+        int score = 0;
+        for (int termScore : best) {
+            if (termScore == 0) {
+                return 0;
+            }
+            score += termScore;
+        }
+        return score;
+    }
+
+    //  The term with the fewest postings, counting each term only as far as the best one found so far
+    private String mostSelective(List<String> terms) {
+        String best = null;
+        long bestCount = Long.MAX_VALUE;
+        for (String term : terms) {
+            long count = 0;
+            for (Field field : Field.values()) {
+                String key = field.key + term;
+                for (Object tokenEmails : postings.subMap(key, true, key + Character.MAX_VALUE, false).values()) {
+                    count += tokenEmails instanceof String[] array ? array.length : ((PostingSet) tokenEmails).size;
+                    if (count >= bestCount) {
+                        break;
+                    }
+                }
+            }
+            if (count < bestCount) {
+                best = term;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    //  The highest score any indexed token gives the term
+    private int bestScore(String term) {
+        for (Tier tier : TIERS) {
+            String key = tier.field().key + term;
+            boolean found = tier.exact()
+                    ? postings.containsKey(key)
+                    : !postings.subMap(key, false, key + Character.MAX_VALUE, false).isEmpty();
+            if (found) {
+                return tier.score();
+            }
+        }
+        return 0;
+    }
+
+    private static List<User> ranked(PriorityQueue<Match> top, Comparator<Match> ranking) {
+        List<Match> matches = new ArrayList<>(top);
+        matches.sort(ranking);
+        return matches.stream().map(Match::user).toList();
+    }
+
+    private static Iterable<String> emails(Object tokenEmails) {
+        return tokenEmails instanceof String[] array ? Arrays.asList(array) : ((PostingSet) tokenEmails).emails;
+    }
+
+    private static Set<String> keys(User user) {
+        Set<String> keys = new HashSet<>();
+        forEachToken(user, (field, token) -> keys.add(field.key + token));
+        return keys;
+    }
+
+    private static void forEachToken(User user, BiConsumer<Field, String> tokens) {
+        String email = user.getEmail().toLowerCase(Locale.ROOT);
+        tokens.accept(Field.EMAIL, email);
+        int at = email.indexOf('@');
+        split(at < 0 ? email : email.substring(0, at), token -> tokens.accept(Field.EMAIL, token));
+        if (user.getFirstName() != null) {
+            split(user.getFirstName().toLowerCase(Locale.ROOT), token -> tokens.accept(Field.NAME, token));
+        }
+        if (user.getLastName() != null) {
+            split(user.getLastName().toLowerCase(Locale.ROOT), token -> tokens.accept(Field.NAME, token));
+        }
+        if (user.getPhoneNumber() != null) {
+            phoneTokens(user.getPhoneNumber(), token -> tokens.accept(Field.PHONE, token));
+        }
+        if (user.getAddress() != null) {
+            split(user.getAddress().toLowerCase(Locale.ROOT), token -> tokens.accept(Field.ADDRESS, token));
+        }
+    }
+
+    //  The digits of the number from each group on, so "+1 555 0123" is found by 1555, 555 and 0123
+    private static void phoneTokens(String phone, Consumer<String> tokens) {
+        String digits = digits(phone);
+        int seen = 0;
+        boolean inGroup = false;
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            boolean digit = c >= '0' && c <= '9';
+            if (digit && !inGroup) {
+                tokens.accept(digits.substring(seen));
+            }
+            if (digit) {
+                seen++;
+            }
+            inGroup = digit;
+        }
+    }
+
+    //  Runs of letters and digits
+    private static void split(String text, Consumer<String> tokens) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inToken = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inToken && start < 0) {
+                start = i;
+            } else if (!inToken && start >= 0) {
+                tokens.accept(text.substring(start, i));
+                start = -1;
+            }
+        }
+    }
+
+    private static String digits(String text) {
+        StringBuilder digits = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.toString();
+    }
+
+    //  Arrays are replaced by compare and set, so every outcome is known and tokens stays exact
+    private void add(String key, String email) {
+        while (true) {
+            Object emails = postings.get(key);
+            if (emails == null) {
+                if (postings.putIfAbsent(key, new String[]{email}) == null) {
+                    tokens.incrementAndGet();
+                    return;
+                }
+            } else if (emails instanceof PostingSet set) {
+                // A dropped set is replaced, unless the writer dropping it removes it first
+                if (set.add(email) || postings.replace(key, set, new String[]{email})) {
+                    return;
+                }
+            } else {
+                String[] array = (String[]) emails;
+                Object updated = with(array, email);
+                if (updated == array || postings.replace(key, array, updated)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void remove(String key, String email) {
+        while (true) {
+            Object emails = postings.get(key);
+            if (emails == null) {
+                return;
+            }
+            if (emails instanceof PostingSet set) {
+                if (set.remove(email) && postings.remove(key, set)) {
+                    tokens.decrementAndGet();
+                }
+                return;
+            }
+            String[] array = (String[]) emails;
+            String[] updated = without(array, email);
+            if (updated == array) {
+                return;
+            }
+            if (updated == null ? postings.remove(key, array) : postings.replace(key, array, updated)) {
+                if (updated == null) {
+                    tokens.decrementAndGet();
+                }
+                return;
+            }
+        }
+    }
+
+    private static Object with(String[] array, String email) {
+        int i = Arrays.binarySearch(array, email);
+        if (i >= 0) {
+            return array;
+        }
+        if (array.length == MAX_ARRAY_POSTINGS) {
+            return new PostingSet(array, email);
+        }
+        int at = -i - 1;
+        String[] copy = new String[array.length + 1];
+        System.arraycopy(array, 0, copy, 0, at);
+        copy[at] = email;
+        System.arraycopy(array, at, copy, at + 1, array.length - at);
+        return copy;
+    }
+
+    //  Null when the last email is removed, which drops the token
+    private static String[] without(String[] array, String email) {
+        int i = Arrays.binarySearch(array, email);
+        if (i < 0) {
+            return array;
+        }
+        if (array.length == 1) {
+            return null;
+        }
+        String[] copy = new String[array.length - 1];
+        System.arraycopy(array, 0, copy, 0, i);
+        System.arraycopy(array, i + 1, copy, i, array.length - i - 1);
+        return copy;
+    }
+}
@@ -0,0 +1,427 @@
+package ua.savchenko.user_management.storage;
+
+import ua.savchenko.user_management.model.User;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of user changes, split into segment files named after their first position.
+ * Appenders only copy the encoded change into an in-memory batch; a single writer thread
+ * writes whole batches with one FileChannel write and at most one force (group commit).
+ * Record layout: int payload length, long position, int CRC32 of payload and position, payload.
+ */
+class UserWriteAheadLog implements UserChangeLog, Closeable {
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    // Puts logged before users had versions, replayed with version 0
+    private static final byte UNVERSIONED_PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte PUT = 3;
+
+    private final Path directory;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition written = lock.newCondition();
+    private final Thread writer;
+
+    // Guarded by lock
+    private Batch pending = new Batch();
+    private Batch spare = new Batch();
+    private long lastPosition;
+    private long writtenPosition;
+    private boolean rotationRequested;
+    private long rotatedAt;
+    private boolean closed;
+    // Set when the writer thread is gone, after closing or failing; nothing is written any more
+    private boolean stopped;
+    private IOException failure;
+
+    // Used by the writer thread only
+    private FileChannel channel;
+
+    UserWriteAheadLog(Path directory, long lastPosition, FsyncPolicy fsyncPolicy, Duration fsyncInterval)
+            throws IOException {
+        this.directory = directory;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalNanos = fsyncInterval.toNanos();
+        this.lastPosition = lastPosition;
+        this.writtenPosition = lastPosition;
+        this.channel = openSegment(lastPosition + 1);
+        this.writer = new Thread(this::writeLoop, "user-wal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public long append(String email, User updated) {
+        // Encoded outside the lock, only the position and its checksum are filled in under it
+        byte[] record = encode(email, updated);
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_BYTES, record.length - HEADER_BYTES);
+
+        lock.lock();
+        try {
+            // Refused before the caller applies the change, which no one would write any more
+            checkOpen();
+            long position = write(record, crc);
+            appended.signal();
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long appendAll(List<String> emails, List<User> updates) {
+        byte[][] records = new byte[emails.size()][];
+        CRC32[] crcs = new CRC32[records.length];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = encode(emails.get(i), updates.get(i));
+            crcs[i] = new CRC32();
+            crcs[i].update(records[i], HEADER_BYTES, records[i].length - HEADER_BYTES);
+        }
+
+        lock.lock();
+        try {
+            // Checked once, so the batch is refused as a whole or not at all
+            checkOpen();
+            long position = 0;
+            for (int i = 0; i < records.length; i++) {
+                position = write(records[i], crcs[i]);
+            }
+            appended.signal();
+            return position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //  With lock held; fills in the next position and hands the record to the writer thread
+    private long write(byte[] record, CRC32 crc) {
+        long position = ++lastPosition;
+        ByteBuffer.wrap(record, 0, HEADER_BYTES)
+                .putInt(record.length - HEADER_BYTES)
+                .putLong(position)
+                .putInt(withPosition(crc, position));
+        pending.write(record, 0, record.length);
+        return position;
+    }
+
+    @Override
+    public void awaitDurable(long position) {
+        lock.lock();
+        try {
+            while (writtenPosition < position) {
+                checkRunning();
+                written.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long lastPosition() {
+        lock.lock();
+        try {
+            return lastPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //  Starts a new segment and returns the position of the last change in the previous ones
+    long rotate() throws IOException {
+        lock.lock();
+        try {
+            rotationRequested = true;
+            appended.signal();
+            while (rotationRequested) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (stopped) {
+                    throw new IllegalStateException("Write-ahead log is closed");
+                }
+                written.awaitUninterruptibly();
+            }
+            return rotatedAt;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //  Deletes segments that only hold changes up to the given position, e.g. covered by a snapshot
+    void deleteSegmentsUpTo(long position) throws IOException {
+        List<Path> segments = segments(directory);
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (segmentStart(segments.get(i + 1)) <= position + 1) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+    }
+
+    //  Writes out everything appended so far and stops the writer thread; later appends are refused
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            written.signalAll();
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //  With lock held
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+        checkRunning();
+    }
+
+    //  With lock held; fails waiters the writer thread will never wake up
+    private void checkRunning() {
+        if (failure != null) {
+            throw new UncheckedIOException("Write-ahead log failed", failure);
+        }
+        if (stopped) {
+            throw new IllegalStateException("Write-ahead log is closed");
+        }
+    }
+
+    //  Applies the changes after the given position from all segments in order and returns
+    //  the last position found. A torn or corrupt tail of a segment is cut off.
+    static long replay(Path directory, long after, BiConsumer<String, User> changes) throws IOException {
+        long last = after;
+        for (Path segment : segments(directory)) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                long size = channel.size();
+                long valid = 0;
+                while (valid + HEADER_BYTES <= size) {
+                    int length = in.readInt();
+                    long position = in.readLong();
+                    int crc = in.readInt();
+                    if (length < 0 || valid + HEADER_BYTES + length > size) {
+                        break;
+                    }
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 expected = new CRC32();
+                    expected.update(payload);
+                    if (withPosition(expected, position) != crc) {
+                        break;
+                    }
+                    valid += HEADER_BYTES + length;
+                    if (position > after) {
+                        decode(payload, changes);
+                    }
+                    last = Math.max(last, position);
+                }
+                if (valid < size) {
+                    channel.truncate(valid);
+                    channel.force(true);
+                }
+            }
+        }
+        return last;
+    }
+
+    private void writeLoop() {
+        long lastForce = System.nanoTime();
+        boolean dirty = false;
+        try {
+            while (true) {
+                Batch batch;
+                long position;
+                boolean rotate;
+                boolean closing;
+                lock.lock();
+                try {
+                    while (pending.size() == 0 && !rotationRequested && !closed) {
+                        if (dirty && fsyncPolicy == FsyncPolicy.INTERVAL) {
+                            long wait = fsyncIntervalNanos - (System.nanoTime() - lastForce);
+                            if (wait <= 0) {
+                                break;
+                            }
+                            appended.awaitNanos(wait);
+                        } else {
+                            appended.await();
+                        }
+                    }
+                    batch = pending;
+                    pending = spare;
+                    spare = batch;
+                    position = lastPosition;
+                    rotate = rotationRequested;
+                    closing = closed;
+                } finally {
+                    lock.unlock();
+                }
+
+                ByteBuffer buffer = batch.view();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                dirty |= batch.size() > 0;
+                batch.reset();
+
+                long now = System.nanoTime();
+                boolean forceDue = fsyncPolicy == FsyncPolicy.ALWAYS
+                        || fsyncPolicy == FsyncPolicy.INTERVAL && now - lastForce >= fsyncIntervalNanos;
+                if (dirty && (forceDue || rotate || closing)) {
+                    channel.force(false);
+                    lastForce = now;
+                    dirty = false;
+                }
+                if (rotate) {
+                    channel.close();
+                    channel = openSegment(position + 1);
+                }
+                if (closing) {
+                    channel.close();
+                }
+
+                lock.lock();
+                try {
+                    writtenPosition = position;
+                    if (rotate) {
+                        rotationRequested = false;
+                        rotatedAt = position;
+                    }
+                    if (closing) {
+                        stopped = true;
+                    }
+                    written.signalAll();
+                    if (closing) {
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            lock.lock();
+            try {
+                failure = e instanceof IOException io ? io : new IOException("Write-ahead log writer interrupted", e);
+                stopped = true;
+                // Batches nobody will write are dropped rather than kept growing
+                pending.reset();
+                written.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private FileChannel openSegment(long start) throws IOException {
+        Path segment = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, start, SEGMENT_SUFFIX));
+        return FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && f.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long segmentStart(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    //  Encodes the change behind room for the record header
+    private static byte[] encode(String email, User updated) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.write(new byte[HEADER_BYTES]);
+            out.writeByte(updated == null ? REMOVE : PUT);
+            UserRecordCodec.writeString(out, email);
+            if (updated != null) {
+                UserRecordCodec.write(out, updated);
+            }
+        } catch (IOException e) {
+            // Cannot happen when writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void decode(byte[] payload, BiConsumer<String, User> changes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        String email = UserRecordCodec.readString(in);
+        if (type == PUT || type == UNVERSIONED_PUT) {
+            changes.accept(email, UserRecordCodec.read(in, type == PUT));
+        } else if (type == REMOVE) {
+            changes.accept(email, null);
+        } else {
+            throw new EOFException("Unknown change type " + type);
+        }
+    }
+
+    //  Completes a payload checksum with the position, so a record is never replayed at a wrong place
+    private static int withPosition(CRC32 crc, long position) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (position >>> shift));
+        }
+        return (int) crc.getValue();
+    }
+
+    //  Growable byte buffer whose content can be written to a channel without copying
+    private static final class Batch extends ByteArrayOutputStream {
+
+        Batch() {
+            super(64 * 1024);
+        }
+
+        ByteBuffer view() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
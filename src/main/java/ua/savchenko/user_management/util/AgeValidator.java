@@ -1,22 +1,78 @@
 package ua.savchenko.user_management.util;
 
-import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 import ua.savchenko.user_management.configuration.UserConfiguration;
-import ua.savchenko.user_management.exception.ValidatorException;
 
+import java.time.Clock;
+import java.time.Instant;
 import java.time.LocalDate;
-import java.time.Period;
+import java.time.ZoneId;
 
+/**
+ * Checks the minimum age against the latest allowed birth date, kept as an epoch day and recomputed
+ * on the first check of every day of the clock, so a check is one clock read and a few comparisons.
+ * Birth dates MAX_AGE years back or earlier are rejected too, the aggregates leave them out.
+ */
 @Component
-@RequiredArgsConstructor
 public class AgeValidator {
 
+    public static final int MAX_AGE = 150;
+
+    private static final String NOT_PAST = "Birth date must be in the past";
+    private static final String TOO_OLD = "User must be younger than " + MAX_AGE + " years";
+
     private final UserConfiguration userConfiguration;
+    private final Clock clock;
+
+    private volatile Threshold threshold = new Threshold(Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE,
+            Long.MIN_VALUE, Long.MIN_VALUE, null);
+
+    //  The day [validFrom, validUntil) in clock millis that today and the birth day bounds hold for
+    private record Threshold(long today, long earliestBirthDay, long latestBirthDay, long validFrom, long validUntil,
+                             String message) {
+    }
+
+    public AgeValidator(UserConfiguration userConfiguration, Clock clock) {
+        this.userConfiguration = userConfiguration;
+        this.clock = clock;
+    }
 
-    public void checkForAge(LocalDate birthDate) {
-        if (Period.between(birthDate, LocalDate.now()).getYears() < userConfiguration.getMinAge()){
-            throw new ValidatorException("User must be at least " + userConfiguration.getMinAge() + " years old");
+    //  The minimum age, also rejecting birth dates from today on and MAX_AGE years back;
+    //  the message of the failed check, null when all pass
+    public String check(LocalDate birthDate) {
+        Threshold current = current();
+        long birthDay = birthDate.toEpochDay();
+        if (birthDay >= current.today()) {
+            return NOT_PAST;
         }
+        if (birthDay < current.earliestBirthDay()) {
+            return TOO_OLD;
+        }
+        return birthDay > current.latestBirthDay() ? current.message() : null;
+    }
+
+    private Threshold current() {
+        Threshold current = threshold;
+        long now = clock.millis();
+        if (now < current.validFrom() || now >= current.validUntil()) {
+            current = recompute(now);
+        }
+        return current;
+    }
+
+    //  Threads crossing midnight together may all recompute, they store the same threshold
+    private Threshold recompute(long now) {
+        ZoneId zone = clock.getZone();
+        LocalDate today = LocalDate.ofInstant(Instant.ofEpochMilli(now), zone);
+        int minAge = userConfiguration.getMinAge();
+        Threshold current = new Threshold(
+                today.toEpochDay(),
+                today.minusYears(MAX_AGE).plusDays(1).toEpochDay(),
+                today.minusYears(minAge).toEpochDay(),
+                today.atStartOfDay(zone).toInstant().toEpochMilli(),
+                today.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli(),
+                "User must be at least " + minAge + " years old");
+        threshold = current;
+        return current;
     }
 }
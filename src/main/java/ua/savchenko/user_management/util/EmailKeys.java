@@ -0,0 +1,35 @@
+package ua.savchenko.user_management.util;
+
+import ua.savchenko.user_management.model.User;
+
+import java.util.Locale;
+
+/**
+ * The form emails are stored, looked up and routed in: the domain is case-insensitive and lowercased,
+ * the local part is kept as sent since mail servers may tell its cases apart.
+ * An email already in that form is returned as the same instance, so the common case allocates nothing.
+ */
+public final class EmailKeys {
+
+    private EmailKeys() {
+    }
+
+    public static String normalize(String email) {
+        int at = email == null ? -1 : email.lastIndexOf('@');
+        if (at < 0) {
+            return email;
+        }
+        for (int i = at + 1; i < email.length(); i++) {
+            char c = email.charAt(i);
+            if (Character.toLowerCase(c) != c) {
+                return email.substring(0, at + 1) + email.substring(at + 1).toLowerCase(Locale.ROOT);
+            }
+        }
+        return email;
+    }
+
+    //  The same user when its email is normalized already
+    public static User normalize(User user) {
+        return user == null ? null : user.withEmail(normalize(user.getEmail()));
+    }
+}
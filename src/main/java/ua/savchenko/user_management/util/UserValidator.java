@@ -0,0 +1,110 @@
+package ua.savchenko.user_management.util;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.model.User;
+
+import java.util.regex.Pattern;
+
+/**
+ * The checks of a user on every write path: creates, patches and replaces, one by one, as operations or
+ * imported. Checks run from the cheapest and stop at the first failure: required fields, the birth date
+ * against {@link AgeValidator}, then the precompiled email and phone number patterns. Bulk paths take the
+ * message, the others get a ValidatorException, which fills in no stack trace.
+ */
+@Component
+@RequiredArgsConstructor
+public class UserValidator {
+
+    private static final String EMAIL_REQUIRED = "Email is required";
+    private static final String FIRST_NAME_REQUIRED = "First name is required";
+    private static final String LAST_NAME_REQUIRED = "Last name is required";
+    private static final int MAX_LOCAL_PART = 64;
+    private static final int MAX_DOMAIN = 255;
+
+    //  The forms the @Email constraint accepted, less quoted local parts and IP literal domains
+    private static final Pattern LOCAL_PART = Pattern.compile(
+            "[a-z0-9!#$%&'*+/=?^_`{|}~\\u0080-\\uFFFF-]+(?:\\.[a-z0-9!#$%&'*+/=?^_`{|}~\\u0080-\\uFFFF-]+)*",
+            Pattern.CASE_INSENSITIVE);
+    private static final String LABEL = "[\\p{L}\\p{N}](?:[\\p{L}\\p{N}-]{0,61}[\\p{L}\\p{N}])?";
+    private static final Pattern DOMAIN = Pattern.compile(LABEL + "(?:\\." + LABEL + ")*");
+    //  Digits with an optional leading +, spaces, dots, dashes and parentheses, such as +380 (44) 123-45-67
+    private static final Pattern PHONE_NUMBER = Pattern.compile("\\+?[0-9(][0-9 ().-]{5,18}[0-9]");
+
+    private final AgeValidator ageValidator;
+
+    //  A user to create or to replace a stored one with
+    public void validate(User user) {
+        String error = check(user);
+        if (error != null) {
+            throw new ValidatorException(error);
+        }
+    }
+
+    public void validatePatch(User patch) {
+        String error = checkPatch(patch);
+        if (error != null) {
+            throw new ValidatorException(error);
+        }
+    }
+
+    //  The message of the first failed check, null when the user is valid
+    public String check(User user) {
+        if (isBlank(user.getEmail())) {
+            return EMAIL_REQUIRED;
+        }
+        if (isBlank(user.getFirstName())) {
+            return FIRST_NAME_REQUIRED;
+        }
+        if (isBlank(user.getLastName())) {
+            return LAST_NAME_REQUIRED;
+        }
+        if (user.getBirthDate() == null) {
+            return "Birth date is required";
+        }
+        return checkGiven(user);
+    }
+
+    //  A patch only has to be valid in the fields it sets
+    public String checkPatch(User patch) {
+        if (patch.getEmail() != null && patch.getEmail().isBlank()) {
+            return EMAIL_REQUIRED;
+        }
+        if (patch.getFirstName() != null && patch.getFirstName().isBlank()) {
+            return FIRST_NAME_REQUIRED;
+        }
+        if (patch.getLastName() != null && patch.getLastName().isBlank()) {
+            return LAST_NAME_REQUIRED;
+        }
+        return checkGiven(patch);
+    }
+
+    static boolean isEmail(String email) {
+        int at = email.lastIndexOf('@');
+        int domainLength = email.length() - at - 1;
+        return at > 0 && at <= MAX_LOCAL_PART && domainLength > 0 && domainLength <= MAX_DOMAIN
+                && LOCAL_PART.matcher(email).region(0, at).matches()
+                && DOMAIN.matcher(email).region(at + 1, email.length()).matches();
+    }
+
+    private String checkGiven(User user) {
+        if (user.getBirthDate() != null) {
+            String error = ageValidator.check(user.getBirthDate());
+            if (error != null) {
+                return error;
+            }
+        }
+        if (user.getEmail() != null && !isEmail(user.getEmail())) {
+            return "Email should be valid";
+        }
+        if (user.getPhoneNumber() != null && !PHONE_NUMBER.matcher(user.getPhoneNumber()).matches()) {
+            return "Phone number should be valid";
+        }
+        return null;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
@@ -0,0 +1,46 @@
+package ua.savchenko.user_management.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConsistentHashRingTest {
+
+    private static final int EMAILS = 100_000;
+
+    @Test
+    void testEmailsSpreadEvenlyOverShards() {
+        ConsistentHashRing ring = new ConsistentHashRing(4, 128);
+        int[] counts = new int[4];
+        for (int i = 0; i < EMAILS; i++) {
+            counts[ring.shardOf("user" + i + "@example.com")]++;
+        }
+        for (int count : counts) {
+            assertTrue(Math.abs(count - EMAILS / 4) < EMAILS / 4 / 5, "shard holds " + count + " emails");
+        }
+    }
+
+    @Test
+    void testAddingShardOnlyMovesEmailsToIt() {
+        ConsistentHashRing three = new ConsistentHashRing(3, 128);
+        ConsistentHashRing four = new ConsistentHashRing(4, 128);
+        int moved = 0;
+        for (int i = 0; i < EMAILS; i++) {
+            String email = "user" + i + "@example.com";
+            int before = three.shardOf(email);
+            int after = four.shardOf(email);
+            if (before != after) {
+                assertEquals(3, after);
+                moved++;
+            }
+        }
+        assertTrue(Math.abs(moved - EMAILS / 4) < EMAILS / 4 / 5, moved + " emails moved");
+    }
+
+    @Test
+    void testSingleShardOwnsEverything() {
+        ConsistentHashRing ring = new ConsistentHashRing(1, 1);
+        assertEquals(0, ring.shardOf("john@example.com"));
+        assertEquals(0, ring.shardOf(""));
+    }
+}
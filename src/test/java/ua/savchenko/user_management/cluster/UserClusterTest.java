@@ -0,0 +1,208 @@
+package ua.savchenko.user_management.cluster;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import ua.savchenko.user_management.UserManagementApplication;
+import ua.savchenko.user_management.model.BatchResult;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserPage;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Three instances on localhost ports, each owning a third of the emails.
+ */
+class UserClusterTest {
+
+    private static final int SHARDS = 3;
+    private static final int USERS = 30;
+    private static final String SECRET = "cluster-test-secret";
+
+    private static final List<ConfigurableApplicationContext> instances = new ArrayList<>();
+    private static final List<String> nodes = new ArrayList<>();
+    private static final HttpClient httpClient = HttpClient.newHttpClient();
+    private static ObjectMapper objectMapper;
+
+    @BeforeAll
+    static void startCluster() throws IOException {
+        List<ServerSocket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < SHARDS; i++) {
+                ServerSocket socket = new ServerSocket(0);
+                sockets.add(socket);
+                nodes.add("http://localhost:" + socket.getLocalPort());
+            }
+        } finally {
+            for (ServerSocket socket : sockets) {
+                socket.close();
+            }
+        }
+        for (int i = 0; i < SHARDS; i++) {
+            //  As arguments, since default properties would lose to the settings of application.yml
+            instances.add(new SpringApplicationBuilder(UserManagementApplication.class)
+                    .run("--server.port=" + URI.create(nodes.get(i)).getPort(),
+                            "--user.cluster.nodes=" + String.join(",", nodes),
+                            "--user.cluster.self=" + i,
+                            "--user.cluster.secret=" + SECRET));
+        }
+        objectMapper = instances.get(0).getBean(ObjectMapper.class);
+    }
+
+    @AfterAll
+    static void stopCluster() {
+        instances.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @BeforeEach
+    void clear() {
+        for (ConfigurableApplicationContext instance : instances) {
+            UserStorage userStorage = instance.getBean(UserStorage.class);
+            List.copyOf(userStorage.findAll()).forEach(user -> userStorage.remove(user.getEmail()));
+        }
+    }
+
+    @Test
+    void testUsersCreatedThroughOneInstanceAreStoredOnTheirOwnerAndFoundThroughAny() throws Exception {
+        for (int i = 0; i < USERS; i++) {
+            assertEquals(201, send(0, "POST", "/api/user", user(i)).statusCode());
+        }
+
+        UserCluster userCluster = instances.get(0).getBean(UserCluster.class);
+        for (int i = 0; i < USERS; i++) {
+            String email = user(i).getEmail();
+            int owner = userCluster.shardOf(email);
+            for (int shard = 0; shard < SHARDS; shard++) {
+                assertEquals(shard == owner, storage(shard).contains(email));
+            }
+            assertEquals(200, send(2, "GET", "/api/user/" + email, null).statusCode());
+        }
+        for (int shard = 0; shard < SHARDS; shard++) {
+            assertTrue(storage(shard).size() > 0);
+        }
+        assertEquals(409, send(1, "POST", "/api/user", user(0)).statusCode());
+    }
+
+    @Test
+    void testSearchMergesAllShardsInBirthDateOrder() throws Exception {
+        importUsers();
+        List<User> expected = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            expected.add(user(i));
+        }
+        expected.sort(UserCluster.BIRTH_DATE_ORDER);
+
+        HttpResponse<String> all = send(1, "GET", "/api/user/search?from=1950-01-01&to=2000-01-01", null);
+        assertEquals(emails(expected), emails(objectMapper.readValue(all.body(), new TypeReference<List<User>>() {
+        })));
+
+        List<User> paged = new ArrayList<>();
+        String after = "";
+        do {
+            UserPage page = objectMapper.readValue(send(2, "GET",
+                    "/api/user/search?from=1950-01-01&to=2000-01-01&limit=7" + after, null).body(), UserPage.class);
+            paged.addAll(page.users());
+            after = page.nextCursor() == null ? null : "&after=" + page.nextCursor();
+        } while (after != null);
+        assertEquals(emails(expected), emails(paged));
+    }
+
+    @Test
+    void testLookupRanksMatchesOfAllShards() throws Exception {
+        importUsers();
+
+        HttpResponse<String> response = send(0, "GET", "/api/user/lookup?q=doe&limit=50", null);
+
+        List<User> users = objectMapper.readValue(response.body(), new TypeReference<>() {
+        });
+        assertEquals(USERS, users.size());
+    }
+
+    @Test
+    void testEmailChangeMovesUserToItsNewOwner() throws Exception {
+        importUsers();
+        UserCluster userCluster = instances.get(0).getBean(UserCluster.class);
+        String from = user(0).getEmail();
+        String to = "moved0@example.com";
+        for (int i = 1; userCluster.shardOf(to) == userCluster.shardOf(from); i++) {
+            assertTrue(i < 100, "No email found on another shard than " + from);
+            to = "moved" + i + "@example.com";
+        }
+
+        HttpResponse<String> response = send(1, "PATCH", "/api/user/" + from,
+                new User(to, "John", "Doe", LocalDate.of(1980, 1, 1), null, null));
+
+        assertEquals(200, response.statusCode());
+        assertEquals(404, send(0, "GET", "/api/user/" + from, null).statusCode());
+        assertTrue(storage(userCluster.shardOf(to)).contains(to));
+        assertEquals(USERS, totalSize());
+    }
+
+    @Test
+    void testShardEndpointsAreOnlyOpenToRequestsWithTheSecret() throws Exception {
+        String path = UserCluster.SHARD_PATH + "/lookup?q=doe&limit=5";
+        assertEquals(403, send(0, "GET", path, null).statusCode());
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(nodes.get(0) + path))
+                .header(UserCluster.SHARD_HEADER, SECRET)
+                .GET()
+                .build();
+        assertEquals(200, httpClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private void importUsers() throws Exception {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            users.add(user(i));
+        }
+        BatchResult result = objectMapper.readValue(send(1, "POST", "/api/user/batch", users).body(), BatchResult.class);
+        assertEquals(USERS, result.created());
+        assertEquals(USERS, totalSize());
+    }
+
+    private HttpResponse<String> send(int shard, String method, String path, Object body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(nodes.get(shard) + path))
+                .header("Content-Type", "application/json")
+                .method(method, body == null
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                .build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static UserStorage storage(int shard) {
+        return instances.get(shard).getBean(UserStorage.class);
+    }
+
+    private static int totalSize() {
+        int size = 0;
+        for (int shard = 0; shard < SHARDS; shard++) {
+            size += storage(shard).size();
+        }
+        return size;
+    }
+
+    private static List<String> emails(List<User> users) {
+        return users.stream().map(User::getEmail).toList();
+    }
+
+    private static User user(int i) {
+        return new User("user" + i + "@example.com", "John", "Doe", LocalDate.of(1980, 1, 1).plusDays(i % 7), null, null);
+    }
+}
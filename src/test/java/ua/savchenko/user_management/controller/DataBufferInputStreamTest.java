@@ -0,0 +1,75 @@
+package ua.savchenko.user_management.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DataBufferInputStreamTest {
+
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    @Test
+    void testReadsEveryBufferInOrder() throws IOException {
+        Flux<DataBuffer> body = Flux.just("{\"a\":", "", "1}\n", "{\"b\":2}").map(this::buffer);
+
+        try (InputStream in = DataBufferInputStream.of(body, 2)) {
+            assertEquals("{\"a\":1}\n{\"b\":2}", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void testRequestsOnlyAsFarAsItIsRead() throws IOException {
+        List<Long> requests = new CopyOnWriteArrayList<>();
+        Flux<DataBuffer> body = Flux.just("ab", "cd", "ef").map(this::buffer).doOnRequest(requests::add);
+
+        try (InputStream in = DataBufferInputStream.of(body, 1)) {
+            assertEquals(List.of(1L), requests);
+            assertEquals('a', in.read());
+            assertEquals('b', in.read());
+            assertEquals(List.of(1L), requests);
+            assertEquals('c', in.read());
+            assertEquals(List.of(1L, 1L), requests);
+            assertEquals("def", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void testErrorOfTheBodyFailsTheRead() {
+        Flux<DataBuffer> body = Flux.concat(Flux.just(buffer("ab")), Flux.error(new IllegalStateException("reset")));
+
+        InputStream in = DataBufferInputStream.of(body, 4);
+        IOException thrown = assertThrows(IOException.class, in::readAllBytes);
+        assertEquals("reset", thrown.getCause().getMessage());
+        assertThrows(IOException.class, in::read);
+    }
+
+    @Test
+    void testCloseCancelsTheBody() throws IOException {
+        Sinks.Many<DataBuffer> sink = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        InputStream in = DataBufferInputStream.of(sink.asFlux().doOnCancel(() -> cancelled.set(true)), 4);
+        sink.tryEmitNext(buffer("ab"));
+
+        assertEquals('a', in.read());
+        in.close();
+
+        assertTrue(cancelled.get());
+        assertThrows(IOException.class, in::read);
+    }
+
+    private DataBuffer buffer(String text) {
+        return bufferFactory.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,168 @@
+package ua.savchenko.user_management.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ua.savchenko.user_management.configuration.CborConfiguration;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.NotFoundException;
+import ua.savchenko.user_management.exception.ReactiveBusinessExceptionHandler;
+import ua.savchenko.user_management.exception.TooManyRequestsException;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.metrics.UserMetrics;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.service.ReactiveUserService;
+import ua.savchenko.user_management.service.UserAdmission;
+import ua.savchenko.user_management.service.UserJsonCache;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.*;
+
+@WebFluxTest(ReactiveUserController.class)
+@Import({ReactiveBusinessExceptionHandler.class, UserConfiguration.class, CborConfiguration.class})
+public class ReactiveUserControllerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @MockBean
+    private ReactiveUserService reactiveUserService;
+
+    @MockBean
+    private UserMetrics userMetrics;
+
+    @MockBean
+    private UserAdmission userAdmission;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Jackson2ObjectMapperBuilder objectMapperBuilder;
+
+    private User user;
+
+    @BeforeEach
+    public void setup() {
+        user = new User("test@example.com", "John", "Doe", LocalDate.of(1980, 1, 1), "123 Test St", "1234567890");
+    }
+
+    @Test
+    void testCreateUserShouldReturnCreatedUser() {
+        given(reactiveUserService.createUser(any(User.class))).willReturn(Mono.just(user));
+        webTestClient.post().uri("/api/user")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(user)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody().jsonPath("$.email").isEqualTo(user.getEmail());
+    }
+
+    @Test
+    void testCreateUserWithInvalidFieldsShouldReturnBadRequest() {
+        User invalidUser = new User("", "", "", LocalDate.now().plusDays(1), "", "");
+        given(reactiveUserService.createUser(invalidUser))
+                .willReturn(Mono.error(new ValidatorException("Email is required")));
+        webTestClient.post().uri("/api/user")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(invalidUser)
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().jsonPath("$.statusCode").isEqualTo(400)
+                .jsonPath("$.errorMessage").isEqualTo("Email is required");
+    }
+
+    @Test
+    void testGetUserWithMatchingIfNoneMatchShouldReturnNotModified() throws Exception {
+        given(reactiveUserService.findUserJson("test@example.com"))
+                .willReturn(Mono.just(new UserJsonCache.Entry(7, objectMapper.writeValueAsBytes(user))));
+        webTestClient.get().uri("/api/user/{email}", "test@example.com")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("ETag", "\"7\"")
+                .expectBody().jsonPath("$.email").isEqualTo(user.getEmail());
+        webTestClient.get().uri("/api/user/{email}", "test@example.com")
+                .header("If-None-Match", "\"7\"")
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+    }
+
+    @Test
+    void testDeleteUserWhenUserNotFoundShouldReturnNotFoundStatus() {
+        given(reactiveUserService.deleteUser("not_found@example.com"))
+                .willReturn(Mono.error(new NotFoundException("User not found")));
+        webTestClient.delete().uri("/api/user/{email}", "not_found@example.com")
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody()
+                .jsonPath("$.errorMessage").isEqualTo("User not found")
+                .jsonPath("$.statusCode").isEqualTo(404);
+        verify(userMetrics).recordError(NotFoundException.class);
+    }
+
+    @Test
+    void testSearchUsersByBirthDateRangeAsNdjsonStreamsOneUserPerLine() throws Exception {
+        LocalDate from = LocalDate.of(1970, 1, 1);
+        LocalDate to = LocalDate.of(1990, 12, 31);
+        User other = new User("other@example.com", "Jane", "Doe", LocalDate.of(1985, 1, 1), null, null);
+        given(reactiveUserService.streamUsersByBirthDateRange(from, to)).willReturn(Flux.just(user, other));
+
+        webTestClient.get().uri(uri -> uri.path("/api/user/search")
+                        .queryParam("from", from)
+                        .queryParam("to", to)
+                        .build())
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBody(String.class).isEqualTo(objectMapper.writeValueAsString(user) + "\n"
+                        + objectMapper.writeValueAsString(other) + "\n");
+        verify(userAdmission).acquireSearchWithoutQueueing(null);
+        verify(userAdmission, timeout(1000)).releaseSearch();
+    }
+
+    @Test
+    void testRejectedClientShouldGetTooManyRequestsWithRetryAfter() {
+        willThrow(new TooManyRequestsException("Too many requests", 3)).given(userAdmission).admit(eq("client-1"), any());
+
+        webTestClient.get().uri("/api/user/{email}", "test@example.com")
+                .header("X-API-Key", "client-1")
+                .exchange()
+                .expectStatus().isEqualTo(429)
+                .expectHeader().valueEquals("Retry-After", "3")
+                .expectBody()
+                .jsonPath("$.errorMessage").isEqualTo("Too many requests")
+                .jsonPath("$.statusCode").isEqualTo(429);
+        verifyNoInteractions(reactiveUserService);
+        verify(userMetrics).recordError(TooManyRequestsException.class);
+    }
+
+    @Test
+    void testGetUserAsCborShouldReturnUserWithEpochDayDate() throws Exception {
+        given(reactiveUserService.findUser("test@example.com")).willReturn(Mono.just(user.withVersion(7)));
+
+        byte[] body = webTestClient.get().uri("/api/user/{email}", "test@example.com")
+                .accept(MediaType.APPLICATION_CBOR)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("ETag", "\"7\"")
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_CBOR)
+                .expectBody(byte[].class).returnResult().getResponseBody();
+
+        ObjectMapper cborMapper = CborConfiguration.cborMapper(objectMapperBuilder);
+        assertEquals(user.getBirthDate().toEpochDay(), cborMapper.readTree(body).get("birthDate").longValue());
+        assertEquals(user.withVersion(7), cborMapper.readValue(body, User.class));
+    }
+}
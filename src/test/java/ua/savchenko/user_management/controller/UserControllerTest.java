@@ -1,6 +1,8 @@
 package ua.savchenko.user_management.controller;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,20 +10,41 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import ua.savchenko.user_management.configuration.CborConfiguration;
+import ua.savchenko.user_management.configuration.UserConfiguration;
 import ua.savchenko.user_management.exception.BusinessExceptionHandler;
+import ua.savchenko.user_management.metrics.UserMetrics;
+import ua.savchenko.user_management.model.BatchItemResult;
+import ua.savchenko.user_management.model.BatchResult;
 import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserOperation;
+import ua.savchenko.user_management.model.UserOperationResult;
+import ua.savchenko.user_management.model.UserOperationsResult;
+import ua.savchenko.user_management.model.UserPage;
+import ua.savchenko.user_management.service.UserAdmission;
+import ua.savchenko.user_management.service.UserImportService;
+import ua.savchenko.user_management.service.UserJsonCache;
+import ua.savchenko.user_management.service.UserOperationService;
 import ua.savchenko.user_management.service.UserService;
 import ua.savchenko.user_management.exception.NotFoundException;
+import ua.savchenko.user_management.exception.PreconditionFailedException;
+import ua.savchenko.user_management.exception.TooManyRequestsException;
+import ua.savchenko.user_management.exception.ValidatorException;
 import java.time.LocalDate;
 import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.BDDMockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @WebMvcTest(UserController.class)
-@Import({BusinessExceptionHandler.class})
+@Import({BusinessExceptionHandler.class, UserConfiguration.class, CborConfiguration.class})
 public class UserControllerTest {
 
     @Autowired
@@ -30,9 +53,24 @@ public class UserControllerTest {
     @MockBean
     private UserService userService;
 
+    @MockBean
+    private UserImportService userImportService;
+
+    @MockBean
+    private UserOperationService userOperationService;
+
+    @MockBean
+    private UserMetrics userMetrics;
+
+    @MockBean
+    private UserAdmission userAdmission;
+
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private Jackson2ObjectMapperBuilder objectMapperBuilder;
+
     private User user;
 
     @BeforeEach
@@ -53,25 +91,87 @@ public class UserControllerTest {
     @Test
     void testCreateUserWithInvalidFieldsShouldReturnBadRequest() throws Exception {
         User invalidUser = new User("", "", "", LocalDate.now().plusDays(1), "", "");
+        willThrow(new ValidatorException("Email is required")).given(userService).createUser(invalidUser);
         mockMvc.perform(post("/api/user")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(invalidUser)))
-                .andExpect(status().isBadRequest());
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.errorMessage").value("Email is required"));
+    }
+
+    @Test
+    void testGetUserByEmailShouldReturnCachedJsonWithETag() throws Exception {
+        given(userService.findUserJson("test@example.com"))
+                .willReturn(new UserJsonCache.Entry(7, objectMapper.writeValueAsBytes(user)));
+        mockMvc.perform(get("/api/user/{email}", "test@example.com"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"7\""))
+                .andExpect(jsonPath("$.email").value(user.getEmail()));
+    }
+
+    @Test
+    void testGetUserWithMatchingIfNoneMatchShouldReturnNotModified() throws Exception {
+        given(userService.findUserJson("test@example.com"))
+                .willReturn(new UserJsonCache.Entry(7, objectMapper.writeValueAsBytes(user)));
+        mockMvc.perform(get("/api/user/{email}", "test@example.com")
+                        .header("If-None-Match", "\"7\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    void testGetUserWhenUserNotFoundShouldReturnNotFoundStatus() throws Exception {
+        willThrow(new NotFoundException("User not found")).given(userService).findUserJson("not_found@example.com");
+        mockMvc.perform(get("/api/user/{email}", "not_found@example.com"))
+                .andExpect(status().isNotFound());
     }
 
     @Test
     void testUpdateUserByEmailShouldReturnUpdatedUser() throws Exception {
-        given(userService.updateUser(eq("test@example.com"), any(User.class))).willReturn(user);
+        given(userService.replaceUser(eq("test@example.com"), any(User.class), isNull())).willReturn(user.withVersion(8));
         mockMvc.perform(put("/api/user/{email}", user.getEmail())
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(user)))
                 .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"8\""))
                 .andExpect(jsonPath("$.email").value(user.getEmail()));
     }
 
+    @Test
+    void testPatchUserWithIfMatchPassesExpectedVersion() throws Exception {
+        given(userService.updateUser(eq("test@example.com"), any(User.class), eq(7L))).willReturn(user.withVersion(8));
+        mockMvc.perform(patch("/api/user/{email}", user.getEmail())
+                        .header("If-Match", "\"7\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(user)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"8\""));
+    }
+
+    @Test
+    void testPatchUserWithStaleIfMatchShouldReturnPreconditionFailed() throws Exception {
+        willThrow(new PreconditionFailedException("User test@example.com has version 8, not 7"))
+                .given(userService).updateUser(eq("test@example.com"), any(User.class), eq(7L));
+        mockMvc.perform(patch("/api/user/{email}", user.getEmail())
+                        .header("If-Match", "\"7\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(user)))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    void testPutUserWithUnknownIfMatchShouldReturnPreconditionFailed() throws Exception {
+        mockMvc.perform(put("/api/user/{email}", user.getEmail())
+                        .header("If-Match", "W/\"7\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(user)))
+                .andExpect(status().isPreconditionFailed());
+        verify(userService, never()).replaceUser(any(), any(), any());
+    }
+
     @Test
     void testUpdateUserWhenUserNotFoundShouldReturnNotFoundStatus() throws Exception {
-        willThrow(new NotFoundException("User not found")).given(userService).updateUser(eq("not_found@example.com"), any(User.class));
+        willThrow(new NotFoundException("User not found")).given(userService).replaceUser(eq("not_found@example.com"), any(User.class), isNull());
         mockMvc.perform(put("/api/user/{email}", "not_found@example.com")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(user)))
@@ -90,6 +190,18 @@ public class UserControllerTest {
         willThrow(new NotFoundException("User not found")).given(userService).deleteUser("not_found@example.com");
         mockMvc.perform(delete("/api/user/{email}", "not_found@example.com"))
                 .andExpect(status().isNotFound());
+        verify(userMetrics).recordError(NotFoundException.class);
+    }
+
+    @Test
+    void testLookupUsersShouldReturnRankedUsers() throws Exception {
+        given(userService.lookupUsers("joh", 5)).willReturn(List.of(user));
+
+        mockMvc.perform(get("/api/user/lookup")
+                        .param("q", "joh")
+                        .param("limit", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].email").value(user.getEmail()));
     }
 
     @Test
@@ -105,6 +217,128 @@ public class UserControllerTest {
                 .andExpect(jsonPath("$[0].email").value(user.getEmail()));
 
         verify(userService).findUsersByBirthDateRange(from, to);
+        verify(userAdmission).acquireSearch(null);
+        verify(userAdmission).releaseSearch();
+    }
+
+    @Test
+    void testSearchUsersByBirthDateRangeWithLimitReturnsPage() throws Exception {
+        LocalDate from = LocalDate.of(1970, 1, 1);
+        LocalDate to = LocalDate.of(1990, 12, 31);
+        given(userService.findUsersByBirthDateRange(from, to, "cursor", 1)).willReturn(new UserPage(List.of(user), "next"));
+
+        mockMvc.perform(get("/api/user/search")
+                        .param("from", from.toString())
+                        .param("to", to.toString())
+                        .param("limit", "1")
+                        .param("after", "cursor"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.users[0].email").value(user.getEmail()))
+                .andExpect(jsonPath("$.nextCursor").value("next"));
+    }
+
+    @Test
+    void testSearchUsersByBirthDateRangeAsNdjsonStreamsOneUserPerLine() throws Exception {
+        LocalDate from = LocalDate.of(1970, 1, 1);
+        LocalDate to = LocalDate.of(1990, 12, 31);
+        User other = new User("other@example.com", "Jane", "Doe", LocalDate.of(1985, 1, 1), null, null);
+        given(userService.streamUsersByBirthDateRange(from, to)).willReturn(Stream.of(user, other));
+
+        MvcResult result = mockMvc.perform(get("/api/user/search")
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .param("from", from.toString())
+                        .param("to", to.toString()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string(objectMapper.writeValueAsString(user) + "\n"
+                        + objectMapper.writeValueAsString(other) + "\n"));
+        verify(userAdmission).releaseSearch();
+    }
+
+    @Test
+    void testRejectedClientShouldGetTooManyRequestsWithRetryAfter() throws Exception {
+        willThrow(new TooManyRequestsException("Too many requests", 3)).given(userAdmission).admit(eq("client-1"), any());
+
+        mockMvc.perform(get("/api/user/{email}", "test@example.com").header("X-API-Key", "client-1"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string("Retry-After", "3"))
+                .andExpect(jsonPath("$.errorMessage").value("Too many requests"))
+                .andExpect(jsonPath("$.statusCode").value(429));
+        verifyNoInteractions(userService);
+        verify(userMetrics).recordError(TooManyRequestsException.class);
+    }
+
+    @Test
+    void testImportUsersReturnsPerItemReport() throws Exception {
+        BatchResult batchResult = new BatchResult(1, 0, 1, 0, List.of(
+                new BatchItemResult(0, user.getEmail(), BatchItemResult.Status.CREATED, null),
+                new BatchItemResult(1, user.getEmail(), BatchItemResult.Status.DUPLICATE_EMAIL, null)));
+        given(userImportService.importUsers(any(), eq(false))).willReturn(batchResult);
+
+        mockMvc.perform(post("/api/user/batch")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content(objectMapper.writeValueAsString(user) + "\n" + objectMapper.writeValueAsString(user)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created").value(1))
+                .andExpect(jsonPath("$.duplicates").value(1))
+                .andExpect(jsonPath("$.items[1].status").value("DUPLICATE_EMAIL"));
+    }
+
+    @Test
+    void testRunOperationsPassesOrderedOperationsAndAtomic() throws Exception {
+        given(userOperationService.runOperations(anyList(), eq(true))).willReturn(new UserOperationsResult(1, 1, List.of(
+                new UserOperationResult(0, user.getEmail(), 201, user, null),
+                new UserOperationResult(1, "other@example.com", 404, null, "User not found"))));
+
+        mockMvc.perform(post("/api/user/ops")
+                        .param("atomic", "true")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"op\":\"CREATE\",\"user\":" + objectMapper.writeValueAsString(user) + "},"
+                                + "{\"op\":\"DELETE\",\"email\":\"other@example.com\"}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.applied").value(1))
+                .andExpect(jsonPath("$.results[0].user.email").value(user.getEmail()))
+                .andExpect(jsonPath("$.results[1].status").value(404));
+        verify(userOperationService).runOperations(argThat(operations -> operations.size() == 2
+                && operations.get(0).op() == UserOperation.Type.CREATE
+                && operations.get(1).email().equals("other@example.com")), eq(true));
+    }
+
+    @Test
+    void testUsersAreNegotiatedAsCborWithEpochDayDates() throws Exception {
+        ObjectMapper cborMapper = CborConfiguration.cborMapper(objectMapperBuilder);
+        given(userService.createUser(any(User.class))).willAnswer(invocation -> invocation.getArgument(0));
+
+        byte[] created = mockMvc.perform(post("/api/user")
+                        .contentType(MediaType.APPLICATION_CBOR)
+                        .accept(MediaType.APPLICATION_CBOR)
+                        .content(cborMapper.writeValueAsBytes(user.withAddress(null))))
+                .andExpect(status().is2xxSuccessful())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        JsonNode node = new ObjectMapper(new CBORFactory()).readTree(created);
+        assertEquals(user.getBirthDate().toEpochDay(), node.get("birthDate").longValue());
+        assertFalse(node.has("address"));
+        assertEquals(user.withAddress(null), cborMapper.readValue(created, User.class));
+    }
+
+    @Test
+    void testGetUserAsCborShouldReturnUserWithETag() throws Exception {
+        given(userService.findUser("test@example.com")).willReturn(user.withVersion(7));
+
+        byte[] body = mockMvc.perform(get("/api/user/{email}", "test@example.com")
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"7\""))
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
 
+        assertEquals(user.withVersion(7), CborConfiguration.cborMapper(objectMapperBuilder).readValue(body, User.class));
+        verify(userService, never()).findUserJson(any());
     }
 }
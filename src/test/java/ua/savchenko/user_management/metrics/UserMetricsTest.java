@@ -0,0 +1,65 @@
+package ua.savchenko.user_management.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ua.savchenko.user_management.exception.DuplicateEmailException;
+import ua.savchenko.user_management.exception.NotFoundException;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.storage.InMemoryUserStorage;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserMetricsTest {
+
+    private SimpleMeterRegistry registry;
+    private UserStorage userStorage;
+    private UserMetrics userMetrics;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        userStorage = new InMemoryUserStorage();
+        userMetrics = new UserMetrics(registry, userStorage);
+    }
+
+    @Test
+    void testOperationLatencyIsRecordedPerOperation() {
+        userMetrics.record(UserMetrics.Operation.CREATE, System.nanoTime() - 1_000_000);
+        userMetrics.record(UserMetrics.Operation.CREATE, System.nanoTime());
+        userMetrics.record(UserMetrics.Operation.SEARCH, System.nanoTime());
+
+        assertEquals(2, registry.get("user.operation").tag("operation", "create").timer().count());
+        assertEquals(1, registry.get("user.operation").tag("operation", "search").timer().count());
+        assertEquals(0, registry.get("user.operation").tag("operation", "delete").timer().count());
+    }
+
+    @Test
+    void testErrorsAreCountedByCause() {
+        userMetrics.recordError(NotFoundException.class);
+        userMetrics.recordError(NotFoundException.class);
+        userMetrics.recordError(DuplicateEmailException.class);
+        userMetrics.recordError(ValidatorException.class);
+        userMetrics.recordError(IllegalStateException.class);
+
+        assertEquals(2, registry.get("user.errors").tag("status", "404").counter().count());
+        assertEquals(1, registry.get("user.errors").tag("status", "409").counter().count());
+        assertEquals(1, registry.get("user.errors").tag("error", "validation").counter().count());
+        assertEquals(1, registry.get("user.errors").tag("error", "other").counter().count());
+    }
+
+    @Test
+    void testGaugesFollowStorage() {
+        userStorage.insert(new User("john@example.com", "John", "Doe", LocalDate.of(1990, 1, 1), null, null));
+        userStorage.insert(new User("jane@example.com", "Jane", "Doe", LocalDate.of(1990, 1, 1), null, null));
+        userMetrics.recordSearchResults(2);
+
+        assertEquals(2, registry.get("user.storage.users").gauge().value());
+        assertEquals(1, registry.get("user.storage.birth.date.index.days").gauge().value());
+        assertEquals(2, registry.get("user.search.results").summary().totalAmount());
+    }
+}
@@ -0,0 +1,144 @@
+package ua.savchenko.user_management.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.TooManyRequestsException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserAdmissionTest {
+
+    private SimpleMeterRegistry registry;
+    private UserConfiguration userConfiguration;
+    private AtomicLong now;
+    private UserAdmission userAdmission;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        userConfiguration = new UserConfiguration();
+        userConfiguration.getAdmission().setRate(10);
+        userConfiguration.getAdmission().setBurst(3);
+        userConfiguration.getAdmission().setMaxConcurrentSearches(1);
+        userConfiguration.getAdmission().setSearchQueueTimeout(Duration.ofMillis(50));
+        userConfiguration.getAdmission().setKeys(Set.of("client-1", "client-2"));
+        now = new AtomicLong(-TimeUnit.SECONDS.toNanos(100));
+        userAdmission = new UserAdmission(userConfiguration, registry, now::get);
+    }
+
+    @Test
+    void testBurstIsAdmittedThenTheRateAndEveryClientHasItsOwnBucket() {
+        for (int i = 0; i < 3; i++) {
+            userAdmission.admit("client-1", "10.0.0.1");
+        }
+        TooManyRequestsException e = assertThrows(TooManyRequestsException.class,
+                () -> userAdmission.admit("client-1", "10.0.0.1"));
+        assertEquals(1, e.getRetryAfterSeconds());
+
+        userAdmission.admit("client-2", "10.0.0.1");
+        userAdmission.admit(null, "10.0.0.1");
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        userAdmission.admit("client-1", "10.0.0.1");
+        assertThrows(TooManyRequestsException.class, () -> userAdmission.admit("client-1", "10.0.0.1"));
+
+        assertEquals(2, registry.get("user.admission.rejected").tag("client", UserAdmission.keyTag("client-1"))
+                .tag("reason", "rate").counter().count());
+        assertNull(registry.find("user.admission.rejected").tag("client", "client-1").counter());
+        assertEquals(3, registry.get("user.admission.clients").gauge().value());
+    }
+
+    @Test
+    void testClientsWithoutKeyAreLimitedByAddressAndCountedAsAnonymous() {
+        for (int i = 0; i < 3; i++) {
+            userAdmission.admit(null, "10.0.0.1");
+        }
+        assertThrows(TooManyRequestsException.class, () -> userAdmission.admit("", "10.0.0.1"));
+        userAdmission.admit(null, "10.0.0.2");
+
+        assertEquals(1, registry.get("user.admission.rejected").tag("client", "anonymous").counter().count());
+    }
+
+    @Test
+    void testUnregisteredKeysAreLimitedByAddress() {
+        for (int i = 0; i < 3; i++) {
+            userAdmission.admit("made-up-" + i, "10.0.0.1");
+        }
+        assertThrows(TooManyRequestsException.class, () -> userAdmission.admit("made-up-3", "10.0.0.1"));
+        userAdmission.admit("client-1", "10.0.0.1");
+
+        assertEquals(1, registry.get("user.admission.rejected").tag("client", "anonymous").counter().count());
+        assertEquals(2, registry.get("user.admission.clients").gauge().value());
+    }
+
+    @Test
+    void testSearchesAreRejectedWhenNoSlotFreesUpInTime() {
+        userAdmission.acquireSearch("client-1");
+        assertEquals(1, registry.get("user.admission.searches.active").gauge().value());
+
+        TooManyRequestsException e = assertThrows(TooManyRequestsException.class,
+                () -> userAdmission.acquireSearch("client-2"));
+        assertEquals(1, e.getRetryAfterSeconds());
+        assertThrows(TooManyRequestsException.class, () -> userAdmission.acquireSearchWithoutQueueing("client-2"));
+        assertEquals(2, registry.get("user.admission.rejected").tag("client", UserAdmission.keyTag("client-2"))
+                .tag("reason", "concurrency").counter().count());
+        assertEquals(1, registry.get("user.admission.search.wait").tag("client", UserAdmission.keyTag("client-2"))
+                .timer().count());
+
+        userAdmission.releaseSearch();
+        userAdmission.acquireSearchWithoutQueueing("client-2");
+    }
+
+    @Test
+    void testQueuedSearchGetsTheSlotOfAFinishedOne() throws InterruptedException {
+        userConfiguration.getAdmission().setSearchQueueTimeout(Duration.ofSeconds(10));
+        registry = new SimpleMeterRegistry();
+        userAdmission = new UserAdmission(userConfiguration, registry, now::get);
+        userAdmission.acquireSearch("client-1");
+
+        Thread queued = new Thread(() -> userAdmission.acquireSearch("client-2"));
+        queued.start();
+        while (registry.get("user.admission.searches.queued").gauge().value() == 0) {
+            Thread.onSpinWait();
+        }
+        userAdmission.releaseSearch();
+        queued.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertFalse(queued.isAlive());
+        assertEquals(1, registry.get("user.admission.searches.active").gauge().value());
+        assertEquals(1, registry.get("user.admission.search.wait").tag("client", UserAdmission.keyTag("client-2"))
+                .timer().count());
+    }
+
+    @Test
+    void testEveryScanOrBulkCallNeedsASearchSlot() {
+        for (String path : List.of("/api/user/search", "/api/user/search/stream", "/api/user/lookup",
+                "/api/user/batch", "/api/user/ops", "/api/user/export", "/api/user/export/files",
+                "/api/user/stats/ages", "/api/user/shard/search", "/api/user/shard/stats/domains")) {
+            assertTrue(UserAdmission.isSearch(path), path);
+        }
+        for (String path : List.of("/api/user", "/api/user/search@example.com", "/api/user/statsman@example.com",
+                "/api/user/changes")) {
+            assertFalse(UserAdmission.isSearch(path), path);
+        }
+    }
+
+    @Test
+    void testDisabledAdmissionLetsEverythingThrough() {
+        userConfiguration.getAdmission().setEnabled(false);
+        userAdmission = new UserAdmission(userConfiguration, registry, now::get);
+
+        for (int i = 0; i < 100; i++) {
+            userAdmission.admit("client-1", "10.0.0.1");
+            userAdmission.acquireSearch("client-1");
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package ua.savchenko.user_management.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.ChangesExpiredException;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserChangeEvent;
+import ua.savchenko.user_management.model.UserChanges;
+import ua.savchenko.user_management.storage.InMemoryUserStorage;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserChangeFeedTest {
+
+    private static final Instant NOW = Instant.parse("2024-05-01T10:00:00Z");
+
+    private UserStorage userStorage;
+    private UserChangeFeed userChangeFeed;
+
+    @BeforeEach
+    void setUp() {
+        UserConfiguration userConfiguration = new UserConfiguration();
+        userConfiguration.setMaxPageSize(1000);
+        userConfiguration.getChanges().setCapacity(4);
+        userConfiguration.getChanges().setPollTimeout(Duration.ofSeconds(5));
+        userStorage = new InMemoryUserStorage();
+        userChangeFeed = new UserChangeFeed(userStorage, userConfiguration, Clock.fixed(NOW, ZoneOffset.UTC));
+        userChangeFeed.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        userChangeFeed.close();
+    }
+
+    @Test
+    void testEveryChangeIsPublishedInOrder() {
+        User john = user("john@example.com", "John");
+        User johnny = user("john@example.com", "Johnny");
+        User moved = user("moved@example.com", "Johnny");
+        userStorage.insert(john);
+        userStorage.compareAndSet(john.getEmail(), john, johnny);
+        userStorage.compareAndSet(johnny.getEmail(), johnny, moved);
+        userStorage.remove(moved.getEmail());
+
+        List<UserChangeEvent> events = userChangeFeed.read(0, 10);
+
+        assertEquals(List.of(
+                new UserChangeEvent(1, UserChangeEvent.Type.CREATED, "john@example.com", null, john, NOW),
+                new UserChangeEvent(2, UserChangeEvent.Type.UPDATED, "john@example.com", null, johnny, NOW),
+                new UserChangeEvent(3, UserChangeEvent.Type.UPDATED, "moved@example.com", "john@example.com", moved, NOW),
+                new UserChangeEvent(4, UserChangeEvent.Type.DELETED, "moved@example.com", null, null, NOW)), events);
+        assertEquals(List.of(3L, 4L), userChangeFeed.read(2, 10).stream().map(UserChangeEvent::sequence).toList());
+        assertEquals(1, userChangeFeed.read(0, 1).size());
+        assertTrue(userChangeFeed.read(4, 10).isEmpty());
+    }
+
+    @Test
+    void testConsumerOvertakenByTheRingHasToResync() {
+        for (int i = 0; i < 6; i++) {
+            userStorage.insert(user("user" + i + "@example.com", "John"));
+        }
+
+        ChangesExpiredException thrown = assertThrows(ChangesExpiredException.class, () -> userChangeFeed.read(1, 10));
+        assertTrue(thrown.getMessage().endsWith("the oldest is 3"));
+        assertEquals(List.of(3L, 4L, 5L, 6L), userChangeFeed.read(2, 10).stream().map(UserChangeEvent::sequence).toList());
+        assertThrows(ChangesExpiredException.class, () -> userChangeFeed.read(7, 10));
+        assertThrows(ValidatorException.class, () -> userChangeFeed.read(-1, 10));
+    }
+
+    @Test
+    void testAwaitReturnsOnPublishAndTimesOutWithoutOne() throws Exception {
+        assertTrue(userChangeFeed.await(0, 10, Duration.ofMillis(50)).isEmpty());
+
+        CompletableFuture<UserChanges> poll = userChangeFeed.poll(0, 10);
+        Thread.sleep(50);
+        assertFalse(poll.isDone());
+        userStorage.insert(user("john@example.com", "John"));
+
+        UserChanges changes = poll.get(5, TimeUnit.SECONDS);
+        assertEquals(1, changes.events().size());
+        assertEquals(1, changes.next());
+    }
+
+    @Test
+    void testSubscriberReceivesEventsUntilCancelled() throws Exception {
+        userStorage.insert(user("before@example.com", "John"));
+        List<UserChangeEvent> received = new CopyOnWriteArrayList<>();
+        CountDownLatch three = new CountDownLatch(3);
+
+        Future<?> subscription = userChangeFeed.subscribe(0, new UserChangeFeed.Subscriber() {
+            @Override
+            public void onEvents(List<UserChangeEvent> events) {
+                received.addAll(events);
+                events.forEach(event -> three.countDown());
+            }
+
+            @Override
+            public void onIdle() throws IOException {
+            }
+
+            @Override
+            public void onExpired(ChangesExpiredException e) {
+                fail(e);
+            }
+        });
+        userStorage.insert(user("after1@example.com", "John"));
+        userStorage.insert(user("after2@example.com", "John"));
+
+        assertTrue(three.await(5, TimeUnit.SECONDS));
+        subscription.cancel(true);
+        assertEquals(List.of("before@example.com", "after1@example.com", "after2@example.com"),
+                received.stream().map(UserChangeEvent::email).toList());
+    }
+
+    @Test
+    void testWriterLappedByTheRingDoesNotOverwriteNewerEvents() throws Exception {
+        CountDownLatch claimed = new CountDownLatch(1);
+        CountDownLatch lapped = new CountDownLatch(1);
+        // Stalls the first writer after it claimed its sequence, while it creates its event
+        Clock clock = new Clock() {
+            @Override
+            public Instant instant() {
+                if (claimed.getCount() > 0) {
+                    claimed.countDown();
+                    try {
+                        lapped.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return NOW;
+            }
+
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+        };
+        UserConfiguration userConfiguration = new UserConfiguration();
+        userConfiguration.getChanges().setCapacity(4);
+        UserChangeFeed feed = new UserChangeFeed(userStorage, userConfiguration, clock);
+
+        Thread slow = new Thread(() -> feed.changed("slow@example.com", null, user("slow@example.com", "John")));
+        slow.start();
+        assertTrue(claimed.await(5, TimeUnit.SECONDS));
+        for (int i = 2; i <= 5; i++) {
+            feed.changed("user" + i + "@example.com", null, user("user" + i + "@example.com", "John"));
+        }
+        lapped.countDown();
+        slow.join(5000);
+
+        assertEquals(List.of(2L, 3L, 4L, 5L), feed.read(1, 10).stream().map(UserChangeEvent::sequence).toList());
+        assertThrows(ChangesExpiredException.class, () -> feed.read(0, 10));
+    }
+
+    private static User user(String email, String firstName) {
+        return new User(email, firstName, "Doe", LocalDate.of(1990, 1, 1), null, null);
+    }
+}
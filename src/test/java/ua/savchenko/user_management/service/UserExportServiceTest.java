@@ -0,0 +1,114 @@
+package ua.savchenko.user_management.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.NotFoundException;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserExportFile;
+import ua.savchenko.user_management.storage.InMemoryUserStorage;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserExportServiceTest {
+
+    private static final Instant NOW = Instant.parse("2024-05-01T02:00:00Z");
+
+    @TempDir
+    private Path directory;
+
+    private UserStorage userStorage;
+    private ObjectMapper objectMapper;
+    private UserExportService userExportService;
+
+    @BeforeEach
+    void setUp() {
+        UserConfiguration userConfiguration = new UserConfiguration();
+        userConfiguration.getExport().setDirectory(directory.toString());
+        userStorage = new InMemoryUserStorage();
+        objectMapper = JsonMapper.builder().findAndAddModules().build();
+        userExportService = new UserExportService(userStorage, userConfiguration, objectMapper,
+                Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    void testNdjsonExportWritesEveryUserOnOneLine() throws Exception {
+        User john = user("john@example.com", "John", "1 Baker Street");
+        User jane = user("jane@example.com", "Jane", null);
+        userStorage.insert(john);
+        userStorage.insert(jane);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(2, userExportService.export(UserExportService.Format.NDJSON, false, out));
+
+        List<User> exported = out.toString(StandardCharsets.UTF_8).lines()
+                .map(this::readUser)
+                .sorted(Comparator.comparing(User::getEmail))
+                .toList();
+        assertEquals(List.of(jane, john), exported);
+    }
+
+    @Test
+    void testCsvExportQuotesFieldsWithSeparatorsAndIsGzipped() throws Exception {
+        userStorage.insert(user("john@example.com", "John", "1 Baker Street, \"Flat 2\""));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        userExportService.export(UserExportService.Format.CSV, true, out);
+
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals("email,firstName,lastName,birthDate,address,phoneNumber\r\n"
+                            + "john@example.com,John,Doe,1990-01-01,\"1 Baker Street, \"\"Flat 2\"\"\",\r\n",
+                    new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void testExportFileIsWrittenAndOnlyKnownNamesAreServed() throws Exception {
+        userStorage.insert(user("john@example.com", "John", null));
+
+        UserExportFile file = userExportService.createExportFile(UserExportService.Format.NDJSON, true);
+
+        assertEquals("users-20240501T020000000Z.ndjson.gz", file.name());
+        assertEquals(1, file.users());
+        assertEquals(NOW, file.createdAt());
+        Path path = userExportService.findExportFile(file.name());
+        assertEquals(file.size(), Files.size(path));
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            assertEquals("john@example.com", readUser(new String(in.readAllBytes(), StandardCharsets.UTF_8).trim()).getEmail());
+        }
+        assertThrows(NotFoundException.class, () -> userExportService.findExportFile("../" + file.name()));
+        assertThrows(NotFoundException.class, () -> userExportService.findExportFile("users-20240501T020000001Z.csv"));
+        assertThrows(ValidatorException.class, () -> UserExportService.Format.of("xml"));
+    }
+
+    private User readUser(String json) {
+        try {
+            return objectMapper.readValue(json, User.class);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static User user(String email, String firstName, String address) {
+        return new User(email, firstName, "Doe", LocalDate.of(1990, 1, 1), address, null);
+    }
+}
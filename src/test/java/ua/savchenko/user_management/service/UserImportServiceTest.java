@@ -0,0 +1,162 @@
+package ua.savchenko.user_management.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.model.BatchItemResult;
+import ua.savchenko.user_management.model.BatchResult;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.storage.InMemoryUserStorage;
+import ua.savchenko.user_management.storage.UserStorage;
+import ua.savchenko.user_management.util.AgeValidator;
+import ua.savchenko.user_management.util.UserValidator;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class UserImportServiceTest {
+
+    private UserImportService userImportService;
+
+    private UserStorage userStorage;
+
+    private ObjectMapper objectMapper;
+
+    @Mock
+    private AgeValidator ageValidator;
+
+    @Mock
+    private UserConfiguration userConfiguration;
+
+    @Mock
+    private UserJsonCache userJsonCache;
+
+    @Mock
+    private UserCluster userCluster;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(userConfiguration.getImportBatchSize()).thenReturn(2);
+        userStorage = new InMemoryUserStorage();
+        objectMapper = JsonMapper.builder().findAndAddModules().build();
+        userImportService = new UserImportService(userStorage, new UserValidator(ageValidator), objectMapper,
+                userConfiguration, userJsonCache, userCluster);
+    }
+
+    @Test
+    void testImportUsersFromJsonArrayReportsEveryItem() throws Exception {
+        User existing = user("existing@example.com", "John");
+        userStorage.insert(existing);
+        User tooYoung = new User("young@example.com", "Kid", "Doe", LocalDate.of(2020, 1, 1), null, null);
+        when(ageValidator.check(LocalDate.of(2020, 1, 1))).thenReturn("User must be at least 18 years old");
+
+        List<User> users = List.of(user("new@example.com", "Jane"), user("existing@example.com", "Jack"),
+                user("not-an-email", "Jim"), tooYoung, user("new@example.com", "Jill"));
+
+        BatchResult result = userImportService.importUsers(json(objectMapper.writeValueAsString(users)), false);
+
+        assertEquals(1, result.created());
+        assertEquals(2, result.duplicates());
+        assertEquals(2, result.invalid());
+        assertEquals(List.of(BatchItemResult.Status.CREATED, BatchItemResult.Status.DUPLICATE_EMAIL,
+                        BatchItemResult.Status.INVALID, BatchItemResult.Status.INVALID,
+                        BatchItemResult.Status.DUPLICATE_EMAIL),
+                result.items().stream().map(BatchItemResult::status).toList());
+        assertEquals("Email should be valid", result.items().get(2).message());
+        assertEquals("John", userStorage.find("existing@example.com").orElseThrow().getFirstName());
+        assertEquals("Jane", userStorage.find("new@example.com").orElseThrow().getFirstName());
+    }
+
+    @Test
+    void testImportUsersFromNdjsonWithUpsertReplacesExistingUsers() throws Exception {
+        userStorage.insert(user("existing@example.com", "John"));
+        String body = objectMapper.writeValueAsString(user("existing@example.com", "Jack")) + "\n"
+                + objectMapper.writeValueAsString(user("new@example.com", "Jane")) + "\n";
+
+        BatchResult result = userImportService.importUsers(json(body), true);
+
+        assertEquals(1, result.created());
+        assertEquals(1, result.updated());
+        assertEquals("Jack", userStorage.find("existing@example.com").orElseThrow().getFirstName());
+        verify(userJsonCache).invalidate("existing@example.com");
+        verify(userJsonCache, never()).invalidate("new@example.com");
+        assertEquals(1, userStorage.findByBirthDateRange(LocalDate.of(1990, 1, 1), LocalDate.of(1990, 1, 1))
+                .stream().filter(u -> u.getEmail().equals("existing@example.com")).count());
+    }
+
+    @Test
+    void testImportUsersReportsItemsThatDoNotBindAndKeepsGoing() throws Exception {
+        String body = "[" + objectMapper.writeValueAsString(user("first@example.com", "Jane"))
+                + ",{\"email\":\"bad@example.com\",\"birthDate\":\"abc\",\"address\":{\"street\":1}}"
+                + ",{\"email\":[1,2]}"
+                + "," + objectMapper.writeValueAsString(user("second@example.com", "Jill")) + "]";
+
+        BatchResult result = userImportService.importUsers(json(body), false);
+
+        assertEquals(2, result.created());
+        assertEquals(2, result.invalid());
+        assertEquals(List.of(BatchItemResult.Status.CREATED, BatchItemResult.Status.INVALID,
+                        BatchItemResult.Status.INVALID, BatchItemResult.Status.CREATED),
+                result.items().stream().map(BatchItemResult::status).toList());
+        assertEquals(List.of(0, 1, 2, 3), result.items().stream().map(BatchItemResult::index).toList());
+        assertTrue(result.items().get(1).message().startsWith("Malformed user"));
+        assertTrue(userStorage.contains("second@example.com"));
+    }
+
+    @Test
+    void testImportUsersMalformedDocumentStopsAndReportsPreviousItems() throws Exception {
+        String body = objectMapper.writeValueAsString(user("first@example.com", "Jane")) + "\n{broken";
+
+        BatchResult result = userImportService.importUsers(json(body), false);
+
+        assertEquals(1, result.created());
+        assertEquals(1, result.invalid());
+        assertEquals(1, result.items().get(1).index());
+        assertTrue(result.items().get(1).message().startsWith("Malformed document"));
+        assertTrue(userStorage.contains("first@example.com"));
+    }
+
+    @Test
+    void testImportUsersSendsUsersOfOtherShardsThereAndKeepsItemOrder() throws Exception {
+        when(userConfiguration.getImportBatchSize()).thenReturn(3);
+        when(userCluster.isEnabled()).thenReturn(true);
+        when(userCluster.shards()).thenReturn(2);
+        when(userCluster.self()).thenReturn(0);
+        when(userCluster.shardOf(anyString())).thenAnswer(call -> call.<String>getArgument(0).startsWith("remote") ? 1 : 0);
+        List<User> remote = List.of(user("remote1@example.com", "Jane"), user("remote2@example.com", "Jill"));
+        when(userCluster.importUsers(1, remote, false)).thenReturn(CompletableFuture.completedFuture(new BatchResult(1, 0, 1, 0,
+                List.of(new BatchItemResult(0, "remote1@example.com", BatchItemResult.Status.CREATED, null),
+                        new BatchItemResult(1, "remote2@example.com", BatchItemResult.Status.DUPLICATE_EMAIL, null)))));
+
+        List<User> users = List.of(remote.get(0), user("local@example.com", "John"), remote.get(1));
+        BatchResult result = userImportService.importUsers(json(objectMapper.writeValueAsString(users)), false);
+
+        assertEquals(List.of(BatchItemResult.Status.CREATED, BatchItemResult.Status.CREATED,
+                        BatchItemResult.Status.DUPLICATE_EMAIL),
+                result.items().stream().map(BatchItemResult::status).toList());
+        assertEquals(List.of(0, 1, 2), result.items().stream().map(BatchItemResult::index).toList());
+        assertTrue(userStorage.contains("local@example.com"));
+        assertFalse(userStorage.contains("remote1@example.com"));
+    }
+
+    private static InputStream json(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static User user(String email, String firstName) {
+        return new User(email, firstName, "Doe", LocalDate.of(1990, 1, 1), null, null);
+    }
+}
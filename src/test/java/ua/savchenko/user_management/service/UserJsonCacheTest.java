@@ -0,0 +1,97 @@
+package ua.savchenko.user_management.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.storage.InMemoryUserStorage;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class UserJsonCacheTest {
+
+    private UserJsonCache userJsonCache;
+
+    private UserStorage userStorage;
+
+    private ObjectMapper objectMapper;
+
+    private SimpleMeterRegistry registry;
+
+    @Mock
+    private UserConfiguration userConfiguration;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(userConfiguration.getJsonCacheSize()).thenReturn(100L);
+        userStorage = new InMemoryUserStorage();
+        objectMapper = JsonMapper.builder().findAndAddModules().build();
+        registry = new SimpleMeterRegistry();
+        userJsonCache = new UserJsonCache(userStorage, objectMapper, userConfiguration, registry);
+    }
+
+    @Test
+    void testGetSerializesOnceAndServesHitsFromCache() throws Exception {
+        User user = user("test@example.com", "John");
+        userStorage.insert(user);
+
+        UserJsonCache.Entry first = userJsonCache.get(user.getEmail()).orElseThrow();
+        UserJsonCache.Entry second = userJsonCache.get(user.getEmail()).orElseThrow();
+
+        assertSame(first, second);
+        assertEquals(user, objectMapper.readValue(first.json(), User.class));
+        assertEquals("\"" + first.version() + "\"", first.etag());
+        assertEquals(1, registry.get("cache.gets").tag("cache", "user.json").tag("result", "hit")
+                .functionCounter().count());
+        assertEquals(1, registry.get("cache.gets").tag("cache", "user.json").tag("result", "miss")
+                .functionCounter().count());
+    }
+
+    @Test
+    void testGetNonExistingEmailReturnsEmpty() {
+        assertTrue(userJsonCache.get("nonexistent@example.com").isEmpty());
+    }
+
+    @Test
+    void testInvalidateReloadsChangedUserWithNewVersion() throws Exception {
+        User user = user("test@example.com", "John").withVersion(userStorage.nextVersion());
+        userStorage.insert(user);
+        UserJsonCache.Entry before = userJsonCache.get(user.getEmail()).orElseThrow();
+
+        userStorage.compareAndSet(user.getEmail(), user,
+                user("test@example.com", "Jack").withVersion(userStorage.nextVersion()));
+        userJsonCache.invalidate(user.getEmail());
+        UserJsonCache.Entry after = userJsonCache.get(user.getEmail()).orElseThrow();
+
+        assertEquals(user.getVersion(), before.version());
+        assertTrue(after.version() > before.version());
+        assertNotEquals(before.etag(), after.etag());
+        assertEquals("Jack", objectMapper.readValue(after.json(), User.class).getFirstName());
+    }
+
+    @Test
+    void testInvalidateRemovedUserReturnsEmpty() {
+        User user = user("test@example.com", "John");
+        userStorage.insert(user);
+        userJsonCache.get(user.getEmail());
+
+        userStorage.remove(user.getEmail());
+        userJsonCache.invalidate(user.getEmail());
+
+        assertTrue(userJsonCache.get(user.getEmail()).isEmpty());
+    }
+
+    private static User user(String email, String firstName) {
+        return new User(email, firstName, "Doe", LocalDate.of(1990, 1, 1), null, null);
+    }
+}
@@ -0,0 +1,199 @@
+package ua.savchenko.user_management.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.configuration.UserConfiguration;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.metrics.UserMetrics;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserOperation;
+import ua.savchenko.user_management.model.UserOperationResult;
+import ua.savchenko.user_management.model.UserOperationsResult;
+import ua.savchenko.user_management.storage.InMemoryUserStorage;
+import ua.savchenko.user_management.storage.UserChangeLog;
+import ua.savchenko.user_management.storage.UserStorage;
+import ua.savchenko.user_management.util.AgeValidator;
+import ua.savchenko.user_management.util.UserValidator;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class UserOperationServiceTest {
+
+    private UserOperationService userOperationService;
+
+    private UserStorage userStorage;
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private AgeValidator ageValidator;
+
+    @Mock
+    private UserConfiguration userConfiguration;
+
+    @Mock
+    private UserMetrics userMetrics;
+
+    @Mock
+    private UserJsonCache userJsonCache;
+
+    @Mock
+    private UserCluster userCluster;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(userConfiguration.getMaxOperations()).thenReturn(100);
+        when(userCluster.isLocal(anyString())).thenReturn(true);
+        userStorage = new InMemoryUserStorage();
+        userOperationService = new UserOperationService(userStorage, userService, new UserValidator(ageValidator),
+                userConfiguration, userMetrics, userJsonCache, userCluster);
+    }
+
+    @Test
+    void testRunOperationsAppliesInOrderAndReportsEveryOperation() {
+        userStorage.insert(user("john@example.com", "John").withVersion(userStorage.nextVersion()));
+        userStorage.insert(user("old@example.com", "Old").withVersion(userStorage.nextVersion()));
+
+        UserOperationsResult result = userOperationService.runOperations(List.of(
+                new UserOperation(UserOperation.Type.CREATE, null, user("jane@example.com", "Jane"), null),
+                new UserOperation(UserOperation.Type.PATCH, "jane@example.com", new User().withFirstName("Janet"), null),
+                new UserOperation(UserOperation.Type.PATCH, "john@example.com", new User().withEmail("johnny@example.com"), null),
+                new UserOperation(UserOperation.Type.CREATE, null, user("john@example.com", "Jack"), null),
+                new UserOperation(UserOperation.Type.DELETE, "old@example.com", null, null),
+                new UserOperation(UserOperation.Type.DELETE, "missing@example.com", null, null),
+                new UserOperation(UserOperation.Type.CREATE, null, user("not-an-email", "Jim"), null)), false);
+
+        assertEquals(List.of(201, 200, 200, 201, 204, 404, 400),
+                result.results().stream().map(UserOperationResult::status).toList());
+        assertEquals(5, result.applied());
+        assertEquals(2, result.failed());
+        assertEquals("Janet", userStorage.find("jane@example.com").orElseThrow().getFirstName());
+        assertEquals("John", userStorage.find("johnny@example.com").orElseThrow().getFirstName());
+        assertEquals("Jack", userStorage.find("john@example.com").orElseThrow().getFirstName());
+        assertFalse(userStorage.contains("old@example.com"));
+        assertEquals(result.results().get(1).user(), userStorage.find("jane@example.com").orElseThrow());
+        verify(userJsonCache).invalidate("johnny@example.com");
+    }
+
+    @Test
+    void testPatchesAreCheckedInTheFieldsTheySetAndReplacesInEveryField() {
+        User john = user("john@example.com", "John").withVersion(userStorage.nextVersion());
+        userStorage.insert(john);
+        when(ageValidator.check(LocalDate.of(2020, 1, 1))).thenReturn("User must be at least 18 years old");
+
+        UserOperationsResult result = userOperationService.runOperations(List.of(
+                new UserOperation(UserOperation.Type.PATCH, "john@example.com", new User().withLastName(" "), null),
+                new UserOperation(UserOperation.Type.PATCH, "john@example.com", new User().withPhoneNumber("call me"), null),
+                new UserOperation(UserOperation.Type.REPLACE, "john@example.com",
+                        user("john@example.com", "Jack").withBirthDate(LocalDate.of(2020, 1, 1)), null),
+                new UserOperation(UserOperation.Type.REPLACE, "john@example.com", new User().withFirstName("Jack"), null)), false);
+
+        assertEquals(List.of("Last name is required", "Phone number should be valid", "User must be at least 18 years old",
+                        "Email is required"),
+                result.results().stream().map(UserOperationResult::message).toList());
+        assertEquals(john, userStorage.find("john@example.com").orElseThrow());
+    }
+
+    @Test
+    void testAtomicOperationsWithFailureLeaveEveryUserUntouched() {
+        User john = user("john@example.com", "John").withVersion(userStorage.nextVersion());
+        userStorage.insert(john);
+
+        UserOperationsResult result = userOperationService.runOperations(List.of(
+                new UserOperation(UserOperation.Type.CREATE, null, user("jane@example.com", "Jane"), null),
+                new UserOperation(UserOperation.Type.DELETE, "john@example.com", null, null),
+                new UserOperation(UserOperation.Type.REPLACE, "john@example.com", user("john@example.com", "Jack"), null)), true);
+
+        assertEquals(List.of(424, 424, 404), result.results().stream().map(UserOperationResult::status).toList());
+        assertEquals(0, result.applied());
+        assertFalse(userStorage.contains("jane@example.com"));
+        assertEquals(john, userStorage.find("john@example.com").orElseThrow());
+        verifyNoInteractions(userJsonCache);
+    }
+
+    @Test
+    void testOperationFailingUnexpectedlyFailsAloneAfterTheOnesBefore() {
+        userStorage.setChangeLog(new UserChangeLog() {
+            @Override
+            public long append(String email, User updated) {
+                if (email.equals("jane@example.com")) {
+                    throw new IllegalStateException("Write-ahead log is closed");
+                }
+                return 0;
+            }
+
+            @Override
+            public void awaitDurable(long position) {
+            }
+        });
+
+        UserOperationsResult result = userOperationService.runOperations(List.of(
+                new UserOperation(UserOperation.Type.CREATE, null, user("john@example.com", "John"), null),
+                new UserOperation(UserOperation.Type.CREATE, null, user("jane@example.com", "Jane"), null)), false);
+
+        assertEquals(List.of(201, 500), result.results().stream().map(UserOperationResult::status).toList());
+        assertEquals(1, result.applied());
+        assertTrue(userStorage.contains("john@example.com"));
+        assertFalse(userStorage.contains("jane@example.com"));
+    }
+
+    @Test
+    void testAtomicOperationsAreAppliedTogether() {
+        User john = user("john@example.com", "John").withVersion(userStorage.nextVersion());
+        userStorage.insert(john);
+
+        UserOperationsResult result = userOperationService.runOperations(List.of(
+                new UserOperation(UserOperation.Type.PATCH, "john@example.com", new User().withEmail("jack@example.com"),
+                        john.getVersion()),
+                new UserOperation(UserOperation.Type.CREATE, null, user("john@example.com", "Johnny"), null)), true);
+
+        assertEquals(List.of(200, 201), result.results().stream().map(UserOperationResult::status).toList());
+        assertEquals("John", userStorage.find("jack@example.com").orElseThrow().getFirstName());
+        assertEquals("Johnny", userStorage.find("john@example.com").orElseThrow().getFirstName());
+    }
+
+    @Test
+    void testOperationWithStaleVersionIsRejected() {
+        User john = user("john@example.com", "John").withVersion(userStorage.nextVersion());
+        userStorage.insert(john);
+
+        UserOperationsResult result = userOperationService.runOperations(List.of(
+                new UserOperation(UserOperation.Type.PATCH, "john@example.com", new User().withFirstName("Jack"),
+                        john.getVersion()),
+                new UserOperation(UserOperation.Type.PATCH, "john@example.com", new User().withFirstName("Jim"),
+                        john.getVersion())), false);
+
+        assertEquals(List.of(200, 412), result.results().stream().map(UserOperationResult::status).toList());
+        assertEquals("Jack", userStorage.find("john@example.com").orElseThrow().getFirstName());
+    }
+
+    @Test
+    void testOperationsOwnedByAnotherShardGoThroughUserService() {
+        User remote = user("remote@example.com", "John");
+        when(userCluster.isLocal("remote@example.com")).thenReturn(false);
+        when(userService.createUser(remote)).thenReturn(remote.withVersion(7));
+
+        UserOperationsResult result = userOperationService.runOperations(List.of(
+                new UserOperation(UserOperation.Type.CREATE, null, remote, null),
+                new UserOperation(UserOperation.Type.CREATE, null, user("local@example.com", "Jane"), null)), false);
+
+        assertEquals(List.of(201, 201), result.results().stream().map(UserOperationResult::status).toList());
+        assertEquals(7, result.results().get(0).user().getVersion());
+        assertTrue(userStorage.contains("local@example.com"));
+        assertThrows(ValidatorException.class, () -> userOperationService.runOperations(
+                List.of(new UserOperation(UserOperation.Type.CREATE, null, remote, null)), true));
+    }
+
+    private static User user(String email, String firstName) {
+        return new User(email, firstName, "Doe", LocalDate.of(1990, 1, 1), null, null);
+    }
+}
@@ -4,18 +4,31 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.MockitoAnnotations;
 import org.springframework.boot.test.context.SpringBootTest;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.configuration.UserConfiguration;
 import ua.savchenko.user_management.exception.DuplicateEmailException;
 import ua.savchenko.user_management.exception.NotFoundException;
+import ua.savchenko.user_management.exception.PreconditionFailedException;
 import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.metrics.UserMetrics;
 import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserPage;
+import ua.savchenko.user_management.storage.InMemoryUserStorage;
 import ua.savchenko.user_management.storage.UserStorage;
-import ua.savchenko.user_management.util.AgeValidator;
+import ua.savchenko.user_management.util.UserValidator;
 
 import java.time.LocalDate;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -25,34 +38,49 @@ class UserServiceTest {
     @InjectMocks
     private UserService userService;
 
+    @Spy
+    private UserStorage userStorage = new InMemoryUserStorage();
+
+    @Mock
+    private UserValidator userValidator;
+
     @Mock
-    private UserStorage userStorage;
+    private UserConfiguration userConfiguration;
 
     @Mock
-    private AgeValidator ageValidator;
+    private UserMetrics userMetrics;
+
+    @Mock
+    private UserJsonCache userJsonCache;
+
+    @Mock
+    private UserCluster userCluster;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        when(userStorage.getUsers()).thenReturn(new HashMap<>());
+        when(userConfiguration.getMaxPageSize()).thenReturn(1000);
+        when(userCluster.isLocal(anyString())).thenReturn(true);
     }
 
     @Test
     void testCreateUserValidUserReturnsUser() {
         User user = new User("test@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), "123 Street", "1234567890");
 
-        userService.createUser(user);
+        User created = userService.createUser(user);
 
-        verify(userStorage, times(2)).getUsers();
-        verify(ageValidator).checkForAge(user.getBirthDate());
-        assertEquals(user, userStorage.getUsers().get(user.getEmail()));
+        verify(userStorage).insert(created);
+        verify(userValidator).validate(user);
+        assertEquals(user.withVersion(created.getVersion()), created);
+        assertTrue(created.getVersion() > 0);
+        assertEquals(created, userStorage.find(user.getEmail()).orElseThrow());
     }
 
     @Test
     void testCreateUserDuplicateEmailThrowsException() {
         User user = new User("test@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), "123 Street", "1234567890");
 
-        userStorage.getUsers().put(user.getEmail(), user);
+        userStorage.insert(user);
 
         assertThrows(DuplicateEmailException.class, () -> userService.createUser(user));
     }
@@ -60,13 +88,26 @@ class UserServiceTest {
     @Test
     void testUpdateUserExistingUserUpdatesFields() {
         User originalUser = new User("test@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), "123 Street", "1234567890");
-        userStorage.getUsers().put(originalUser.getEmail(), originalUser);
+        userStorage.insert(originalUser);
 
         User updatedUser = new User(null, "Jane", null, null, null, null);
         userService.updateUser(originalUser.getEmail(), updatedUser);
 
-        assertEquals("Jane", userStorage.getUsers().get(originalUser.getEmail()).getFirstName());
-        assertNotNull(userStorage.getUsers().get(originalUser.getEmail()));
+        assertEquals("Jane", userStorage.find(originalUser.getEmail()).orElseThrow().getFirstName());
+        assertEquals("John", originalUser.getFirstName());
+    }
+
+    @Test
+    void testUpdateUserInvalidPatchIsRejectedBeforeAnyWrite() {
+        User originalUser = new User("test@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), "123 Street", "1234567890");
+        userStorage.insert(originalUser);
+        User updatedUser = new User(null, " ", null, null, null, null);
+        doThrow(new ValidatorException("First name is required")).when(userValidator).validatePatch(updatedUser);
+
+        assertThrows(ValidatorException.class, () -> userService.updateUser(originalUser.getEmail(), updatedUser));
+
+        assertEquals(originalUser, userStorage.find(originalUser.getEmail()).orElseThrow());
+        verify(userCluster, never()).isLocal(anyString());
     }
 
     @Test
@@ -74,12 +115,159 @@ class UserServiceTest {
         assertThrows(NotFoundException.class, () -> userService.updateUser("nonexistent@example.com", new User()));
     }
 
+    @Test
+    void testUpdateUserEmailChangeMovesUser() {
+        User originalUser = new User("test@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), "123 Street", "1234567890");
+        userStorage.insert(originalUser);
+
+        userService.updateUser(originalUser.getEmail(), new User("new@example.com", null, null, null, null, null));
+
+        assertFalse(userStorage.contains("test@example.com"));
+        assertEquals("John", userStorage.find("new@example.com").orElseThrow().getFirstName());
+        verify(userJsonCache).invalidate("test@example.com");
+        verify(userJsonCache).invalidate("new@example.com");
+    }
+
+    @Test
+    void testCreateUserOwnedByAnotherShardIsSentThere() {
+        User user = new User("remote@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), null, null);
+        when(userCluster.isLocal("remote@example.com")).thenReturn(false);
+        when(userCluster.create(user)).thenReturn(user);
+
+        assertEquals(user, userService.createUser(user));
+
+        verify(userValidator).validate(user);
+        assertFalse(userStorage.contains("remote@example.com"));
+    }
+
+    @Test
+    void testUpdateUserEmailOwnedByAnotherShardCreatesThereBeforeRemovingHere() {
+        User originalUser = new User("test@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), null, null);
+        userStorage.insert(originalUser);
+        when(userCluster.isLocal("remote@example.com")).thenReturn(false);
+        when(userCluster.create(any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        User moved = userService.updateUser("test@example.com", new User("remote@example.com", null, null, null, null, null));
+
+        verify(userCluster).create(moved);
+        assertEquals("John", moved.getFirstName());
+        assertFalse(userStorage.contains("test@example.com"));
+        verify(userJsonCache).invalidate("test@example.com");
+    }
+
+    @Test
+    void testUpdateUserEmailOwnedByAnotherShardDuplicateKeepsLocalUser() {
+        User originalUser = new User("test@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), null, null);
+        userStorage.insert(originalUser);
+        when(userCluster.isLocal("taken@example.com")).thenReturn(false);
+        when(userCluster.create(any())).thenThrow(new DuplicateEmailException("taken"));
+
+        assertThrows(DuplicateEmailException.class, () ->
+                userService.updateUser("test@example.com", new User("taken@example.com", null, null, null, null, null)));
+
+        assertTrue(userStorage.contains("test@example.com"));
+    }
+
+    @Test
+    void testUpdateUserStoresNewVersionOnEveryWrite() {
+        User created = userService.createUser(
+                new User("test@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), null, null));
+
+        User updated = userService.updateUser(created.getEmail(), new User(null, "Jane", null, null, null, null),
+                created.getVersion());
+        User replaced = userService.replaceUser(created.getEmail(),
+                new User("test@example.com", "Jack", "Doe", LocalDate.of(2000, 1, 1), null, null), updated.getVersion());
+
+        assertTrue(updated.getVersion() > created.getVersion());
+        assertTrue(replaced.getVersion() > updated.getVersion());
+        assertEquals(replaced, userStorage.find(created.getEmail()).orElseThrow());
+    }
+
+    @Test
+    void testUpdateUserWithStaleVersionThrowsPreconditionFailedException() {
+        User created = userService.createUser(
+                new User("test@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), null, null));
+        User updated = userService.updateUser(created.getEmail(), new User(null, "Jane", null, null, null, null));
+
+        assertThrows(PreconditionFailedException.class, () -> userService.updateUser(created.getEmail(),
+                new User(null, "Jack", null, null, null, null), created.getVersion()));
+        assertThrows(PreconditionFailedException.class, () -> userService.replaceUser(created.getEmail(),
+                new User("test@example.com", "Jack", "Doe", LocalDate.of(2000, 1, 1), null, null), created.getVersion()));
+        assertEquals(updated, userStorage.find(created.getEmail()).orElseThrow());
+    }
+
+    @Test
+    void testConcurrentUpdatesWithSameVersionApplyOnlyOnce() throws Exception {
+        User created = userService.createUser(
+                new User("test@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), null, null));
+        int writers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        List<Future<User>> results = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            String firstName = "Writer" + i;
+            results.add(executor.submit(() -> {
+                start.await();
+                return userService.updateUser(created.getEmail(), new User(null, firstName, null, null, null, null),
+                        created.getVersion());
+            }));
+        }
+        start.countDown();
+
+        int applied = 0;
+        for (Future<User> result : results) {
+            try {
+                result.get();
+                applied++;
+            } catch (ExecutionException e) {
+                assertInstanceOf(PreconditionFailedException.class, e.getCause());
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(1, applied);
+    }
+
+    @Test
+    void testReplaceUserToTakenEmailThrowsDuplicateEmailException() {
+        User user1 = new User("user1@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), "123 Street", "1234567890");
+        User user2 = new User("user2@example.com", "Jane", "Doe", LocalDate.of(1995, 5, 5), "456 Lane", "9876543210");
+        userStorage.insert(user1);
+        userStorage.insert(user2);
+
+        User replacement = new User("user2@example.com", "Jack", "Doe", LocalDate.of(1990, 1, 1), null, null);
+
+        assertThrows(DuplicateEmailException.class, () -> userService.replaceUser(user1.getEmail(), replacement));
+        assertEquals(user1, userStorage.find(user1.getEmail()).orElseThrow());
+        assertEquals(user2, userStorage.find(user2.getEmail()).orElseThrow());
+        verifyNoInteractions(userJsonCache);
+    }
+
     @Test
     void testDeleteUserExistingEmailRemovesUser() {
         User user = new User("test@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), "123 Street", "1234567890");
-        userStorage.getUsers().put(user.getEmail(), user);
+        userStorage.insert(user);
         userService.deleteUser(user.getEmail());
-        assertFalse(userStorage.getUsers().containsKey(user.getEmail()));
+        assertFalse(userStorage.contains(user.getEmail()));
+        verify(userJsonCache).invalidate(user.getEmail());
+    }
+
+    @Test
+    void testEmailDomainIsCaseInsensitiveForEveryOperation() {
+        User created = userService.createUser(
+                new User("John.Doe@Example.COM", "John", "Doe", LocalDate.of(2000, 1, 1), "123 Street", "1234567890"));
+        assertEquals("John.Doe@example.com", created.getEmail());
+        assertThrows(DuplicateEmailException.class, () -> userService.createUser(created.withEmail("John.Doe@EXAMPLE.com")));
+
+        User updated = userService.updateUser("John.Doe@EXAMPLE.com", new User().withFirstName("Jack"));
+        assertEquals("John.Doe@example.com", updated.getEmail());
+        User replaced = userService.replaceUser("John.Doe@example.COM", updated.withEmail("Jack@Example.com"));
+        assertEquals("Jack@example.com", replaced.getEmail());
+        assertEquals(1, userStorage.size());
+
+        assertThrows(NotFoundException.class, () -> userService.deleteUser("jack@example.com"));
+        userService.deleteUser("Jack@EXAMPLE.COM");
+        assertEquals(0, userStorage.size());
     }
 
     @Test
@@ -87,12 +275,37 @@ class UserServiceTest {
         assertThrows(NotFoundException.class, () -> userService.deleteUser("nonexistent@example.com"));
     }
 
+    @Test
+    void testLookupUsersReturnsRankedMatches() {
+        User john = new User("john@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), "123 Street", "1234567890");
+        User jane = new User("jane@example.com", "Jane", "Johnson", LocalDate.of(1995, 5, 5), "456 Lane", "9876543210");
+        userStorage.insert(john);
+        userStorage.insert(jane);
+
+        assertEquals(List.of(john, jane), userService.lookupUsers("joh", 10));
+        assertEquals(List.of(jane), userService.lookupUsers("joh lane", 10));
+    }
+
+    @Test
+    void testLookupUsersBlankQueryOrInvalidLimitThrowsValidatorException() {
+        assertThrows(ValidatorException.class, () -> userService.lookupUsers(" ", 10));
+        assertThrows(ValidatorException.class, () -> userService.lookupUsers("john", 0));
+        assertThrows(ValidatorException.class, () -> userService.lookupUsers("john", 1001));
+    }
+
+    @Test
+    void testFindUserJsonNonExistingEmailThrowsNotFoundException() {
+        when(userJsonCache.get("nonexistent@example.com")).thenReturn(Optional.empty());
+
+        assertThrows(NotFoundException.class, () -> userService.findUserJson("nonexistent@example.com"));
+    }
+
     @Test
     void testFindUsersByBirthDateRangeValidRangeReturnsUsers() {
         User user1 = new User("user1@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), "123 Street", "1234567890");
         User user2 = new User("user2@example.com", "Jane", "Doe", LocalDate.of(1995, 5, 5), "456 Lane", "9876543210");
-        userStorage.getUsers().put(user1.getEmail(), user1);
-        userStorage.getUsers().put(user2.getEmail(), user2);
+        userStorage.insert(user1);
+        userStorage.insert(user2);
 
         LocalDate from = LocalDate.of(1990, 1, 1);
         LocalDate to = LocalDate.of(2001, 1, 1);
@@ -110,4 +323,30 @@ class UserServiceTest {
         LocalDate to = LocalDate.of(2001, 1, 1);
         assertThrows(ValidatorException.class, () -> userService.findUsersByBirthDateRange(from, to));
     }
+
+    @Test
+    void testFindUsersByBirthDateRangePagesFollowCursorUntilLastPage() {
+        for (int i = 0; i < 5; i++) {
+            userStorage.insert(new User("user" + i + "@example.com", "John", "Doe", LocalDate.of(2000, 1, 1 + i % 2), null, null));
+        }
+        LocalDate from = LocalDate.of(1990, 1, 1);
+        LocalDate to = LocalDate.of(2001, 1, 1);
+
+        UserPage first = userService.findUsersByBirthDateRange(from, to, null, 2);
+        UserPage second = userService.findUsersByBirthDateRange(from, to, first.nextCursor(), 2);
+        UserPage last = userService.findUsersByBirthDateRange(from, to, second.nextCursor(), 2);
+
+        assertEquals(List.of("user0@example.com", "user2@example.com"), first.users().stream().map(User::getEmail).toList());
+        assertEquals(List.of("user4@example.com", "user1@example.com"), second.users().stream().map(User::getEmail).toList());
+        assertEquals(List.of("user3@example.com"), last.users().stream().map(User::getEmail).toList());
+        assertNull(last.nextCursor());
+    }
+
+    @Test
+    void testFindUsersByBirthDateRangeInvalidCursorThrowsValidatorException() {
+        LocalDate from = LocalDate.of(1990, 1, 1);
+        LocalDate to = LocalDate.of(2001, 1, 1);
+        assertThrows(ValidatorException.class, () -> userService.findUsersByBirthDateRange(from, to, "not-a-cursor", 10));
+        assertThrows(ValidatorException.class, () -> userService.findUsersByBirthDateRange(from, to, null, 0));
+    }
 }
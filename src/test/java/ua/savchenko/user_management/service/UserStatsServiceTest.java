@@ -0,0 +1,128 @@
+package ua.savchenko.user_management.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import ua.savchenko.user_management.cluster.UserCluster;
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.metrics.UserMetrics;
+import ua.savchenko.user_management.model.User;
+import ua.savchenko.user_management.model.UserCount;
+import ua.savchenko.user_management.model.UserStats;
+import ua.savchenko.user_management.storage.InMemoryUserStorage;
+import ua.savchenko.user_management.storage.UserStorage;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class UserStatsServiceTest {
+
+    private UserStatsService userStatsService;
+
+    @Mock
+    private UserCluster userCluster;
+
+    @Mock
+    private UserMetrics userMetrics;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        UserStorage userStorage = new InMemoryUserStorage();
+        userStorage.insert(user("a@x.com", LocalDate.of(2000, 6, 15)));
+        userStorage.insert(user("b@x.com", LocalDate.of(2000, 6, 16)));
+        userStorage.insert(user("c@y.com", LocalDate.of(1994, 6, 15)));
+        userStorage.insert(user("d@y.com", LocalDate.of(1994, 6, 16)));
+        userStorage.insert(user("e@y.com", null));
+        userStatsService = new UserStatsService(userStorage, userCluster, userMetrics,
+                Clock.fixed(Instant.parse("2024-06-15T12:00:00Z"), ZoneOffset.UTC));
+    }
+
+    @Test
+    void testCountByAgeBucketsByAgeOnTheDay() {
+        UserStats stats = userStatsService.countByAge(10, null);
+
+        assertEquals(4, stats.total());
+        assertEquals(15, stats.counts().size());
+        assertEquals(new UserCount("0-9", 0), stats.counts().get(0));
+        assertEquals(new UserCount("20-29", 3), stats.counts().get(2));
+        assertEquals(new UserCount("30-39", 1), stats.counts().get(3));
+        assertEquals(new UserCount("140-149", 0), stats.counts().get(14));
+        assertEquals(2, userStatsService.countByAge(10, "Y.com").total());
+        assertEquals(0, userStatsService.countByAge(10, "z.com").total());
+    }
+
+    @Test
+    void testCountByBirthMonthAndByBirthDatePeriods() {
+        UserStats months = userStatsService.countByBirthMonth(null);
+        assertEquals(12, months.counts().size());
+        assertEquals(new UserCount("JUNE", 4), months.counts().get(5));
+
+        UserStats years = userStatsService.countByBirthDate(LocalDate.of(1994, 1, 1), LocalDate.of(2000, 12, 31),
+                "years", null);
+        assertEquals(7, years.counts().size());
+        assertEquals(new UserCount("1994-01-01", 2), years.counts().get(0));
+        assertEquals(new UserCount("2000-01-01", 2), years.counts().get(6));
+
+        UserStats days = userStatsService.countByBirthDate(LocalDate.of(2000, 6, 15), LocalDate.of(2000, 6, 16),
+                "DAYS", "x.com");
+        assertEquals(List.of(new UserCount("2000-06-15", 1), new UserCount("2000-06-16", 1)), days.counts());
+    }
+
+    @Test
+    void testCountByBirthDateOverThousandsOfYearsOnlyLaysOutPossibleBirthDays() {
+        UserStats years = userStatsService.countByBirthDate(LocalDate.of(1, 1, 1), LocalDate.of(9999, 12, 31),
+                "YEARS", null);
+
+        assertEquals(9999, years.counts().size());
+        assertEquals(4, years.total());
+        assertEquals(new UserCount("1994-01-01", 2), years.counts().get(1993));
+        assertEquals(0, userStatsService.countByBirthDate(LocalDate.of(3000, 1, 1), LocalDate.of(3000, 12, 31),
+                "DAYS", null).total());
+    }
+
+    @Test
+    void testCountByDomainRanksAndLimits() {
+        UserStats stats = userStatsService.countByDomain(null, null, 1);
+
+        assertEquals(5, stats.total());
+        assertEquals(List.of(new UserCount("y.com", 3)), stats.counts());
+        assertEquals(List.of(new UserCount("x.com", 2), new UserCount("y.com", 1)),
+                userStatsService.countByDomain(LocalDate.of(1994, 6, 16), LocalDate.of(2024, 1, 1), 10).counts());
+    }
+
+    @Test
+    void testInvalidParametersThrowValidatorException() {
+        assertThrows(ValidatorException.class, () -> userStatsService.countByAge(0, null));
+        assertThrows(ValidatorException.class, () -> userStatsService.countByBirthDate(LocalDate.of(2000, 1, 1),
+                LocalDate.of(2000, 12, 31), "HOURS", null));
+        assertThrows(ValidatorException.class, () -> userStatsService.countByBirthDate(LocalDate.of(2000, 1, 1),
+                LocalDate.of(1999, 1, 1), "DAYS", null));
+        assertThrows(ValidatorException.class, () -> userStatsService.countByBirthDate(LocalDate.of(1900, 1, 1),
+                LocalDate.of(2000, 1, 1), "DAYS", null));
+        assertThrows(ValidatorException.class, () -> userStatsService.countByDomain(null, null, 0));
+    }
+
+    @Test
+    void testClusterAddsUpTheCountsOfEveryShard() {
+        UserStats merged = new UserStats(10, List.of(new UserCount("JUNE", 10)));
+        when(userCluster.isEnabled()).thenReturn(true);
+        when(userCluster.mergeStats(any(), eq("/stats/birth-months"), any())).thenReturn(merged);
+
+        assertEquals(merged, userStatsService.countByBirthMonth("x.com"));
+        verify(userCluster).mergeStats(argThat(local -> local.total() == 2), eq("/stats/birth-months"),
+                eq(Map.of("domain", "x.com")));
+    }
+
+    private static User user(String email, LocalDate birthDate) {
+        return new User(email, "John", "Doe", birthDate, null, null);
+    }
+}
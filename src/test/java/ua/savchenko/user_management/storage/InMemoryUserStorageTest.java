@@ -0,0 +1,9 @@
+package ua.savchenko.user_management.storage;
+
+class InMemoryUserStorageTest extends UserStorageTest {
+
+    @Override
+    protected UserStorage createUserStorage() {
+        return new InMemoryUserStorage();
+    }
+}
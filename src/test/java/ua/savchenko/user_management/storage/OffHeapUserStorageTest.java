@@ -0,0 +1,110 @@
+package ua.savchenko.user_management.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ua.savchenko.user_management.model.User;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapUserStorageTest extends UserStorageTest {
+
+    // Small segments, so the tests roll over and compact many of them
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @TempDir
+    private Path directory;
+
+    @Override
+    protected UserStorage createUserStorage() throws IOException {
+        return new OffHeapUserStorage(directory, false, SEGMENT_SIZE);
+    }
+
+    @Test
+    void testOverwritesAreCompactedAndLatestVersionsKept() throws Exception {
+        int emails = 200;
+        int rounds = 200;
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < emails; i++) {
+                String email = "user" + i + "@example.com";
+                User current = userStorage.find(email).orElse(null);
+                User updated = user(email, String.valueOf(round));
+                if (current == null) {
+                    assertTrue(userStorage.insert(updated));
+                } else {
+                    assertEquals(UserStorage.WriteResult.APPLIED, userStorage.compareAndSet(email, current, updated));
+                }
+            }
+        }
+
+        assertEquals(emails, userStorage.size());
+        for (int i = 0; i < emails; i++) {
+            assertEquals(String.valueOf(rounds - 1), userStorage.find("user" + i + "@example.com").orElseThrow().getAddress());
+        }
+        // Written were far more segments than the live users need, compaction drops most of them
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (segmentFiles() >= 10 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(segmentFiles() < 10, "segments left: " + segmentFiles());
+    }
+
+    @Test
+    void testFindAllSeesEveryUserWhileOthersAreRewritten() throws Exception {
+        int stable = 2_000;
+        for (int i = 0; i < stable; i++) {
+            userStorage.insert(user("stable" + i + "@example.com", "0"));
+            userStorage.insert(user("filler" + i + "@example.com", "0"));
+        }
+        // Leaves the segments half dead, so the stable users get moved while being iterated
+        for (int i = 0; i < stable; i++) {
+            userStorage.remove("filler" + i + "@example.com");
+        }
+        AtomicInteger rounds = new AtomicInteger();
+
+        runConcurrently(() -> {
+            if (rounds.getAndIncrement() == 0) {
+                for (int pass = 0; pass < 20; pass++) {
+                    Set<String> seen = new HashSet<>();
+                    for (User user : userStorage.findAll()) {
+                        seen.add(user.getEmail());
+                    }
+                    for (int i = 0; i < stable; i++) {
+                        assertTrue(seen.contains("stable" + i + "@example.com"));
+                    }
+                }
+                return;
+            }
+            for (int i = 0; i < 2_000; i++) {
+                String email = "churn" + (i % 50) + "@example.com";
+                userStorage.remove(email);
+                userStorage.insert(user(email, String.valueOf(i)));
+            }
+        });
+
+        assertEquals(stable + 50, userStorage.size());
+    }
+
+    @Test
+    void testRecordLargerThanSegmentIsRejected() {
+        User user = user("big@example.com", "x".repeat(SEGMENT_SIZE));
+
+        assertThrows(IllegalArgumentException.class, () -> userStorage.insert(user));
+        assertFalse(userStorage.contains("big@example.com"));
+        assertEquals(0, userStorage.birthDateIndexSize());
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,543 @@
+package ua.savchenko.user_management.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ua.savchenko.user_management.model.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Behaviour every storage backend has to provide, run once per backend by the subclasses.
+ */
+abstract class UserStorageTest {
+
+    private static final int THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+
+    protected UserStorage userStorage;
+    private ExecutorService executor;
+
+    protected abstract UserStorage createUserStorage() throws IOException;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        userStorage = createUserStorage();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException, IOException {
+        executor.shutdownNow();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        if (userStorage instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+
+    @Test
+    void testConcurrentInsertOfSameEmailsStoresEachEmailOnce() throws Exception {
+        int emails = 1_000;
+        AtomicInteger created = new AtomicInteger();
+
+        runConcurrently(() -> {
+            for (int i = 0; i < emails; i++) {
+                if (userStorage.insert(user("user" + i + "@example.com", "0"))) {
+                    created.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(emails, created.get());
+        assertEquals(emails, userStorage.size());
+    }
+
+    @Test
+    void testConcurrentCompareAndSetLosesNoUpdates() throws Exception {
+        int increments = 2_000;
+        userStorage.insert(user("counter@example.com", "0"));
+
+        runConcurrently(() -> {
+            for (int i = 0; i < increments; i++) {
+                UserStorage.WriteResult result;
+                do {
+                    User current = userStorage.find("counter@example.com").orElseThrow();
+                    int value = Integer.parseInt(current.getAddress());
+                    result = userStorage.compareAndSet("counter@example.com", current,
+                            user("counter@example.com", String.valueOf(value + 1)));
+                } while (result == UserStorage.WriteResult.STALE);
+                assertEquals(UserStorage.WriteResult.APPLIED, result);
+            }
+        });
+
+        assertEquals(THREADS * increments,
+                Integer.parseInt(userStorage.find("counter@example.com").orElseThrow().getAddress()));
+    }
+
+    @Test
+    void testConcurrentRenamesToSameEmailProduceNoDuplicates() throws Exception {
+        int rounds = 500;
+        AtomicInteger threadIds = new AtomicInteger();
+        AtomicInteger renamed = new AtomicInteger();
+
+        runConcurrently(() -> {
+            int id = threadIds.getAndIncrement();
+            for (int i = 0; i < rounds; i++) {
+                String source = "source" + id + "-" + i + "@example.com";
+                User original = user(source, "0");
+                assertTrue(userStorage.insert(original));
+
+                UserStorage.WriteResult result = userStorage.compareAndSet(source, original,
+                        user("target" + i + "@example.com", String.valueOf(id)));
+                if (result == UserStorage.WriteResult.APPLIED) {
+                    renamed.incrementAndGet();
+                    assertFalse(userStorage.contains(source));
+                } else {
+                    assertEquals(UserStorage.WriteResult.DUPLICATE, result);
+                    assertEquals(original, userStorage.find(source).orElseThrow());
+                }
+            }
+        });
+
+        assertEquals(rounds, renamed.get());
+        assertEquals(THREADS * rounds, userStorage.size());
+        for (int i = 0; i < rounds; i++) {
+            assertTrue(userStorage.contains("target" + i + "@example.com"));
+        }
+    }
+
+    @Test
+    void testConcurrentRemoveReturnsUserExactlyOnce() throws Exception {
+        int emails = 1_000;
+        for (int i = 0; i < emails; i++) {
+            userStorage.insert(user("user" + i + "@example.com", "0"));
+        }
+        AtomicInteger removed = new AtomicInteger();
+
+        runConcurrently(() -> {
+            for (int i = 0; i < emails; i++) {
+                if (userStorage.remove("user" + i + "@example.com") != null) {
+                    removed.incrementAndGet();
+                }
+            }
+        });
+
+        assertEquals(emails, removed.get());
+        assertEquals(0, userStorage.size());
+    }
+
+    @Test
+    void testRemoveExpectedUserLeavesChangedUser() {
+        User user = user("john@example.com", "1 Old Street");
+        userStorage.insert(user);
+        User changed = user("john@example.com", "2 New Street");
+        assertEquals(UserStorage.WriteResult.APPLIED, userStorage.compareAndSet(user.getEmail(), user, changed));
+
+        assertFalse(userStorage.remove(user.getEmail(), user));
+        assertTrue(userStorage.contains(user.getEmail()));
+        assertTrue(userStorage.remove(changed.getEmail(), user("john@example.com", "2 New Street")));
+        assertFalse(userStorage.contains(user.getEmail()));
+    }
+
+    @Test
+    void testRestoredEmailsWithUppercaseDomainsAreReachableNormalized() {
+        userStorage.restore("john@Example.COM", user("john@Example.COM", "1 Old Street").withVersion(1));
+        userStorage.restore("john@Example.COM", user("john@Example.COM", "2 New Street").withVersion(2));
+        userStorage.restore("jane@EXAMPLE.com", user("jane@EXAMPLE.com", "3 Other Street").withVersion(3));
+        userStorage.restore("jane@EXAMPLE.com", null);
+
+        assertEquals(1, userStorage.size());
+        assertEquals("2 New Street", userStorage.find("john@example.com").orElseThrow().getAddress());
+        assertEquals("john@example.com", userStorage.find("john@example.com").orElseThrow().getEmail());
+        assertNotNull(userStorage.remove("john@example.com"));
+        assertEquals(0, userStorage.size());
+    }
+
+    @Test
+    void testWriteAllSeesEarlierWritesOfTheBatch() {
+        userStorage.insert(user("john@example.com", "1 Old Street"));
+
+        List<RuntimeException> rejected = userStorage.writeAll(List.of(
+                write("john@example.com", "johnny@example.com",
+                        users -> users.apply("john@example.com").withEmail("johnny@example.com")),
+                write("john@example.com", "john@example.com", users -> {
+                    if (users.apply("john@example.com") != null) {
+                        throw new IllegalStateException("taken");
+                    }
+                    return user("john@example.com", "2 New Street");
+                }),
+                write("missing@example.com", "missing@example.com", users -> {
+                    throw new IllegalArgumentException("missing");
+                })), false);
+
+        assertNull(rejected.get(0));
+        assertNull(rejected.get(1));
+        assertInstanceOf(IllegalArgumentException.class, rejected.get(2));
+        assertEquals("1 Old Street", userStorage.find("johnny@example.com").orElseThrow().getAddress());
+        assertEquals("2 New Street", userStorage.find("john@example.com").orElseThrow().getAddress());
+        assertEquals(2, userStorage.findByBirthDateRange(LocalDate.of(2000, 1, 1), LocalDate.of(2000, 1, 1)).size());
+    }
+
+    @Test
+    void testAtomicWriteAllWithRejectionChangesNothing() {
+        User john = user("john@example.com", "1 Old Street");
+        userStorage.insert(john);
+
+        List<RuntimeException> rejected = userStorage.writeAll(List.of(
+                write("john@example.com", "john@example.com", users -> null),
+                write("jane@example.com", "jane@example.com", users -> user("jane@example.com", "3 Lane")),
+                write("john@example.com", "john@example.com", users -> {
+                    if (users.apply("john@example.com") == null) {
+                        throw new IllegalStateException("removed");
+                    }
+                    return user("john@example.com", "2 New Street");
+                })), true);
+
+        assertNull(rejected.get(0));
+        assertNull(rejected.get(1));
+        assertInstanceOf(IllegalStateException.class, rejected.get(2));
+        assertEquals(john, userStorage.find("john@example.com").orElseThrow());
+        assertFalse(userStorage.contains("jane@example.com"));
+        assertEquals(1, userStorage.size());
+    }
+
+    @Test
+    void testWriteAllRefusedByTheChangeLogAppliesNothingOfTheRefusedWrites() {
+        User john = user("john@example.com", "1 Old Street");
+        userStorage.insert(john);
+        userStorage.setChangeLog(new UserChangeLog() {
+            @Override
+            public long append(String email, User updated) {
+                if (email.equals("jane@example.com")) {
+                    throw new IllegalStateException("Write-ahead log is closed");
+                }
+                return 0;
+            }
+
+            @Override
+            public void awaitDurable(long position) {
+            }
+        });
+        List<UserBatchWrite> writes = List.of(
+                write("john@example.com", "john@example.com", users -> user("john@example.com", "2 New Street")),
+                write("jane@example.com", "jane@example.com", users -> user("jane@example.com", "3 Lane")));
+
+        assertThrows(IllegalStateException.class, () -> userStorage.writeAll(writes, true));
+        assertEquals(john, userStorage.find("john@example.com").orElseThrow());
+        assertFalse(userStorage.contains("jane@example.com"));
+
+        List<RuntimeException> rejected = userStorage.writeAll(writes, false);
+
+        assertNull(rejected.get(0));
+        assertInstanceOf(IllegalStateException.class, rejected.get(1));
+        assertEquals("2 New Street", userStorage.find("john@example.com").orElseThrow().getAddress());
+        assertFalse(userStorage.contains("jane@example.com"));
+    }
+
+    @Test
+    void testBirthDateIndexFollowsInsertUpdateRenameAndRemove() {
+        User user1 = new User("user1@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), null, null);
+        User user2 = new User("user2@example.com", "Jane", "Doe", LocalDate.of(1995, 5, 5), null, null);
+        userStorage.insert(user1);
+        userStorage.insert(user2);
+
+        assertEquals(List.of(user2, user1),
+                userStorage.findByBirthDateRange(LocalDate.of(1990, 1, 1), LocalDate.of(2000, 1, 1)));
+
+        User moved = new User("moved@example.com", "John", "Doe", LocalDate.of(1980, 3, 3), null, null);
+        assertEquals(UserStorage.WriteResult.APPLIED, userStorage.compareAndSet(user1.getEmail(), user1, moved));
+        assertEquals(List.of(user2),
+                userStorage.findByBirthDateRange(LocalDate.of(1990, 1, 1), LocalDate.of(2000, 1, 1)));
+        assertEquals(List.of(moved),
+                userStorage.findByBirthDateRange(LocalDate.of(1980, 3, 3), LocalDate.of(1980, 3, 3)));
+
+        userStorage.remove(moved.getEmail());
+        assertTrue(userStorage.findByBirthDateRange(LocalDate.of(1970, 1, 1), LocalDate.of(1990, 1, 1)).isEmpty());
+        assertEquals(1, userStorage.birthDateIndexSize());
+    }
+
+    @Test
+    void testCountsFollowInsertUpdateRenameAndRemove() {
+        LocalDate first = LocalDate.of(2000, 1, 1);
+        // Two buckets: January and February 2000
+        int[] bucketOfDay = new int[60];
+        Arrays.fill(bucketOfDay, 31, 60, 1);
+        for (int i = 0; i < 1_000; i++) {
+            userStorage.insert(new User("user" + i + "@" + (i % 3 == 0 ? "a.com" : "b.com"), "John", "Doe",
+                    first.plusDays(i % 60), null, null));
+        }
+        userStorage.insert(new User("nobirth@a.com", "John", "Doe", null, null, null));
+
+        assertArrayEquals(new long[]{527, 473}, userStorage.countByBirthDay(first, bucketOfDay, 2, null));
+        assertArrayEquals(new long[]{187, 147}, userStorage.countByBirthDay(first, bucketOfDay, 2, "a.com"));
+        assertArrayEquals(new long[]{0, 0}, userStorage.countByBirthDay(first, bucketOfDay, 2, "c.com"));
+        assertEquals(Map.of("a.com", 335L, "b.com", 666L), userStorage.countByDomain(null, null));
+        assertEquals(Map.of("a.com", 187L, "b.com", 340L), userStorage.countByDomain(first, first.plusDays(30)));
+
+        User user0 = userStorage.find("user0@a.com").orElseThrow();
+        userStorage.compareAndSet(user0.getEmail(), user0, user0.withBirthDate(first.plusDays(40)));
+        User user3 = userStorage.find("user3@a.com").orElseThrow();
+        userStorage.compareAndSet(user3.getEmail(), user3, user3.withEmail("user3@c.com"));
+        userStorage.remove("user1@b.com");
+
+        assertArrayEquals(new long[]{525, 474}, userStorage.countByBirthDay(first, bucketOfDay, 2, null));
+        assertEquals(Map.of("a.com", 334L, "b.com", 665L, "c.com", 1L), userStorage.countByDomain(null, null));
+        for (int i = 0; i < 1_000; i++) {
+            userStorage.remove("user" + i + "@" + (i % 3 == 0 ? "a.com" : "b.com"));
+        }
+        assertEquals(Map.of("a.com", 1L, "c.com", 1L), userStorage.countByDomain(null, null));
+    }
+
+    @Test
+    void testConcurrentWritesOnSameBirthDateKeepIndexComplete() throws Exception {
+        int perThread = 500;
+        AtomicInteger threadIds = new AtomicInteger();
+
+        runConcurrently(() -> {
+            int id = threadIds.getAndIncrement();
+            for (int i = 0; i < perThread; i++) {
+                userStorage.insert(user("keep" + id + "-" + i + "@example.com", "0"));
+                userStorage.insert(user("drop" + id + "-" + i + "@example.com", "0"));
+                userStorage.remove("drop" + id + "-" + i + "@example.com");
+            }
+        });
+
+        LocalDate birthDate = LocalDate.of(2000, 1, 1);
+        assertEquals(THREADS * perThread, userStorage.findByBirthDateRange(birthDate, birthDate).size());
+        assertEquals(THREADS * perThread, userStorage.size());
+        // Every user shares the last name, whose posting list is updated in place by all threads
+        assertEquals(THREADS * perThread, userStorage.search("doe", THREADS * perThread + 1).size());
+        assertTrue(userStorage.search("drop", 10).isEmpty());
+    }
+
+    @Test
+    void testSearchMatchesPrefixesOfEveryFieldBestFirst() {
+        User john = new User("john.smith@example.com", "John", "Smith", LocalDate.of(1990, 1, 1),
+                "12 Baker Street, London", "+44 20 7946 0018");
+        User johnny = new User("johnny@example.com", "Johnny", "Walker", LocalDate.of(1990, 1, 1),
+                "5 Abbey Road, London", "555-0100");
+        User jane = new User("jane@example.com", "Jane", "Johnson", LocalDate.of(1990, 1, 1),
+                "7 Baker Street, Leeds", null);
+        userStorage.insert(john);
+        userStorage.insert(johnny);
+        userStorage.insert(jane);
+
+        // An exact first name beats a prefix of a first or last name, ties are ordered by email
+        assertEquals(List.of(john, johnny, jane), userStorage.search("john", 10));
+        assertEquals(List.of(john, johnny), userStorage.search("john", 2));
+        assertEquals(List.of(jane, john), userStorage.search("baker", 10));
+        assertEquals(List.of(john), userStorage.search("baker lond", 10));
+        assertEquals(List.of(johnny), userStorage.search("JOHNNY@EX", 10));
+        assertEquals(List.of(john), userStorage.search("+44 20", 10));
+        assertEquals(List.of(johnny), userStorage.search("555-01", 10));
+        assertTrue(userStorage.search("smith leeds", 10).isEmpty());
+        assertTrue(userStorage.search("  ", 10).isEmpty());
+    }
+
+    @Test
+    void testSearchFollowsUpdateRenameAndRemove() {
+        User user = new User("user1@example.com", "John", "Doe", LocalDate.of(2000, 1, 1), "Baker Street", null);
+        userStorage.insert(user);
+
+        User updated = new User("user1@example.com", "Jack", "Doe", LocalDate.of(2000, 1, 1), "Baker Street", null);
+        assertEquals(UserStorage.WriteResult.APPLIED, userStorage.compareAndSet(user.getEmail(), user, updated));
+        assertTrue(userStorage.search("john", 10).isEmpty());
+        assertEquals(List.of(updated), userStorage.search("jack baker", 10));
+
+        User moved = new User("moved@example.com", "Jack", "Doe", LocalDate.of(2000, 1, 1), "Baker Street", null);
+        assertEquals(UserStorage.WriteResult.APPLIED, userStorage.compareAndSet(updated.getEmail(), updated, moved));
+        assertTrue(userStorage.search("user1", 10).isEmpty());
+        assertEquals(List.of(moved), userStorage.search("moved", 10));
+        assertEquals(List.of(moved), userStorage.search("jack", 10));
+
+        userStorage.remove(moved.getEmail());
+        assertTrue(userStorage.search("jack", 10).isEmpty());
+        assertEquals(0, userStorage.textIndexSize());
+    }
+
+    @Test
+    void testCommonTokensAreDroppedWithTheirLastUser() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int round = 0; round < 50; round++) {
+                        for (int i = 0; i < 20; i++) {
+                            userStorage.insert(user("user" + thread + "-" + i + "@example.com", "1 Common Street"));
+                        }
+                        for (int i = 0; i < 20; i++) {
+                            userStorage.remove("user" + thread + "-" + i + "@example.com");
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, userStorage.textIndexSize());
+
+        for (int i = 0; i < 100; i++) {
+            userStorage.insert(user("user" + i + "@example.com", "1 Common Street"));
+        }
+        assertEquals(100, userStorage.search("common", 200).size());
+    }
+
+    @Test
+    void testSnapshotKeepsUsersAsOfOpening() {
+        User updated = user("updated@example.com", "1 Old Street");
+        User renamed = user("renamed@example.com", "1 Old Street");
+        User removed = user("removed@example.com", "1 Old Street");
+        userStorage.insert(updated);
+        userStorage.insert(renamed);
+        userStorage.insert(removed);
+
+        try (UserStorageSnapshot snapshot = userStorage.openSnapshot()) {
+            userStorage.compareAndSet(updated.getEmail(), updated, user("updated@example.com", "2 New Street"));
+            userStorage.compareAndSet(renamed.getEmail(), renamed, user("moved@example.com", "1 Old Street"));
+            userStorage.remove(removed.getEmail());
+            userStorage.insert(user("inserted@example.com", "1 Old Street"));
+
+            assertEquals(3, snapshot.size());
+            assertEquals(Set.of(updated, renamed, removed), snapshot.stream().collect(Collectors.toSet()));
+        }
+        try (UserStorageSnapshot snapshot = userStorage.openSnapshot()) {
+            assertEquals(Set.of("updated@example.com", "moved@example.com", "inserted@example.com"),
+                    snapshot.stream().map(User::getEmail).collect(Collectors.toSet()));
+        }
+    }
+
+    @Test
+    void testSnapshotReadWhileRewritingReturnsEveryUserOnce() throws Exception {
+        int users = 5_000;
+        for (int i = 0; i < users; i++) {
+            userStorage.insert(user("user" + i + "@example.com", "0"));
+        }
+        UserStorageSnapshot snapshot = userStorage.openSnapshot();
+        AtomicBoolean done = new AtomicBoolean();
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            writers.add(executor.submit(() -> {
+                while (!done.get()) {
+                    String email = "user" + ThreadLocalRandom.current().nextInt(users) + "@example.com";
+                    User current = userStorage.find(email).orElseThrow();
+                    int version = Integer.parseInt(current.getAddress());
+                    userStorage.compareAndSet(email, current, user(email, Integer.toString(version + 1)));
+                }
+            }));
+        }
+
+        try (snapshot) {
+            Thread.sleep(20);
+            List<User> exported = snapshot.stream().toList();
+            done.set(true);
+
+            assertEquals(users, exported.size());
+            assertEquals(users, exported.stream().map(User::getEmail).distinct().count());
+            assertTrue(exported.stream().allMatch(user -> user.getAddress().equals("0")));
+        } finally {
+            done.set(true);
+        }
+        for (Future<?> writer : writers) {
+            writer.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void testReadsWhileTablesGrowAndShrinkFindEveryKeptUser() throws Exception {
+        int kept = 2_000;
+        for (int i = 0; i < kept; i++) {
+            userStorage.insert(user("kept" + i + "@example.com", "0"));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        Future<?> writer = executor.submit(() -> {
+            //  Every round fills the tables with new users and removes them again, leaving tombstones behind
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 5_000; i++) {
+                    userStorage.insert(user("churn" + i + "@example.com", "0"));
+                }
+                for (int i = 0; i < 5_000; i++) {
+                    assertNotNull(userStorage.remove("churn" + i + "@example.com"));
+                }
+            }
+            done.set(true);
+        });
+
+        try {
+            while (!done.get()) {
+                String email = "kept" + ThreadLocalRandom.current().nextInt(kept) + "@example.com";
+                assertEquals(email, userStorage.find(email).orElseThrow().getEmail());
+                assertFalse(userStorage.contains("never@example.com"));
+            }
+        } finally {
+            done.set(true);
+        }
+        writer.get(60, TimeUnit.SECONDS);
+        assertEquals(kept, userStorage.size());
+        assertEquals(kept, userStorage.findAll().stream().map(User::getEmail).distinct().count());
+    }
+
+    protected void runConcurrently(Runnable task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Callable<Void> worker = () -> {
+                start.await();
+                task.run();
+                return null;
+            };
+            futures.add(executor.submit(worker));
+        }
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    private static UserBatchWrite write(String email, String target, Function<Function<String, User>, User> decide) {
+        return new UserBatchWrite() {
+            @Override
+            public String email() {
+                return email;
+            }
+
+            @Override
+            public String target() {
+                return target;
+            }
+
+            @Override
+            public User apply(Function<String, User> users) {
+                return decide.apply(users);
+            }
+        };
+    }
+
+    protected static User user(String email, String address) {
+        return new User(email, "John", "Doe", LocalDate.of(2000, 1, 1), address, "1234567890");
+    }
+}
@@ -0,0 +1,191 @@
+package ua.savchenko.user_management.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ua.savchenko.user_management.model.User;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserWriteAheadLogTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void testReplayRestoresCreateUpdateRenameAndDelete() throws IOException {
+        UserStorage userStorage = new InMemoryUserStorage();
+        try (UserWriteAheadLog log = open(0)) {
+            userStorage.setChangeLog(log);
+            User john = user("john@example.com", "John");
+            userStorage.insert(john);
+            userStorage.insert(user("jane@example.com", "Jane"));
+            userStorage.putAll(List.of(user("jack@example.com", "Jack")), false);
+            User renamed = user("johnny@example.com", "Johnny");
+            userStorage.compareAndSet(john.getEmail(), john, renamed);
+            userStorage.remove("jane@example.com");
+        }
+
+        UserStorage recovered = recover();
+
+        assertEquals(2, recovered.size());
+        assertEquals("Johnny", recovered.find("johnny@example.com").orElseThrow().getFirstName());
+        assertTrue(recovered.contains("jack@example.com"));
+        assertFalse(recovered.contains("john@example.com"));
+        assertEquals(2, recovered.findByBirthDateRange(LocalDate.of(1990, 1, 1), LocalDate.of(1990, 1, 1)).size());
+    }
+
+    @Test
+    void testRecoveryKeepsVersionsAndHandsOutLaterOnes() throws IOException {
+        UserStorage userStorage = new InMemoryUserStorage();
+        try (UserWriteAheadLog log = open(0)) {
+            userStorage.setChangeLog(log);
+            userStorage.insert(user("john@example.com", "John").withVersion(userStorage.nextVersion()));
+            User jane = user("jane@example.com", "Jane").withVersion(userStorage.nextVersion());
+            userStorage.insert(jane);
+
+            long position = log.rotate();
+            UserSnapshots.write(directory, position, userStorage.findAll());
+            userStorage.compareAndSet(jane.getEmail(), jane, jane.withFirstName("Janet").withVersion(userStorage.nextVersion()));
+        }
+
+        UserStorage recovered = recover();
+
+        assertEquals(1, recovered.find("john@example.com").orElseThrow().getVersion());
+        assertEquals(3, recovered.find("jane@example.com").orElseThrow().getVersion());
+        assertEquals(4, recovered.nextVersion());
+    }
+
+    @Test
+    void testReplayCutsOffTornTail() throws IOException {
+        try (UserWriteAheadLog log = open(0)) {
+            log.awaitDurable(log.append("john@example.com", user("john@example.com", "John")));
+            log.awaitDurable(log.append("jane@example.com", user("jane@example.com", "Jane")));
+        }
+        Path segment = segments().get(0);
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+
+        UserStorage recovered = recover();
+
+        assertEquals(1, recovered.size());
+        assertTrue(recovered.contains("john@example.com"));
+        assertTrue(Files.size(segment) < size - 3);
+    }
+
+    @Test
+    void testSnapshotPlusLogTailRestoresStateAndDropsCoveredSegments() throws IOException {
+        UserStorage userStorage = new InMemoryUserStorage();
+        try (UserWriteAheadLog log = open(0)) {
+            userStorage.setChangeLog(log);
+            userStorage.insert(user("john@example.com", "John"));
+            userStorage.insert(user("jane@example.com", "Jane"));
+
+            long position = log.rotate();
+            UserSnapshots.write(directory, position, userStorage.findAll());
+            log.deleteSegmentsUpTo(position);
+
+            userStorage.remove("john@example.com");
+            userStorage.insert(user("jack@example.com", "Jack"));
+        }
+
+        assertEquals(1, segments().size());
+        UserStorage recovered = recover();
+
+        assertEquals(2, recovered.size());
+        assertTrue(recovered.contains("jane@example.com"));
+        assertTrue(recovered.contains("jack@example.com"));
+        assertFalse(recovered.contains("john@example.com"));
+    }
+
+    @Test
+    void testClosedLogRefusesChangesBeforeTheyAreApplied() throws IOException {
+        UserStorage userStorage = new InMemoryUserStorage();
+        UserWriteAheadLog log = open(0);
+        userStorage.setChangeLog(log);
+        userStorage.insert(user("john@example.com", "John"));
+        log.close();
+
+        assertThrows(IllegalStateException.class, () -> userStorage.insert(user("jane@example.com", "Jane")));
+        assertFalse(userStorage.contains("jane@example.com"));
+        assertThrows(IllegalStateException.class, () -> log.awaitDurable(log.lastPosition() + 1));
+        assertEquals(1, recover().size());
+    }
+
+    @Test
+    void testConcurrentAppendsAreAllDurableWithGroupCommit() throws Exception {
+        UserStorage userStorage = new InMemoryUserStorage();
+        int threads = 8;
+        int perThread = 500;
+        try (UserWriteAheadLog log = open(0)) {
+            userStorage.setChangeLog(log);
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                workers[t] = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        userStorage.insert(user("user" + id + "-" + i + "@example.com", "John"));
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+
+        assertEquals(threads * perThread, recover().size());
+    }
+
+    @Test
+    void testVirtualThreadWritersWaitForGroupCommits() throws Exception {
+        UserStorage userStorage = new InMemoryUserStorage();
+        int writers = 2_000;
+        try (UserWriteAheadLog log = open(0)) {
+            userStorage.setChangeLog(log);
+            // Waiting for durability parks on a lock condition, so it never pins the carrier threads
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < writers; i++) {
+                    int id = i;
+                    executor.submit(() -> userStorage.insert(user("user" + id + "@example.com", "John")));
+                }
+            }
+        }
+
+        assertEquals(writers, recover().size());
+    }
+
+    private UserWriteAheadLog open(long lastPosition) throws IOException {
+        return new UserWriteAheadLog(directory, lastPosition, FsyncPolicy.ALWAYS, Duration.ofMillis(100));
+    }
+
+    private UserStorage recover() throws IOException {
+        UserStorage recovered = new InMemoryUserStorage();
+        long snapshotPosition = UserSnapshots.load(directory, recovered::restore);
+        UserWriteAheadLog.replay(directory, snapshotPosition, recovered::restore);
+        return recovered;
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    private static User user(String email, String firstName) {
+        return new User(email, firstName, "Doe", LocalDate.of(1990, 1, 1), null, null);
+    }
+}
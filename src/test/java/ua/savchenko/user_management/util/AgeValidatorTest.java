@@ -6,46 +6,103 @@ import static org.mockito.Mockito.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.Clock;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 
 import ua.savchenko.user_management.configuration.UserConfiguration;
-import ua.savchenko.user_management.exception.ValidatorException;
 
 @ExtendWith(MockitoExtension.class)
 class AgeValidatorTest {
 
-    @InjectMocks
+    private static final ZoneId ZONE = ZoneOffset.UTC;
+
     private AgeValidator ageValidator;
 
     @Mock
     private UserConfiguration userConfiguration;
 
+    @Mock
+    private Clock clock;
+
     @BeforeEach
     void setUp() {
         when(userConfiguration.getMinAge()).thenReturn(18);
+        when(clock.getZone()).thenReturn(ZONE);
+        ageValidator = new AgeValidator(userConfiguration, clock);
+    }
+
+    @Test
+    void testCheckWhenAgeIsSufficientShouldReturnNull() {
+        today(LocalDate.of(2024, 6, 15));
+        LocalDate birthDate = LocalDate.of(2004, 6, 15);
+
+        assertNull(ageValidator.check(birthDate));
     }
 
     @Test
-    void testCheckForAgeWhenAgeIsSufficientShouldNotThrowException() {
-        LocalDate birthDate = LocalDate.now().minusYears(20);
+    void testCheckWhenAgeIsNotSufficientShouldReturnTheMessage() {
+        today(LocalDate.of(2024, 6, 15));
+        LocalDate birthDate = LocalDate.of(2008, 6, 15);
 
-        assertDoesNotThrow(() -> ageValidator.checkForAge(birthDate));
+        assertEquals("User must be at least 18 years old", ageValidator.check(birthDate));
     }
 
     @Test
-    void testCheckForAgeWhenAgeIsNotSufficientShouldThrowValidatorException() {
-        LocalDate birthDate = LocalDate.now().minusYears(16);
+    void testCheckOnEighteenthBirthdayPassesAndDayBeforeFails() {
+        today(LocalDate.of(2024, 6, 15));
 
-        ValidatorException thrown = assertThrows(
-                ValidatorException.class,
-                () -> ageValidator.checkForAge(birthDate),
-                "Expected checkForAge to throw, but it didn't"
-        );
+        assertNull(ageValidator.check(LocalDate.of(2006, 6, 15)));
+        assertNotNull(ageValidator.check(LocalDate.of(2006, 6, 16)));
+    }
+
+    @Test
+    void testCheckBornOnLeapDayComesOfAgeOnFirstOfMarch() {
+        LocalDate birthDate = LocalDate.of(2008, 2, 29);
+
+        today(LocalDate.of(2026, 2, 28));
+        assertNotNull(ageValidator.check(birthDate));
+
+        today(LocalDate.of(2026, 3, 1));
+        assertNull(ageValidator.check(birthDate));
+    }
+
+    @Test
+    void testCheckThresholdMovesWhenClockPassesMidnight() {
+        LocalDate birthDate = LocalDate.of(2006, 6, 16);
+        today(LocalDate.of(2024, 6, 15));
+        assertNotNull(ageValidator.check(birthDate));
+
+        when(clock.millis()).thenReturn(LocalDate.of(2024, 6, 16).atStartOfDay(ZONE).toInstant().toEpochMilli());
+        assertNull(ageValidator.check(birthDate));
+    }
+
+    @Test
+    void testCheckRejectsBirthDatesFromTodayOn() {
+        today(LocalDate.of(2024, 6, 15));
+
+        assertNull(ageValidator.check(LocalDate.of(2006, 6, 15)));
+        assertEquals("User must be at least 18 years old", ageValidator.check(LocalDate.of(2006, 6, 16)));
+        assertEquals("Birth date must be in the past", ageValidator.check(LocalDate.of(2024, 6, 15)));
+        assertEquals("Birth date must be in the past", ageValidator.check(LocalDate.of(2030, 1, 1)));
+    }
+
+    @Test
+    void testCheckRejectsBirthDatesMaxAgeYearsBackOrEarlier() {
+        today(LocalDate.of(2024, 6, 15));
+
+        assertNull(ageValidator.check(LocalDate.of(1874, 6, 16)));
+        assertEquals("User must be younger than 150 years", ageValidator.check(LocalDate.of(1874, 6, 15)));
+        assertEquals("User must be younger than 150 years", ageValidator.check(LocalDate.MIN));
+    }
 
-        assertTrue(thrown.getMessage().contains("User must be at least 18 years old"));
+    private void today(LocalDate date) {
+        Instant noon = date.atTime(12, 0).atZone(ZONE).toInstant();
+        when(clock.millis()).thenReturn(noon.toEpochMilli());
     }
 }
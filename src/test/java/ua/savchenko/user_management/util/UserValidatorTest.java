@@ -0,0 +1,86 @@
+package ua.savchenko.user_management.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDate;
+
+import ua.savchenko.user_management.exception.ValidatorException;
+import ua.savchenko.user_management.model.User;
+
+@ExtendWith(MockitoExtension.class)
+class UserValidatorTest {
+
+    private static final User USER = new User("john@example.com", "John", "Doe", LocalDate.of(1990, 1, 1),
+            "123 Street", "+380 (44) 123-45-67");
+
+    private UserValidator userValidator;
+
+    @Mock
+    private AgeValidator ageValidator;
+
+    @BeforeEach
+    void setUp() {
+        userValidator = new UserValidator(ageValidator);
+    }
+
+    @Test
+    void testCheckPassesAValidUser() {
+        assertNull(userValidator.check(USER));
+        assertNull(userValidator.check(USER.withPhoneNumber(null).withAddress(null)));
+        assertDoesNotThrow(() -> userValidator.validate(USER));
+    }
+
+    @Test
+    void testCheckStopsAtTheFirstFailureFromTheCheapest() {
+        assertEquals("Email is required", userValidator.check(new User("", " ", null, null, null, "x")));
+        assertEquals("First name is required", userValidator.check(USER.withFirstName(" ").withEmail("x")));
+        assertEquals("Last name is required", userValidator.check(USER.withLastName(null)));
+        assertEquals("Birth date is required", userValidator.check(USER.withBirthDate(null).withEmail("x")));
+        verifyNoInteractions(ageValidator);
+
+        when(ageValidator.check(USER.getBirthDate())).thenReturn("User must be at least 18 years old");
+        assertEquals("User must be at least 18 years old", userValidator.check(USER.withEmail("x")));
+    }
+
+    @Test
+    void testCheckRejectsMalformedEmailsAndPhoneNumbers() {
+        assertEquals("Email should be valid", userValidator.check(USER.withEmail("not-an-email")));
+        assertEquals("Email should be valid", userValidator.check(USER.withEmail("john@")));
+        assertEquals("Email should be valid", userValidator.check(USER.withEmail("john..doe@example.com")));
+        assertEquals("Email should be valid", userValidator.check(USER.withEmail("john@-example.com")));
+        assertEquals("Email should be valid", userValidator.check(USER.withEmail("a".repeat(65) + "@example.com")));
+        assertEquals("Phone number should be valid", userValidator.check(USER.withPhoneNumber("call me")));
+        assertEquals("Phone number should be valid", userValidator.check(USER.withPhoneNumber("12")));
+    }
+
+    @Test
+    void testIsEmailAcceptsWhatTheEmailConstraintAccepted() {
+        assertTrue(UserValidator.isEmail("john.o'neil+tag@mail.example.com"));
+        assertTrue(UserValidator.isEmail("a@b"));
+        assertTrue(UserValidator.isEmail("jürgen@bücher.de"));
+        assertTrue(UserValidator.isEmail("a".repeat(64) + "@example.com"));
+        assertFalse(UserValidator.isEmail("@example.com"));
+        assertFalse(UserValidator.isEmail("john@example..com"));
+    }
+
+    @Test
+    void testCheckPatchOnlyChecksTheFieldsItSets() {
+        assertNull(userValidator.checkPatch(new User()));
+        assertNull(userValidator.checkPatch(new User().withFirstName("Jane")));
+        assertEquals("Last name is required", userValidator.checkPatch(new User().withLastName("")));
+        assertEquals("Email should be valid", userValidator.checkPatch(new User().withEmail("jane")));
+
+        when(ageValidator.check(LocalDate.of(2030, 1, 1))).thenReturn("Birth date must be in the past");
+        ValidatorException thrown = assertThrows(ValidatorException.class,
+                () -> userValidator.validatePatch(new User().withBirthDate(LocalDate.of(2030, 1, 1))));
+        assertEquals("Birth date must be in the past", thrown.getMessage());
+        assertEquals(0, thrown.getStackTrace().length);
+    }
+}